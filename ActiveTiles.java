@@ -0,0 +1,737 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Which parts of the field are still changing. The field is split into
+ * tiles, the blocks of its region statistics (see RegionStats). After
+ * each step a tile is active if any of its cells changed, if any
+ * organism that moves (anything but algae) is in it, or if any of its
+ * algae has an empty cell next to it and so could still spread. A tile
+ * is awake if it or one of its eight neighbours is active, so that a
+ * change can spread into a tile before that tile has changed itself.
+ *
+ * The tracking is driven by the same hooks that keep the region
+ * statistics: the field reports each organism placed in the field being
+ * built and each one that dies, and only the tiles those touch, the
+ * tiles active after the last step and their neighbours are looked at
+ * again. A step in which little happens costs little, however large the
+ * field.
+ *
+ * Late in a run much of the ocean is empty, or full of algae that have
+ * nowhere to spread, and its tiles fall asleep. The algae of a sleeping
+ * tile are taken out of the field's list of acting organisms and held
+ * here; each new field takes over their cells and counts without them
+ * (see beginStep), so they cost nothing until the tile wakes and they
+ * go back to the list. Their disease is rolled in bulk: the gap to the
+ * next death among all sleeping algae is drawn from the same geometric
+ * distribution as one roll each would give (see applyDisease), and a
+ * death wakes the tile. A sleeping tile also wakes as soon as a
+ * neighbour is active again.
+ *
+ * Algae that sleep draw no random numbers of their own, so a seeded run
+ * differs from one without tracking, and an alga next to a cell freed by
+ * disease during the step may spread a step later than it would have.
+ * When steps run in parallel every tile's algae act, and the tiles are
+ * only worked out afresh afterwards. When events are scheduled no algae
+ * are held here, since the idle ones are held by the step itself (see
+ * ScheduledStepEngine). Tracking can be chosen at startup
+ * with -Dsimulator.activity=tracked or changed with setEnabled.
+ *
+ * @version 1.0
+ */
+public class ActiveTiles {
+    private static volatile boolean enabled = "tracked".equals(System.getProperty("simulator.activity"));
+
+    private final int depth, width;
+    private final int tileSize, tileRows, tileCols, tiles;
+    // Whether a cell of each tile changed in the last step, and which did.
+    private final boolean[] changed;
+    private final int[] changedList;
+    private int changedTiles;
+    // Whether each tile was active after the last step, and which were.
+    private final boolean[] active;
+    private final int[] activeList;
+    private int activeCount;
+    // Whether any alga of each tile had an empty neighbour when last
+    // looked at, which only changes when the tile or a neighbour does.
+    private final boolean[] spread;
+    // The number of active tiles among each tile and its neighbours; a
+    // tile is awake while this is above 0.
+    private final int[] activeNeighbours;
+    private int awakeTiles;
+    // The tiles whose awake count has reached or left 0 since the held
+    // algae were last brought in line with it.
+    private final int[] crossed;
+    private final boolean[] isCrossed;
+    private int crossedCount;
+
+    // The tiles to look at again after the step, each marked with the
+    // stamp of the step that added it.
+    private final int[] evaluate;
+    private final int[] evaluated;
+    private int evaluateCount, stamp;
+    private final int[] respread;
+    // Whether every tile is to be looked at again, e.g. after a reset.
+    private boolean touchAll;
+
+    // The codes before the step, the field the step started from and the
+    // one it is building, while a step runs.
+    private byte[] previous;
+    private Field current, building;
+    private boolean stepping;
+
+    // The algae of each sleeping tile by cell, or null, and whether each
+    // tile's algae are held here.
+    private final Organism[][] sleepers;
+    private final boolean[] sleeping;
+    private final int[] sleeperCounts;
+    // The tiles holding sleeping algae, and each tile's place in the list.
+    private final int[] sleeperTiles;
+    private final int[] sleeperTilePlace;
+    private int sleeperTileCount;
+    // Sleeping algae per tile, summed for finding the n-th (a Fenwick tree).
+    private final int[] sleeperSums;
+    private int sleeperTotal;
+    // Sleeping algae turns left until the next one falls ill, or 0 if not
+    // yet drawn.
+    private long diseaseGap;
+    // Whether the algae of sleeping tiles are held here, and whether they
+    // were not in the step before, so that every sleeping tile's algae
+    // must be taken.
+    private boolean holding = true;
+    private boolean resumed;
+
+    /**
+     * Create tracking for a field, with every tile awake and changed.
+     *
+     * @param depth    The depth of the field.
+     * @param width    The width of the field.
+     * @param tileSize The side of a tile in cells; the field's region
+     *                 statistics' block size.
+     */
+    public ActiveTiles(int depth, int width, int tileSize) {
+        this.depth = depth;
+        this.width = width;
+        this.tileSize = tileSize;
+        tileRows = (depth + tileSize - 1) / tileSize;
+        tileCols = (width + tileSize - 1) / tileSize;
+        tiles = tileRows * tileCols;
+        changed = new boolean[tiles];
+        changedList = new int[tiles];
+        active = new boolean[tiles];
+        activeList = new int[tiles];
+        spread = new boolean[tiles];
+        activeNeighbours = new int[tiles];
+        crossed = new int[tiles];
+        isCrossed = new boolean[tiles];
+        evaluate = new int[tiles];
+        evaluated = new int[tiles];
+        respread = new int[tiles];
+        sleepers = new Organism[tiles][];
+        sleeping = new boolean[tiles];
+        sleeperCounts = new int[tiles];
+        sleeperTiles = new int[tiles];
+        sleeperTilePlace = new int[tiles];
+        sleeperSums = new int[tiles + 1];
+        wakeAll(null);
+    }
+
+    /**
+     * @return true if activity should be tracked.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose whether simulators created from now on track activity.
+     *
+     * @param track true to track activity.
+     */
+    public static void setEnabled(boolean track) {
+        enabled = track;
+    }
+
+    /**
+     * Mark every tile awake and changed, e.g. after populating, and forget
+     * any sleeping algae: the field now holds every organism itself.
+     *
+     * @param field The field now being tracked, or null.
+     */
+    public void wakeAll(Field field) {
+        for (int i = 0; i < sleeperTileCount; i++) {
+            sleepers[sleeperTiles[i]] = null;
+        }
+        sleeperTileCount = 0;
+        sleeperTotal = 0;
+        Arrays.fill(sleeperCounts, 0);
+        Arrays.fill(sleeperSums, 0);
+        Arrays.fill(sleeping, false);
+        diseaseGap = 0;
+
+        Arrays.fill(changed, true);
+        Arrays.fill(active, true);
+        Arrays.fill(spread, true);
+        for (int tile = 0; tile < tiles; tile++) {
+            changedList[tile] = tile;
+            activeList[tile] = tile;
+            activeNeighbours[tile] = neighbourCount(tile);
+        }
+        for (int i = 0; i < crossedCount; i++) {
+            isCrossed[crossed[i]] = false;
+        }
+        crossedCount = 0;
+        changedTiles = tiles;
+        activeCount = tiles;
+        awakeTiles = tiles;
+        touchAll = true;
+        previous = null;
+        building = null;
+        stepping = false;
+        current = field;
+        if (field != null) {
+            field.setActiveTiles(this);
+        }
+    }
+
+    /**
+     * Start tracking a step from one field to the next. The new field takes
+     * over the cells and counts of the sleeping algae, and reports to this
+     * tracking what is placed in it. When the step runs in parallel the
+     * sleeping algae go back to the current field to act, since organisms
+     * acting on several threads cannot report to it; when events are
+     * scheduled they go back to be held as idle instead.
+     *
+     * @param field          The current state of the field.
+     * @param nextFieldState The new state to be built.
+     * @param parallel       Whether organisms act on several threads.
+     */
+    public void beginStep(Field field, Field nextFieldState, boolean parallel) {
+        previous = field.getSpeciesCodes();
+        current = field;
+        stepping = true;
+        stamp++;
+        evaluateCount = 0;
+        boolean hold = !parallel && !EventCalendar.isEnabled();
+        resumed = hold && !holding;
+        holding = hold;
+        if (!hold) {
+            while (sleeperTileCount > 0) {
+                wakeSleepers(field, sleeperTiles[sleeperTileCount - 1]);
+            }
+        }
+        if (parallel) {
+            touchAll = true;
+            return;
+        }
+        building = nextFieldState;
+        nextFieldState.setActiveTiles(this);
+        for (int i = 0; i < sleeperTileCount; i++) {
+            int tile = sleeperTiles[i];
+            nextFieldState.carryAsleep(previous, tile / tileCols, tile % tileCols, sleeperCounts[tile]);
+        }
+    }
+
+    /**
+     * Note that an organism has been placed in a field. In the field being
+     * built the cell's tile is looked at again after the step if the
+     * cell's species differs from before; between steps, a change to the
+     * current field makes the cell's tile active at once.
+     *
+     * @param field The field it was placed in.
+     * @param row   The cell's row.
+     * @param col   The cell's column.
+     * @param code  The organism's species code.
+     */
+    void placed(Field field, int row, int col, byte code) {
+        if (stepping) {
+            if (field == building && previous[row * width + col] != code) {
+                touch(tileOf(row, col));
+            }
+        } else if (field == current) {
+            activate(field, tileOf(row, col));
+        }
+    }
+
+    /**
+     * Note that an organism has died in a field. During a step the cell's
+     * tile is looked at again afterwards; between steps it becomes active
+     * at once.
+     *
+     * @param field The field it died in.
+     * @param row   The cell's row.
+     * @param col   The cell's column.
+     */
+    void vacated(Field field, int row, int col) {
+        if (stepping) {
+            if (building != null && (field == building || field == current)) {
+                touch(tileOf(row, col));
+            }
+        } else if (field == current) {
+            activate(field, tileOf(row, col));
+        }
+    }
+
+    /**
+     * Give each sleeping alga the chance to die of disease this step, as
+     * each organism that acts has. Rather than a roll each, the number of
+     * turns to the next death among all of them is drawn once (see
+     * EventCalendar.sampleGap) and carried over from step to step, so a
+     * step in which none dies costs nothing. An alga that dies leaves the
+     * new field, and its tile is looked at again after the step.
+     *
+     * @param nextFieldState The new state being built.
+     * @param probability    The chance of each alga dying in a step.
+     * @param rand           The source of randomness.
+     */
+    public void applyDisease(Field nextFieldState, double probability, Random rand) {
+        if (building != nextFieldState || sleeperTotal == 0) {
+            return;
+        }
+        long turns = sleeperTotal;
+        long taken = 0;
+        int died = 0;
+        while (true) {
+            if (diseaseGap == 0) {
+                diseaseGap = EventCalendar.sampleGap(probability, rand);
+            }
+            if (taken + diseaseGap > turns) {
+                diseaseGap -= turns - taken;
+                return;
+            }
+            taken += diseaseGap;
+            diseaseGap = 0;
+            // The dead so far came before this one, so it has moved up.
+            killSleeper(nextFieldState, (int) (taken - 1 - died));
+            died++;
+        }
+    }
+
+    /**
+     * Work out which tiles are active and awake after a step, from what
+     * was reported during it, and move the algae of tiles that fall asleep
+     * out of the field and those of tiles that wake back in.
+     *
+     * @param field The new state of the field.
+     */
+    public void update(Field field) {
+        byte[] codes = field.getSpeciesCodes();
+        int[] counts = field.getRegionStats().getCounts();
+        current = field;
+        building = null;
+        stepping = false;
+        field.setActiveTiles(this);
+
+        for (int i = 0; i < changedTiles; i++) {
+            changed[changedList[i]] = false;
+        }
+        changedTiles = 0;
+        boolean everything = touchAll;
+        touchAll = false;
+        if (everything) {
+            evaluateCount = 0;
+            for (int tile = 0; tile < tiles; tile++) {
+                evaluated[tile] = stamp;
+                evaluate[evaluateCount++] = tile;
+            }
+        } else {
+            // A tile that was active may have lost its last mover without
+            // a report, so each is looked at again.
+            for (int i = 0; i < activeCount; i++) {
+                touch(activeList[i]);
+            }
+        }
+
+        int looked = evaluateCount;
+        for (int i = 0; i < looked; i++) {
+            int tile = evaluate[i];
+            if (previous == null || differs(previous, codes, tile)) {
+                changed[tile] = true;
+                changedList[changedTiles++] = tile;
+            }
+        }
+        // Whether algae can spread only changes near a change.
+        for (int i = 0; i < (everything ? tiles : changedTiles); i++) {
+            int tile = everything ? i : changedList[i];
+            int tileRow = tile / tileCols;
+            int tileCol = tile % tileCols;
+            for (int r = Math.max(0, tileRow - 1); r <= Math.min(tileRows - 1, tileRow + 1); r++) {
+                for (int c = Math.max(0, tileCol - 1); c <= Math.min(tileCols - 1, tileCol + 1); c++) {
+                    int near = r * tileCols + c;
+                    if (evaluated[near] != stamp) {
+                        touch(near);
+                    }
+                    if (respread[near] != stamp) {
+                        respread[near] = stamp;
+                        spread[near] = counts[Species.ALGAE.code() * tiles + near] > 0
+                                && canSpread(codes, near);
+                    }
+                }
+            }
+        }
+
+        // Every tile active before is among those looked at, so any tile
+        // left out stays inactive.
+        activeCount = 0;
+        for (int i = 0; i < evaluateCount; i++) {
+            int tile = evaluate[i];
+            boolean now = changed[tile] || hasMovers(counts, tile) || spread[tile];
+            if (now != active[tile]) {
+                setActive(tile, now);
+            }
+            if (now) {
+                activeList[activeCount++] = tile;
+            }
+        }
+        if (everything) {
+            // The algae of a parallel step all acted, whether asleep or not.
+            for (int tile = 0; tile < tiles; tile++) {
+                cross(tile);
+            }
+        }
+        settle(field);
+        previous = null;
+    }
+
+    /**
+     * Return the sleeping alga in a cell, if any.
+     *
+     * @param row The cell's row.
+     * @param col The cell's column.
+     * @return The alga, or null if the cell's tile is awake or the cell
+     *         holds no sleeping alga.
+     */
+    Organism getSleeper(int row, int col) {
+        Organism[] held = sleepers[tileOf(row, col)];
+        return held == null ? null : held[(row % tileSize) * tileSize + col % tileSize];
+    }
+
+    /**
+     * Add every sleeping alga to a list.
+     *
+     * @param organisms Receives the algae.
+     */
+    void addSleepersTo(List<Organism> organisms) {
+        for (int i = 0; i < sleeperTileCount; i++) {
+            for (Organism alga : sleepers[sleeperTiles[i]]) {
+                if (alga != null) {
+                    organisms.add(alga);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of sleeping algae held out of the field's list.
+     */
+    public int getSleeperCount() {
+        return sleeperTotal;
+    }
+
+    /**
+     * Hold an organism of the field's list if its tile is asleep, e.g.
+     * while the field's list is being filtered.
+     *
+     * @param organism An organism of the field's list.
+     * @return true if the organism is now held here and leaves the list.
+     */
+    boolean holdIfAsleep(Organism organism) {
+        Location location = organism.getLocation();
+        if (!organism.isAlive() || location == null) {
+            return false;
+        }
+        int tile = tileOf(location.row(), location.col());
+        if (!sleeping[tile]) {
+            return false;
+        }
+        Organism[] held = sleepers[tile];
+        if (held == null) {
+            held = new Organism[tileSize * tileSize];
+            sleepers[tile] = held;
+        }
+        held[(location.row() % tileSize) * tileSize + location.col() % tileSize] = organism;
+        addSleepers(tile, 1);
+        organism.setField(null);
+        organism.dropIllness();
+        return true;
+    }
+
+    /**
+     * @param row A cell's row.
+     * @param col A cell's column.
+     * @return true if the cell's tile is awake.
+     */
+    public boolean isAwake(int row, int col) {
+        return activeNeighbours[tileOf(row, col)] > 0;
+    }
+
+    /**
+     * @param tileRow The tile's row.
+     * @param tileCol The tile's column.
+     * @return true if a cell of the tile changed in the last step.
+     */
+    public boolean isChanged(int tileRow, int tileCol) {
+        return changed[tileRow * tileCols + tileCol];
+    }
+
+    /**
+     * @return The number of tiles with a cell that changed in the last
+     *         step.
+     */
+    public int getChangedTiles() {
+        return changedTiles;
+    }
+
+    /**
+     * @return The number of awake tiles.
+     */
+    public int getAwakeTiles() {
+        return awakeTiles;
+    }
+
+    /**
+     * @return The side of a tile in cells.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return The number of rows of tiles.
+     */
+    public int getTileRows() {
+        return tileRows;
+    }
+
+    /**
+     * @return The number of columns of tiles.
+     */
+    public int getTileCols() {
+        return tileCols;
+    }
+
+    private int tileOf(int row, int col) {
+        return (row / tileSize) * tileCols + col / tileSize;
+    }
+
+    /**
+     * Mark a tile to be looked at again after the step.
+     */
+    private void touch(int tile) {
+        if (evaluated[tile] != stamp) {
+            evaluated[tile] = stamp;
+            evaluate[evaluateCount++] = tile;
+        }
+    }
+
+    /**
+     * Make a tile active between steps, waking it and its neighbours.
+     */
+    private void activate(Field field, int tile) {
+        if (active[tile]) {
+            return;
+        }
+        setActive(tile, true);
+        activeList[activeCount++] = tile;
+        settle(field);
+    }
+
+    /**
+     * Change whether a tile is active, counting it in or out of its own
+     * and its neighbours' awake counts.
+     */
+    private void setActive(int tile, boolean now) {
+        active[tile] = now;
+        int tileRow = tile / tileCols;
+        int tileCol = tile % tileCols;
+        for (int r = Math.max(0, tileRow - 1); r <= Math.min(tileRows - 1, tileRow + 1); r++) {
+            for (int c = Math.max(0, tileCol - 1); c <= Math.min(tileCols - 1, tileCol + 1); c++) {
+                int near = r * tileCols + c;
+                if (now) {
+                    if (activeNeighbours[near]++ == 0) {
+                        awakeTiles++;
+                        cross(near);
+                    }
+                } else if (--activeNeighbours[near] == 0) {
+                    awakeTiles--;
+                    cross(near);
+                }
+            }
+        }
+    }
+
+    private void cross(int tile) {
+        if (!isCrossed[tile]) {
+            isCrossed[tile] = true;
+            crossed[crossedCount++] = tile;
+        }
+    }
+
+    /**
+     * Bring the held algae in line with which tiles are awake: wake the
+     * algae of tiles that woke, and hold those of tiles that fell asleep.
+     * Only tiles whose awake count reached or left 0 are looked at.
+     */
+    private void settle(Field field) {
+        boolean fellAsleep = false;
+        for (int n = 0; n < crossedCount; n++) {
+            int i = crossed[n];
+            isCrossed[i] = false;
+            boolean asleep = activeNeighbours[i] == 0;
+            if (asleep && !sleeping[i] && holding) {
+                sleeping[i] = true;
+                fellAsleep = true;
+            } else if (!asleep && sleeping[i]) {
+                wakeSleepers(field, i);
+            }
+        }
+        crossedCount = 0;
+        if (resumed) {
+            // Tiles fell asleep without being marked while nothing was held.
+            for (int i = 0; i < tiles; i++) {
+                if (activeNeighbours[i] == 0 && !sleeping[i]) {
+                    sleeping[i] = true;
+                    fellAsleep = true;
+                }
+            }
+            resumed = false;
+        }
+        if (fellAsleep) {
+            field.holdAsleep(this);
+        }
+    }
+
+    /**
+     * Put the algae of a tile back in the field's list.
+     */
+    private void wakeSleepers(Field field, int tile) {
+        sleeping[tile] = false;
+        Organism[] held = sleepers[tile];
+        if (held == null) {
+            return;
+        }
+        for (Organism alga : held) {
+            if (alga != null) {
+                field.addAwake(alga);
+            }
+        }
+        sleepers[tile] = null;
+        addSleepers(tile, -sleeperCounts[tile]);
+    }
+
+    /**
+     * Kill the n-th sleeping alga, counting tile by tile.
+     */
+    private void killSleeper(Field nextFieldState, int n) {
+        // Find the tile by descending the tree of sums.
+        int tile = 0;
+        int left = n;
+        for (int bit = Integer.highestOneBit(tiles); bit > 0; bit >>= 1) {
+            int next = tile + bit;
+            if (next <= tiles && sleeperSums[next] <= left) {
+                tile = next;
+                left -= sleeperSums[next];
+            }
+        }
+        Organism[] held = sleepers[tile];
+        for (int cell = 0; cell < held.length; cell++) {
+            if (held[cell] != null && left-- == 0) {
+                Organism alga = held[cell];
+                held[cell] = null;
+                addSleepers(tile, -1);
+                nextFieldState.clearAsleep(alga.getLocation());
+                alga.setDead();
+                touch(tile);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add to a tile's count of sleeping algae, keeping the list of tiles
+     * holding any and the tree of sums up to date.
+     */
+    private void addSleepers(int tile, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        int before = sleeperCounts[tile];
+        sleeperCounts[tile] = before + delta;
+        sleeperTotal += delta;
+        for (int i = tile + 1; i <= tiles; i += i & -i) {
+            sleeperSums[i] += delta;
+        }
+        if (before == 0) {
+            sleeperTilePlace[tile] = sleeperTileCount;
+            sleeperTiles[sleeperTileCount++] = tile;
+        } else if (sleeperCounts[tile] == 0) {
+            int place = sleeperTilePlace[tile];
+            int last = sleeperTiles[--sleeperTileCount];
+            sleeperTiles[place] = last;
+            sleeperTilePlace[last] = place;
+        }
+    }
+
+    private int neighbourCount(int tile) {
+        int tileRow = tile / tileCols;
+        int tileCol = tile % tileCols;
+        int rows = Math.min(tileRows - 1, tileRow + 1) - Math.max(0, tileRow - 1) + 1;
+        int cols = Math.min(tileCols - 1, tileCol + 1) - Math.max(0, tileCol - 1) + 1;
+        return rows * cols;
+    }
+
+    private boolean hasMovers(int[] counts, int tile) {
+        for (Species species : Species.values()) {
+            if (species != Species.ALGAE && counts[species.code() * tiles + tile] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return whether any cell of a tile differs between two code grids.
+     */
+    private boolean differs(byte[] before, byte[] after, int tile) {
+        int top = (tile / tileCols) * tileSize;
+        int bottom = Math.min(depth, top + tileSize);
+        int left = (tile % tileCols) * tileSize;
+        int right = Math.min(width, left + tileSize);
+        for (int row = top; row < bottom; row++) {
+            int from = row * width + left;
+            int to = row * width + right;
+            if (Arrays.mismatch(before, from, to, after, from, to) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return whether any alga in a tile has an empty cell next to it,
+     * possibly in another tile.
+     */
+    private boolean canSpread(byte[] codes, int tile) {
+        int top = (tile / tileCols) * tileSize;
+        int bottom = Math.min(depth, top + tileSize);
+        int left = (tile % tileCols) * tileSize;
+        int right = Math.min(width, left + tileSize);
+        byte algae = Species.ALGAE.code();
+        for (int row = top; row < bottom; row++) {
+            for (int col = left; col < right; col++) {
+                if (codes[row * width + col] != algae) {
+                    continue;
+                }
+                for (int r = Math.max(0, row - 1); r <= Math.min(depth - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                        if (codes[r * width + c] == Species.EMPTY) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -10,7 +10,9 @@ import java.util.Random;
  * @version 1.0
  */
 public class Algae extends Organism {
-    private static final double REPRODUCTION_PROBABILITY = 0.1;
+    // Package-private, so that scheduled breeding can be drawn for algae
+    // that are not visited (see ScheduledStepEngine).
+    static final double REPRODUCTION_PROBABILITY = 0.1;
 
     public Algae(Location location) {
         super(location);
@@ -22,7 +24,7 @@ public class Algae extends Organism {
             return;
         }
         Random rand = Randomizer.getRandom();
-        if (rand.nextDouble() < REPRODUCTION_PROBABILITY) {
+        if (breedingRoll(REPRODUCTION_PROBABILITY, rand)) {
             List<Location> free = currentField.getFreeAdjacentLocations(getLocation());
             if (!free.isEmpty()) {
                 Location loc = free.get(0);
@@ -34,4 +36,9 @@ public class Algae extends Organism {
         // Keep algae in the next field.
         nextField.placeAnimal(this, getLocation());
     }
+
+    @Override
+    public Species getSpecies() {
+        return Species.ALGAE;
+    }
 }
@@ -1,3 +1,6 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Random;
 
@@ -47,6 +50,9 @@ public class Barracuda extends Organism {
 
         Location nextLocation = findFood(currentField);
 
+        if (nextLocation == null) {
+            nextLocation = approachPrey(currentField, freeLocations, Species.TUNA, Species.SARDINE);
+        }
         if (nextLocation == null && !freeLocations.isEmpty()) {
             nextLocation = freeLocations.remove(0);
         }
@@ -81,8 +87,7 @@ public class Barracuda extends Organism {
         // First, search for Tuna
         for (Location loc : adjacent) {
             Organism animal = field.getAnimalAt(loc);
-            if (animal instanceof Tuna tuna && tuna.isAlive()) {
-                tuna.setDead();
+            if (animal instanceof Tuna tuna && tuna.tryKill()) {
                 foodLevel = TUNA_FOOD_VALUE;
                 return loc;
             }
@@ -90,8 +95,7 @@ public class Barracuda extends Organism {
         // If no Tuna found, look for Sardine
         for (Location loc : adjacent) {
             Organism animal = field.getAnimalAt(loc);
-            if (animal instanceof Sardine sardine && sardine.isAlive()) {
-                sardine.setDead();
+            if (animal instanceof Sardine sardine && sardine.tryKill()) {
                 foodLevel = SARDINE_FOOD_VALUE;
                 return loc;
             }
@@ -114,7 +118,7 @@ public class Barracuda extends Organism {
     private int breed() {
         int births;
 
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
+        if (canBreed() && breedingRoll(BREEDING_PROBABILITY, rand)) {
             births = rand.nextInt(MAX_LITTER_SIZE) + 1;
         } else {
             births = 0;
@@ -126,4 +130,21 @@ public class Barracuda extends Organism {
     private boolean canBreed() {
         return age >= BREEDING_AGE;
     }
+
+    @Override
+    protected void writeState(DataOutput out) throws IOException {
+        out.writeInt(age);
+        out.writeInt(foodLevel);
+    }
+
+    @Override
+    protected void readState(DataInput in) throws IOException {
+        age = in.readInt();
+        foodLevel = in.readInt();
+    }
+
+    @Override
+    public Species getSpecies() {
+        return Species.BARRACUDA;
+    }
 }
@@ -0,0 +1,602 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A simple timing harness for the simulation's hot passes. Each pass is
+ * warmed up, then timed over several runs, and the mean time per run is
+ * printed. Large fields need a big heap, e.g.
+ *     java -Xmx12g Benchmarks
+ *
+ * @version 1.0
+ */
+public class Benchmarks {
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 5;
+    // Field sides giving 1M and 16M cells.
+    private static final int[] FIELD_SIDES = { 1000, 4000 };
+    // Field side and step count for comparing storage backends.
+    private static final int STORAGE_SIDE = 2000;
+    private static final int STORAGE_STEPS = 20;
+    // Field side, step count and seed for timing rolled and scheduled
+    // events, and field side, steps, seeds, steps between comparisons and
+    // tolerance for comparing their mean populations.
+    private static final int EVENTS_SIDE = 1000;
+    private static final int EVENTS_STEPS = 10;
+    private static final long EVENTS_SEED = 42;
+    private static final int EVENTS_COMPARE_SIDE = 120;
+    private static final int EVENTS_COMPARE_STEPS = 100;
+    private static final int EVENTS_COMPARE_SEEDS = 16;
+    private static final int EVENTS_COMPARE_INTERVAL = 20;
+    private static final double EVENTS_STANDARD_ERRORS = 3;
+    private static final double EVENTS_MIN_DIFFERENCE = 5;
+    // Numbers drawn per run, and field side and steps, for comparing
+    // buffered and direct random numbers.
+    private static final int RANDOM_DRAWS = 10_000_000;
+    private static final int RANDOM_SIDE = 500;
+    private static final int RANDOM_STEPS = 10;
+    // Claims per thread, and field sides giving heavy and light
+    // contention, for benchmarking concurrent cell claiming.
+    private static final int CLAIMS_PER_THREAD = 2_000_000;
+    private static final int[] CLAIM_SIDES = { 8, 1000 };
+    private static final int CLAIMANTS = 1024;
+    // Field side and steps for comparing sequential and parallel steps.
+    private static final int PARALLEL_SIDE = 500;
+    private static final int PARALLEL_STEPS = 10;
+    // Field side, steps to reach a late stage, and steps timed there, for
+    // comparing runs with and without activity tracking.
+    private static final int ACTIVITY_SIDE = 300;
+    private static final int ACTIVITY_WARMUP_STEPS = 200;
+    private static final int ACTIVITY_STEPS = 50;
+    // Side of a colony put in the corner of empty oceans of each side, for
+    // checking that step cost follows activity rather than area.
+    private static final int COLONY_SIDE = 96;
+    private static final int[] OCEAN_SIDES = { 256, 1024 };
+    // Field sides for timing startup; 10000 needs a heap of tens of GB.
+    private static final int[] STARTUP_SIDES = { 500, 2000, 4000 };
+    // Field side, and rectangles counted per run, for comparing rectangle
+    // counts by scanning with those from summed-area tables.
+    private static final int RECTANGLE_SIDE = 2000;
+    private static final int RECTANGLE_QUERIES = 100;
+    // Field side, and sensing radii, for comparing nearest-prey searches
+    // by scanning with those from the spatial index.
+    private static final int SENSING_SIDE = 1000;
+    private static final int[] SENSING_RADII = { 5, 10, 20 };
+    // Field side, well past the last-level cache, and steps for comparing
+    // the orders organisms act in.
+    private static final int ORDER_SIDE = 1500;
+    private static final int ORDER_STEPS = 4;
+
+    public static void main(String[] args) {
+        for (int side : FIELD_SIDES) {
+            benchmarkFullGridPasses(side);
+        }
+        benchmarkStorage();
+        benchmarkEvents();
+        benchmarkRandom();
+        benchmarkClaims();
+        benchmarkStartup();
+        benchmarkActivity();
+        benchmarkRectangles();
+        benchmarkSensing();
+        benchmarkOrder();
+    }
+
+    /**
+     * Compare finding the nearest tuna to every shark by scanning the
+     * cells within a radius with finding it from the spatial index, and
+     * time building the index.
+     */
+    private static void benchmarkSensing() {
+        System.out.println("== Nearest prey, " + SENSING_SIDE + "x" + SENSING_SIDE + " cells ==");
+        Randomizer.setSeed(EVENTS_SEED);
+        Simulator simulator = new Simulator(SENSING_SIDE, SENSING_SIDE, false);
+        Field field = simulator.getField();
+        List<Location> sharks = new ArrayList<>();
+        for (Organism organism : field.getAnimals()) {
+            if (organism.isAlive() && organism.getSpecies() == Species.SHARK) {
+                sharks.add(organism.getLocation());
+            }
+        }
+        long[] sink = new long[1];
+        time("build spatial index", WARMUP_RUNS, TIMED_RUNS, () -> sink[0] += new SpatialIndex(field).hashCode());
+        SpatialIndex index = new SpatialIndex(field);
+        for (int radius : SENSING_RADII) {
+            time("scan, radius " + radius, 1, 3, () -> {
+                for (Location from : sharks) {
+                    int best = radius + 1;
+                    for (int row = Math.max(0, from.row() - radius); row <= Math.min(SENSING_SIDE - 1,
+                            from.row() + radius); row++) {
+                        for (int col = Math.max(0, from.col() - radius); col <= Math.min(SENSING_SIDE - 1,
+                                from.col() + radius); col++) {
+                            Organism occupant = field.getAnimalAt(new Location(row, col));
+                            int distance = Math.max(Math.abs(row - from.row()), Math.abs(col - from.col()));
+                            if (distance > 0 && distance < best && occupant != null && occupant.isAlive()
+                                    && occupant.getSpecies() == Species.TUNA) {
+                                best = distance;
+                            }
+                        }
+                    }
+                    sink[0] += best;
+                }
+            });
+            time("index, radius " + radius, WARMUP_RUNS, TIMED_RUNS, () -> {
+                for (Location from : sharks) {
+                    Location nearest = index.findNearest(from, radius, Species.TUNA);
+                    sink[0] += nearest == null ? radius + 1 : SpatialIndex.distance(from, nearest);
+                }
+            });
+        }
+        System.out.println(sharks.size() + " sharks (checksum " + sink[0] + ")");
+    }
+
+    /**
+     * Compare step times on a field much larger than the processor's
+     * caches with organisms acting in each order (see UpdateOrder), on
+     * each heap storage in turn, so that the orders are compared on the
+     * same storage.
+     */
+    private static void benchmarkOrder() {
+        System.out.println("== Update order, " + ORDER_SIDE + "x" + ORDER_SIDE + " cells, "
+                + ORDER_STEPS + " steps ==");
+        UpdateOrder wasSelected = UpdateOrder.getSelected();
+        boolean wasTiled = MortonFieldStorage.isSelected();
+        for (boolean tiled : new boolean[] { false, true }) {
+            MortonFieldStorage.setSelected(tiled);
+            for (UpdateOrder order : UpdateOrder.values()) {
+                UpdateOrder.setSelected(order);
+                Randomizer.setSeed(EVENTS_SEED);
+                Simulator simulator = new Simulator(ORDER_SIDE, ORDER_SIDE, false);
+                // One step first, so every order starts from its own layout.
+                simulator.simulateOneStep();
+                long organismSteps = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < ORDER_STEPS; i++) {
+                    organismSteps += simulator.getField().getAnimals().size();
+                    simulator.simulateOneStep();
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%-6s %-10s %6d ms per step, %8.0f organisms per second%n",
+                        tiled ? "tiled" : "map", order.name().toLowerCase(), nanos / 1_000_000 / ORDER_STEPS,
+                        organismSteps * 1e9 / nanos);
+            }
+        }
+        MortonFieldStorage.setSelected(wasTiled);
+        UpdateOrder.setSelected(wasSelected);
+    }
+
+    /**
+     * Compare counting a species in random rectangles by scanning their
+     * cells with counting from a summed-area table, and time building
+     * the table.
+     */
+    private static void benchmarkRectangles() {
+        System.out.println("== Rectangle counts, " + RECTANGLE_SIDE + "x" + RECTANGLE_SIDE + " cells, "
+                + RECTANGLE_QUERIES + " rectangles ==");
+        Randomizer.setSeed(EVENTS_SEED);
+        Simulator simulator = new Simulator(RECTANGLE_SIDE, RECTANGLE_SIDE, false);
+        simulator.simulateOneStep();
+        Field field = simulator.getField();
+        Random rand = new Random(EVENTS_SEED);
+        int[][] rectangles = new int[RECTANGLE_QUERIES][];
+        for (int i = 0; i < rectangles.length; i++) {
+            int fromRow = rand.nextInt(RECTANGLE_SIDE);
+            int fromCol = rand.nextInt(RECTANGLE_SIDE);
+            rectangles[i] = new int[] { fromRow, fromCol, fromRow + 1 + rand.nextInt(RECTANGLE_SIDE - fromRow),
+                    fromCol + 1 + rand.nextInt(RECTANGLE_SIDE - fromCol) };
+        }
+        long[] sink = new long[1];
+        time("scan with getAnimalAt", 1, 1, () -> {
+            for (int[] r : rectangles) {
+                for (int row = r[0]; row < r[2]; row++) {
+                    for (int col = r[1]; col < r[3]; col++) {
+                        Organism occupant = field.getAnimalAt(new Location(row, col));
+                        if (occupant != null && occupant.isAlive() && occupant.getSpecies() == Species.TUNA) {
+                            sink[0]++;
+                        }
+                    }
+                }
+            }
+        });
+        SummedAreaTable table = new SummedAreaTable(RECTANGLE_SIDE, RECTANGLE_SIDE);
+        time("build summed-area table", WARMUP_RUNS, TIMED_RUNS,
+                () -> table.build(Species.TUNA, field.getAnimals()));
+        time("count from summed-area table", WARMUP_RUNS, TIMED_RUNS, () -> {
+            for (int[] r : rectangles) {
+                sink[0] += field.countInRectangle(Species.TUNA, r[0], r[1], r[2], r[3]);
+            }
+        });
+        System.out.println("(checksum " + sink[0] + ")");
+    }
+
+    /**
+     * Compare late-stage steps with and without activity tracking, and
+     * report how much of the field was still awake.
+     */
+    private static void benchmarkActivity() {
+        System.out.println("== Late-stage steps, " + ACTIVITY_SIDE + "x" + ACTIVITY_SIDE + " cells, after "
+                + ACTIVITY_WARMUP_STEPS + " steps ==");
+        boolean wasEnabled = ActiveTiles.isEnabled();
+        for (boolean tracked : new boolean[] { false, true }) {
+            ActiveTiles.setEnabled(tracked);
+            Randomizer.setSeed(EVENTS_SEED);
+            Simulator simulator = new Simulator(ACTIVITY_SIDE, ACTIVITY_SIDE, false);
+            for (int i = 0; i < ACTIVITY_WARMUP_STEPS; i++) {
+                simulator.simulateOneStep();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ACTIVITY_STEPS; i++) {
+                simulator.simulateOneStep();
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / ACTIVITY_STEPS;
+            ActiveTiles tiles = simulator.getField().getActiveTiles();
+            System.out.printf("%-10s %8.2f ms per step%s%n", tracked ? "tracked" : "untracked", millis,
+                    tiles == null ? "" : String.format(", %d of %d tiles awake", tiles.getAwakeTiles(),
+                            tiles.getTileRows() * tiles.getTileCols()));
+        }
+
+        // Disease frees cells in any tile full of algae every step, so the
+        // late stage above stays awake; an empty ocean around a colony
+        // shows what sleeping saves.
+        System.out.println("== " + COLONY_SIDE + "x" + COLONY_SIDE + " colony in an empty ocean, after "
+                + ACTIVITY_STEPS + " steps ==");
+        for (int side : OCEAN_SIDES) {
+            for (boolean tracked : new boolean[] { false, true }) {
+                ActiveTiles.setEnabled(tracked);
+                Randomizer.setSeed(EVENTS_SEED);
+                Simulator colony = new Simulator(COLONY_SIDE, COLONY_SIDE, false);
+                Simulator simulator = new Simulator(side, side, false,
+                        new Populator(new Species[] { Species.ALGAE }, new double[] { 0 }));
+                Field field = simulator.getField();
+                for (Organism organism : colony.getField().getAnimals()) {
+                    field.placeAnimal(organism, organism.getLocation());
+                }
+                for (int i = 0; i < ACTIVITY_STEPS; i++) {
+                    simulator.simulateOneStep();
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < ACTIVITY_STEPS; i++) {
+                    simulator.simulateOneStep();
+                }
+                double millis = (System.nanoTime() - start) / 1e6 / ACTIVITY_STEPS;
+                ActiveTiles tiles = simulator.getField().getActiveTiles();
+                System.out.printf("%5d %-10s %8.2f ms per step%s%n", side, tracked ? "tracked" : "untracked",
+                        millis, tiles == null ? "" : String.format(", %d of %d tiles awake", tiles.getAwakeTiles(),
+                                tiles.getTileRows() * tiles.getTileCols()));
+            }
+        }
+        ActiveTiles.setEnabled(wasEnabled);
+    }
+
+    /**
+     * Measure the time from creating a simulator to the end of its first
+     * step, with sequential and parallel population, across field sizes.
+     */
+    private static void benchmarkStartup() {
+        System.out.println("== Time to first step, " + ForkJoinPool.commonPool().getParallelism()
+                + " pool threads ==");
+        boolean wasEnabled = Populator.isEnabled();
+        for (int side : STARTUP_SIDES) {
+            for (int run = 0; run < 4; run++) {
+                boolean parallel = run % 2 == 1;
+                Populator.setEnabled(parallel);
+                Randomizer.setSeed(EVENTS_SEED);
+                long start = System.nanoTime();
+                Simulator simulator = new Simulator(side, side, false);
+                long populated = System.nanoTime();
+                simulator.simulateOneStep();
+                long stepped = System.nanoTime();
+                if (run >= 2) {
+                    System.out.printf("%-10s %5dx%-5d populate %8.1f ms, first step %8.1f ms, total %8.1f ms%n",
+                            parallel ? "parallel" : "sequential", side, side, (populated - start) / 1e6,
+                            (stepped - populated) / 1e6, (stepped - start) / 1e6);
+                }
+            }
+        }
+        Populator.setEnabled(wasEnabled);
+    }
+
+    /**
+     * Measure the throughput of concurrent cell claims on a small field,
+     * where threads keep claiming the same cells, and on a large one, and
+     * of sequential and parallel steps.
+     */
+    private static void benchmarkClaims() {
+        int threads = Math.max(2, ForkJoinPool.commonPool().getParallelism());
+        System.out.println("== Cell claims, " + threads + " threads ==");
+        for (int side : CLAIM_SIDES) {
+            ConcurrentFieldStorage storage = new ConcurrentFieldStorage(side, side);
+            Location[] locations = new Location[side * side];
+            for (int i = 0; i < locations.length; i++) {
+                locations[i] = new Location(i / side, i % side);
+            }
+            time("claim " + side + "x" + side, 1, 3, () -> {
+                storage.clear();
+                IntStream.range(0, threads).parallel().forEach(t -> {
+                    Random rand = new Random(t);
+                    Organism[] claimants = new Organism[CLAIMANTS];
+                    for (int i = 0; i < CLAIMANTS; i++) {
+                        claimants[i] = new Algae(locations[0]);
+                    }
+                    for (int i = 0; i < CLAIMS_PER_THREAD; i++) {
+                        ConcurrentFieldStorage.setActingOrder(i);
+                        storage.claim(locations[rand.nextInt(locations.length)], claimants[i % CLAIMANTS]);
+                    }
+                });
+            });
+            System.out.printf("%-32s %10.1f %% of claims lost%n", "",
+                    100.0 * storage.getConflicts() / ((long) threads * CLAIMS_PER_THREAD));
+        }
+
+        System.out.println("== Steps, " + PARALLEL_SIDE + "x" + PARALLEL_SIDE + " cells, "
+                + PARALLEL_STEPS + " steps ==");
+        boolean wasEnabled = ParallelStepEngine.isEnabled();
+        for (int run = 0; run < 4; run++) {
+            boolean parallel = run % 2 == 1;
+            ParallelStepEngine.setEnabled(parallel);
+            Randomizer.setSeed(EVENTS_SEED);
+            Simulator simulator = new Simulator(PARALLEL_SIDE, PARALLEL_SIDE, false);
+            long organismSteps = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < PARALLEL_STEPS; i++) {
+                organismSteps += simulator.getField().getAnimals().size();
+                simulator.simulateOneStep();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-10s %6d ms total, %8.0f organisms per second%n",
+                    parallel ? "parallel" : "sequential", nanos / 1_000_000, organismSteps * 1e9 / nanos);
+        }
+        ParallelStepEngine.setEnabled(wasEnabled);
+    }
+
+    /**
+     * Compare the cost of random numbers drawn directly from Random and
+     * from a RandomBuffer, per number and per organism in a step, and
+     * check that buffered runs repeat for a fixed seed.
+     */
+    private static void benchmarkRandom() {
+        System.out.println("== Random numbers, " + RANDOM_DRAWS + " draws ==");
+        double[] sink = new double[1];
+        Random direct = new Random(EVENTS_SEED);
+        time("direct   nextDouble", WARMUP_RUNS, TIMED_RUNS, () -> {
+            double sum = 0;
+            for (int i = 0; i < RANDOM_DRAWS; i++) {
+                sum += direct.nextDouble();
+            }
+            sink[0] += sum;
+        });
+        RandomBuffer buffer = new RandomBuffer(EVENTS_SEED);
+        time("buffered nextDouble", WARMUP_RUNS, TIMED_RUNS, () -> {
+            buffer.beginStep(0, RANDOM_DRAWS);
+            double sum = 0;
+            for (int i = 0; i < RANDOM_DRAWS; i++) {
+                sum += buffer.nextDouble();
+            }
+            buffer.endStep();
+            sink[0] += sum;
+        });
+
+        System.out.println("== Random numbers, " + RANDOM_SIDE + "x" + RANDOM_SIDE + " cells, "
+                + RANDOM_STEPS + " steps ==");
+        boolean wasEnabled = RandomBuffer.isEnabled();
+        byte[][] finalCodes = new byte[2][];
+        // Alternate the modes, so the first run's warm-up is not all charged to one.
+        for (int run = 0; run < 4; run++) {
+            boolean buffered = run % 2 == 1;
+            RandomBuffer.setEnabled(buffered);
+            Randomizer.setSeed(EVENTS_SEED);
+            Simulator simulator = new Simulator(RANDOM_SIDE, RANDOM_SIDE, false);
+            long organismSteps = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < RANDOM_STEPS; i++) {
+                organismSteps += simulator.getField().getAnimals().size();
+                simulator.simulateOneStep();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-8s %6d ms total, %6.1f ns per organism%n", buffered ? "buffered" : "direct",
+                    nanos / 1_000_000, (double) nanos / organismSteps);
+            if (buffered) {
+                finalCodes[run / 2] = simulator.getField().getSpeciesCodes().clone();
+            }
+        }
+        System.out.println("buffered runs repeat: " + Arrays.equals(finalCodes[0], finalCodes[1]));
+        RandomBuffer.setEnabled(wasEnabled);
+    }
+
+    /**
+     * Compare step times when rare events are rolled for each step and
+     * when they are scheduled, then check that scheduling leaves the
+     * populations as they were: run both for each of a number of seeds and
+     * compare their mean populations every EVENTS_COMPARE_INTERVAL steps,
+     * flagging a species whose means differ by more than
+     * EVENTS_STANDARD_ERRORS standard errors of the difference (or
+     * EVENTS_MIN_DIFFERENCE organisms, when both are nearly constant).
+     */
+    private static void benchmarkEvents() {
+        System.out.println("== Events, " + EVENTS_SIDE + "x" + EVENTS_SIDE + " cells, "
+                + EVENTS_STEPS + " steps ==");
+        boolean wasEnabled = EventCalendar.isEnabled();
+        for (boolean scheduled : new boolean[] { false, true }) {
+            EventCalendar.setEnabled(scheduled);
+            Randomizer.setSeed(EVENTS_SEED);
+            Simulator simulator = new Simulator(EVENTS_SIDE, EVENTS_SIDE, false);
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS_STEPS; i++) {
+                simulator.simulateOneStep();
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("%-9s %6d ms total | %d of %d organisms listed to act%n",
+                    scheduled ? "scheduled" : "rolled", millis,
+                    simulator.getField().getAwakeAnimals().size(), simulator.getField().getAnimals().size());
+        }
+
+        int points = EVENTS_COMPARE_STEPS / EVENTS_COMPARE_INTERVAL + 1;
+        Species[] species = Species.values();
+        // Populations by mode, seed, point and species.
+        int[][][][] populations = new int[2][EVENTS_COMPARE_SEEDS][points][species.length];
+        PrintStream out = System.out;
+        // Every step reports; keep the output to the comparison.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int mode = 0; mode < 2; mode++) {
+                EventCalendar.setEnabled(mode == 1);
+                for (int seed = 0; seed < EVENTS_COMPARE_SEEDS; seed++) {
+                    Randomizer.setSeed(EVENTS_SEED + seed);
+                    Simulator simulator = new Simulator(EVENTS_COMPARE_SIDE, EVENTS_COMPARE_SIDE, false);
+                    for (int step = 0; step <= EVENTS_COMPARE_STEPS; step++) {
+                        if (step > 0) {
+                            simulator.simulateOneStep();
+                        }
+                        if (step % EVENTS_COMPARE_INTERVAL == 0) {
+                            populations[mode][seed][step / EVENTS_COMPARE_INTERVAL] = ScenarioSuite
+                                    .populations(simulator.getField());
+                        }
+                    }
+                }
+            }
+        } finally {
+            System.setOut(out);
+            EventCalendar.setEnabled(wasEnabled);
+        }
+
+        boolean passed = true;
+        System.out.printf("%d seeds, %dx%d cells; mean population rolled / scheduled%n", EVENTS_COMPARE_SEEDS,
+                EVENTS_COMPARE_SIDE, EVENTS_COMPARE_SIDE);
+        for (int point = 0; point < points; point++) {
+            StringBuilder line = new StringBuilder(String.format("step %4d", point * EVENTS_COMPARE_INTERVAL));
+            for (int s = 0; s < species.length; s++) {
+                double[] mean = new double[2];
+                double[] variance = new double[2];
+                for (int mode = 0; mode < 2; mode++) {
+                    for (int seed = 0; seed < EVENTS_COMPARE_SEEDS; seed++) {
+                        mean[mode] += populations[mode][seed][point][s] / (double) EVENTS_COMPARE_SEEDS;
+                    }
+                    for (int seed = 0; seed < EVENTS_COMPARE_SEEDS; seed++) {
+                        double deviation = populations[mode][seed][point][s] - mean[mode];
+                        variance[mode] += deviation * deviation / (EVENTS_COMPARE_SEEDS - 1);
+                    }
+                }
+                double standardError = Math.sqrt((variance[0] + variance[1]) / EVENTS_COMPARE_SEEDS);
+                boolean close = Math.abs(mean[0] - mean[1]) <= Math.max(EVENTS_MIN_DIFFERENCE,
+                        EVENTS_STANDARD_ERRORS * standardError);
+                passed &= close;
+                line.append(String.format(" | %s %7.1f / %7.1f%s", species[s].organismClass().getSimpleName()
+                        .substring(0, 2), mean[0], mean[1], close ? "  " : " *"));
+            }
+            System.out.println(line);
+        }
+        System.out.println(passed ? "Within tolerance" : "Outside tolerance (marked *)");
+    }
+
+    /**
+     * Compare garbage collection counts and pause times when stepping a
+     * large field with its cells looked up in a heap map and kept in
+     * off-heap slots and state records.
+     */
+    private static void benchmarkStorage() {
+        System.out.println("== Storage, " + STORAGE_SIDE + "x" + STORAGE_SIDE + " cells, "
+                + STORAGE_STEPS + " steps ==");
+        for (boolean offHeap : new boolean[] { false, true }) {
+            OffHeapFieldStorage.setSelected(offHeap);
+            Simulator simulator = new Simulator(STORAGE_SIDE, STORAGE_SIDE, false);
+            System.gc();
+            long[] before = gcTotals();
+            long start = System.nanoTime();
+            for (int i = 0; i < STORAGE_STEPS; i++) {
+                simulator.simulateOneStep();
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            long[] after = gcTotals();
+            System.out.printf("%-8s %6d ms total, %4d collections, %6d ms in GC%n",
+                    offHeap ? "off-heap" : "heap", millis, after[0] - before[0], after[1] - before[1]);
+        }
+        OffHeapFieldStorage.setSelected(false);
+    }
+
+    /**
+     * @return The number of collections and total collection time so far.
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * Compare the scalar and bulk versions of the populate, count and
+     * colour passes on a square field.
+     *
+     * @param side The depth and width of the field.
+     */
+    private static void benchmarkFullGridPasses(int side) {
+        System.out.println("== Full-grid passes, " + side + "x" + side + " cells ==");
+        boolean wasBulk = GridKernels.isBulk();
+        for (boolean bulk : new boolean[] { false, true }) {
+            GridKernels.setBulk(bulk);
+            String mode = bulk ? "bulk  " : "scalar";
+            time("populate " + mode, 1, 2, () -> new Simulator(side, side, false));
+        }
+
+        Field field = new Simulator(side, side, false).getField();
+        FieldStats stats = new FieldStats();
+        for (boolean bulk : new boolean[] { false, true }) {
+            GridKernels.setBulk(bulk);
+            String mode = bulk ? "bulk  " : "scalar";
+            time("count    " + mode, WARMUP_RUNS, TIMED_RUNS, () -> {
+                stats.reset();
+                stats.getPopulationDetails(field);
+            });
+        }
+
+        int[] palette = new int[GridKernels.CODES];
+        Map<Class<?>, Integer> colours = new HashMap<>();
+        for (Species species : Species.values()) {
+            palette[species.code()] = species.code() * 0x202020;
+            colours.put(species.organismClass(), palette[species.code()]);
+        }
+        int[] pixels = new int[side * side];
+        time("colour   scalar", WARMUP_RUNS, TIMED_RUNS, () -> {
+            for (int row = 0; row < side; row++) {
+                for (int col = 0; col < side; col++) {
+                    Organism animal = field.getAnimalAt(new Location(row, col));
+                    pixels[row * side + col] = animal == null ? 0 : colours.get(animal.getClass());
+                }
+            }
+        });
+        time("colour   bulk  ", WARMUP_RUNS, TIMED_RUNS,
+                () -> GridKernels.mapColours(field.getSpeciesCodes(), palette, pixels));
+        GridKernels.setBulk(wasBulk);
+    }
+
+    /**
+     * Run a task repeatedly and print its mean time.
+     *
+     * @param name   The name to report.
+     * @param warmup The number of untimed runs.
+     * @param runs   The number of timed runs.
+     * @param task   The work to time.
+     */
+    static void time(String name, int warmup, int runs, Runnable task) {
+        for (int i = 0; i < warmup; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            task.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / runs;
+        System.out.printf("%-32s %10.2f ms%n", name, millis);
+    }
+}
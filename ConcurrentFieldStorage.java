@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Field storage whose cells can be claimed by several threads at once
+ * without locks. Each cell is an element of an atomic array, and an
+ * organism takes a cell with a compare-and-set, so when two organisms
+ * want the same cell exactly one of them ends up with it.
+ *
+ * Which one does not depend on thread timing. Each claim is stamped
+ * with the position in the step's organism list of the organism acting
+ * when it was made (see setActingOrder), then with how many claims that
+ * organism had already made, and a claim replaces an occupant with an
+ * earlier stamp, whether or not that occupant has died since. This is
+ * the outcome of a sequential step, where the later placement simply
+ * overwrites the earlier one, dead or alive. Occupants that have died
+ * are sorted out once the claims are done, when the field lists its
+ * live organisms (see Field.getAnimals), by which time every kill of
+ * the step has happened.
+ * The stamps also give the order a sequential step would have added
+ * the organisms to the field's list in.
+ *
+ * @version 1.0
+ */
+public class ConcurrentFieldStorage implements FieldStorage {
+    // The stamp of the next claim made on each thread.
+    private static final ThreadLocal<long[]> nextStamp = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final int width;
+    private final AtomicReferenceArray<Organism> cells;
+    // Claims that lost their cell to a later one.
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     * Create empty storage for a field of the given size.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ConcurrentFieldStorage(int depth, int width) {
+        this.width = width;
+        cells = new AtomicReferenceArray<>(depth * width);
+    }
+
+    @Override
+    public Organism get(Location location) {
+        return cells.get(index(location));
+    }
+
+    @Override
+    public void put(Location location, Organism organism) {
+        cells.set(index(location), organism);
+    }
+
+    /**
+     * Record the position in the step's organism list of the organism
+     * about to act on this thread. Claims made while it acts, for itself
+     * or its young, carry this position.
+     *
+     * @param order The acting organism's position.
+     */
+    public static void setActingOrder(int order) {
+        nextStamp.get()[0] = (long) order << 32;
+    }
+
+    /**
+     * Take a cell for an organism, unless an organism placed by a later
+     * claim holds it.
+     *
+     * @param location Where in the field.
+     * @param organism The organism claiming the cell.
+     * @return true if the organism now holds the cell.
+     */
+    public boolean claim(Location location, Organism organism) {
+        long[] next = nextStamp.get();
+        long stamp = next[0]++;
+        organism.setClaimStamp(stamp);
+        int index = index(location);
+        Organism current = cells.get(index);
+        while (current == null || current.getClaimStamp() < stamp) {
+            if (cells.compareAndSet(index, current, organism)) {
+                return true;
+            }
+            current = cells.get(index);
+        }
+        conflicts.increment();
+        return false;
+    }
+
+    /**
+     * @return The number of claims that lost their cell to a later one.
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, null);
+        }
+        conflicts.reset();
+    }
+
+    private int index(Location location) {
+        return location.row() * width + location.col();
+    }
+}
@@ -45,6 +45,15 @@ public class Counter {
         count++;
     }
 
+    /**
+     * Increment the current count by the given amount.
+     * 
+     * @param amount How much to add.
+     */
+    public void add(int amount) {
+        count += amount;
+    }
+
     /**
      * Reset the current count to zero.
      */
@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Next-event scheduling for the rare random events of the simulation,
+ * such as disease and breeding, as an alternative to rolling a die for
+ * every organism on every step.
+ *
+ * An event that happens with probability p on each try first happens on
+ * try k with probability (1 - p)^(k - 1) p, so instead of rolling each
+ * try the number of tries until the next success can be drawn once, from
+ * that geometric distribution, and counted down (see sampleGap). Since
+ * the tries are independent, the events happen exactly as often as with
+ * a roll per try.
+ *
+ * A calendar holds events that fall due on a given step, in a ring of
+ * one-step buckets. An event further ahead than the ring is long stays
+ * in its bucket until its step comes round. An event can be cancelled,
+ * e.g. when its organism dies first, in constant time.
+ *
+ * With events scheduled, an organism with nothing due need not be
+ * visited at all: algae only act when an event of theirs falls due or
+ * something that moves is next to them (see ScheduledStepEngine).
+ *
+ * Whether events are scheduled this way or rolled each step can be
+ * chosen at startup with -Dsimulator.events=scheduled or changed with
+ * setEnabled.
+ *
+ * @version 1.0
+ */
+public class EventCalendar {
+    // Buckets in the ring; a power of two well above the usual gaps.
+    private static final int BUCKETS = 128;
+    private static final int MASK = BUCKETS - 1;
+
+    private static volatile boolean enabled = "scheduled".equals(System.getProperty("simulator.events"));
+
+    private final List<List<Entry>> buckets = new ArrayList<>(BUCKETS);
+
+    /**
+     * Create an empty calendar.
+     */
+    public EventCalendar() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return true if rare events should be scheduled rather than rolled.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose between scheduling rare events and rolling for them each
+     * step.
+     *
+     * @param schedule true to schedule events.
+     */
+    public static void setEnabled(boolean schedule) {
+        enabled = schedule;
+    }
+
+    /**
+     * Draw the number of tries up to and including the next success of
+     * an event with the given probability per try.
+     *
+     * @param probability The chance of success on each try.
+     * @param rand        The source of randomness.
+     * @return The number of tries, at least 1.
+     */
+    public static int sampleGap(double probability, Random rand) {
+        if (probability >= 1) {
+            return 1;
+        }
+        if (probability <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        // 1 - nextDouble() is in (0, 1], so the logarithm is finite.
+        double tries = Math.floor(Math.log(1 - rand.nextDouble()) / Math.log1p(-probability)) + 1;
+        return tries >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) tries;
+    }
+
+    /**
+     * Add an event for an organism.
+     *
+     * @param organism The organism the event is for.
+     * @param step     The step the event falls due on.
+     * @return The event, which can be cancelled until it falls due.
+     */
+    public Entry schedule(Organism organism, int step) {
+        List<Entry> bucket = buckets.get(step & MASK);
+        Entry entry = new Entry(organism, step, bucket, bucket.size());
+        bucket.add(entry);
+        return entry;
+    }
+
+    /**
+     * Remove and return the organisms whose events fall due on a step.
+     * It must be called for every step in turn.
+     *
+     * @param step The step.
+     * @return The organisms with an event due.
+     */
+    public List<Organism> takeDue(int step) {
+        List<Entry> bucket = buckets.get(step & MASK);
+        List<Organism> due = new ArrayList<>();
+        int kept = 0;
+        for (Entry entry : bucket) {
+            if (entry.step <= step) {
+                due.add(entry.organism);
+                entry.index = -1;
+            } else {
+                entry.index = kept;
+                bucket.set(kept++, entry);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+        return due;
+    }
+
+    /**
+     * Remove every event.
+     */
+    public void clear() {
+        for (List<Entry> bucket : buckets) {
+            for (Entry entry : bucket) {
+                entry.index = -1;
+            }
+            bucket.clear();
+        }
+    }
+
+    /**
+     * An event in a calendar, which knows its place in its bucket so
+     * that it can be removed without a search.
+     */
+    public static class Entry {
+        private final Organism organism;
+        private final int step;
+        private final List<Entry> bucket;
+        // The position in the bucket, or -1 once taken or cancelled.
+        private int index;
+
+        private Entry(Organism organism, int step, List<Entry> bucket, int index) {
+            this.organism = organism;
+            this.step = step;
+            this.bucket = bucket;
+            this.index = index;
+        }
+
+        /**
+         * Remove this event from its calendar, if it is still there, by
+         * moving the last event of its bucket into its place.
+         */
+        public void cancel() {
+            if (index < 0) {
+                return;
+            }
+            Entry last = bucket.remove(bucket.size() - 1);
+            if (last != this) {
+                bucket.set(index, last);
+                last.index = index;
+            }
+            index = -1;
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -11,10 +13,34 @@ public class Field {
 
     // The dimensions of the field.
     private final int depth, width;
-    // Animals mapped by location.
-    private final Map<Location, Organism> field = new HashMap<>();
+    // The animal at each location.
+    private final FieldStorage field;
     // The animals.
     private final List<Organism> animals = new ArrayList<>();
+    // Species code of the occupant of each location, stored row by row.
+    private final byte[] speciesCodes;
+    // Whether the animals list holds every animal in storage. It does
+    // not for a field opened from a file until the list is needed, nor
+    // for a concurrent field after cells have been claimed. Volatile,
+    // since claiming threads clear it while the step runs.
+    private volatile boolean loaded = true;
+    // The storage, if its cells are claimed concurrently; otherwise null.
+    private final ConcurrentFieldStorage cells;
+    // Live organisms of each species per block of cells.
+    private final RegionStats regionStats;
+    // Which blocks are still changing, if activity is tracked; otherwise
+    // null. It holds the algae of sleeping blocks, which are counted in
+    // the codes and statistics but not listed or stored.
+    private ActiveTiles activeTiles;
+    // The idle algae, when events are scheduled: counted in the codes and
+    // statistics but not listed or stored (see ScheduledStepEngine);
+    // otherwise null.
+    private ScheduledStepEngine idleAlgae;
+    // Rectangle counts, once a rectangle has been counted; otherwise null.
+    private SummedAreaTable areaTable;
+    // Where each species is, once searched since the field last changed;
+    // otherwise null.
+    private volatile SpatialIndex spatialIndex;
 
     /**
      * Represent a field of the given dimensions.
@@ -23,8 +49,82 @@ public class Field {
      * @param width The width of the field.
      */
     public Field(int depth, int width) {
+        this(depth, width, FieldStorage.create(depth, width));
+    }
+
+    /**
+     * Represent a field of the given dimensions, using the given storage
+     * for its locations.
+     * 
+     * @param depth   The depth of the field.
+     * @param width   The width of the field.
+     * @param storage The (empty) storage for the field's locations.
+     */
+    public Field(int depth, int width, FieldStorage storage) {
         this.depth = depth;
         this.width = width;
+        field = storage;
+        speciesCodes = new byte[depth * width];
+        cells = storage instanceof ConcurrentFieldStorage concurrent ? concurrent : null;
+        // Organisms acting on several threads can die in a concurrent field at once.
+        regionStats = new RegionStats(depth, width, RegionStats.DEFAULT_BLOCK_SIZE, cells != null);
+    }
+
+    /**
+     * Create an empty field that several threads can place organisms in
+     * at once (see placeAnimal). The list of animals and the species
+     * codes are brought up to date when they are next asked for, so they
+     * must not be asked for while threads are still placing organisms.
+     * 
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return The field.
+     */
+    public static Field concurrent(int depth, int width) {
+        return new Field(depth, width, new ConcurrentFieldStorage(depth, width));
+    }
+
+    /**
+     * Open a field saved with save. The file is mapped rather than read:
+     * only the species codes are read up front, and each animal is
+     * rebuilt the first time it is looked up, or when the list of
+     * animals is first needed.
+     * 
+     * @param file The file holding the field.
+     * @return The field.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public static Field open(Path file) throws IOException {
+        OffHeapFieldStorage storage = OffHeapFieldStorage.open(file);
+        Field opened = new Field(storage.getDepth(), storage.getWidth(), storage);
+        storage.copyCodes(opened.speciesCodes);
+        opened.regionStats.rebuild(opened.speciesCodes);
+        opened.loaded = false;
+        return opened;
+    }
+
+    /**
+     * Save the live animals of this field to a file that open can map.
+     * 
+     * @param file The file to write. Any existing file is replaced.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        OffHeapFieldStorage storage = OffHeapFieldStorage.create(file, depth, width);
+        for (Organism anAnimal : getAnimals()) {
+            if (anAnimal.isAlive()) {
+                storage.put(anAnimal.getLocation(), anAnimal);
+            }
+        }
+        storage.release();
+    }
+
+    /**
+     * Give back the memory held by the field's storage. The field must
+     * not be used afterwards.
+     */
+    public void release() {
+        field.release();
     }
 
     /**
@@ -32,17 +132,309 @@ public class Field {
      * If there is already an animal at the location it will
      * be lost.
      * 
+     * In a concurrent field the cell is claimed instead, and of two
+     * organisms placed in the same cell the one a sequential step would
+     * have placed last keeps it, whichever thread gets there first (see
+     * ConcurrentFieldStorage). The other is lost, as an overwritten
+     * animal is.
+     * 
      * @param anAnimal The animal to be placed.
      * @param location Where to place the animal.
      */
     public void placeAnimal(Organism anAnimal, Location location) {
         assert location != null;
-        Object other = field.get(location);
-        if (other != null) {
+        if (cells != null) {
+            claimAnimal(anAnimal, location);
+            return;
+        }
+        loadAnimals();
+        Organism other = field.get(location);
+        Organism alga = idleAlgae == null ? null : idleAlgae.getIdle(location.row(), location.col());
+        if (alga != null) {
+            if (!idleAlgae.hasHadTurn(this, alga)) {
+                // The animal holds the cell until the alga takes it at its
+                // turn, later in the step, so it is stored but never counted
+                // (nor uncounted, should it die).
+                field.put(location, anAnimal);
+                return;
+            }
+            idleAlgae.dropIdle(alga);
+            other = alga;
+        } else if (other != null) {
             animals.remove(other);
         }
+        if (other != null) {
+            if (other.isAlive()) {
+                regionStats.remove(other.getSpecies().code(), location.row(), location.col());
+            }
+        }
         field.put(location, anAnimal);
         animals.add(anAnimal);
+        speciesCodes[location.row() * width + location.col()] = anAnimal.getSpecies().code();
+        if (anAnimal.isAlive()) {
+            regionStats.add(anAnimal.getSpecies().code(), location.row(), location.col());
+        }
+        anAnimal.setField(this);
+        invalidateIndexes();
+        if (activeTiles != null) {
+            activeTiles.placed(this, location.row(), location.col(), anAnimal.getSpecies().code());
+        }
+    }
+
+    /**
+     * Replace the contents of the field with new organisms in one pass,
+     * e.g. a population built on several threads (see Populator), rather
+     * than placing them one at a time.
+     * 
+     * @param codes     The species code of each location, row by row.
+     * @param organisms The organisms, each at its own location, in the
+     *                  order they are to act.
+     */
+    public void loadOrganisms(byte[] codes, List<Organism> organisms) {
+        clear();
+        System.arraycopy(codes, 0, speciesCodes, 0, speciesCodes.length);
+        for (Organism anAnimal : organisms) {
+            field.put(anAnimal.getLocation(), anAnimal);
+            anAnimal.setField(this);
+        }
+        animals.addAll(organisms);
+        regionStats.rebuild(speciesCodes);
+        invalidateIndexes();
+    }
+
+    /**
+     * Stop counting an animal that has died, if it is still in this
+     * field (it may have been overwritten since it was placed).
+     * 
+     * @param anAnimal The animal, which was last placed in this field.
+     * @param location Where it was.
+     */
+    void animalDied(Organism anAnimal, Location location) {
+        if (cells != null && !loaded) {
+            // The counts are rebuilt once the claims are done.
+            return;
+        }
+        if (field.get(location) == anAnimal) {
+            regionStats.remove(anAnimal.getSpecies().code(), location.row(), location.col());
+            field.died(location);
+            if (activeTiles != null) {
+                activeTiles.vacated(this, location.row(), location.col());
+            }
+        }
+        invalidateAreaTable();
+    }
+
+    /**
+     * Take over the cells of a block whose algae sleep from the field
+     * before this one: their codes and counts, but not the algae
+     * themselves, which the tracking holds (see ActiveTiles).
+     * 
+     * @param previousCodes The species codes of the field before this one.
+     * @param blockRow      The block's row.
+     * @param blockCol      The block's column.
+     * @param algae         The number of algae sleeping in the block.
+     */
+    void carryAsleep(byte[] previousCodes, int blockRow, int blockCol, int algae) {
+        int size = regionStats.getBlockSize();
+        int top = blockRow * size;
+        int left = blockCol * size;
+        int cols = Math.min(width, left + size) - left;
+        for (int row = top; row < Math.min(depth, top + size); row++) {
+            System.arraycopy(previousCodes, row * width + left, speciesCodes, row * width + left, cols);
+        }
+        regionStats.addToBlock(Species.ALGAE.code(), blockRow, blockCol, algae);
+    }
+
+    /**
+     * Empty the cell of a sleeping alga that has died.
+     * 
+     * @param location The alga's location.
+     */
+    void clearAsleep(Location location) {
+        speciesCodes[location.row() * width + location.col()] = Species.EMPTY;
+        regionStats.remove(Species.ALGAE.code(), location.row(), location.col());
+        invalidateAreaTable();
+    }
+
+    /**
+     * List and store an alga that was held out of the field, by the
+     * tracking while its block slept or as idle while events are
+     * scheduled, and is to act again. Its cell and count are already in
+     * the field.
+     * 
+     * @param alga The alga.
+     */
+    void addAwake(Organism alga) {
+        loadAnimals();
+        field.put(alga.getLocation(), alga);
+        animals.add(alga);
+        alga.setField(this);
+    }
+
+    /**
+     * Take over the cells and counts of the idle algae, but not the algae
+     * themselves, which the engine holds (see ScheduledStepEngine). The
+     * field must be empty.
+     *
+     * @param engine The engine holding the idle algae.
+     */
+    void carryIdle(ScheduledStepEngine engine) {
+        idleAlgae = engine;
+        System.arraycopy(engine.getIdleCodes(), 0, speciesCodes, 0, speciesCodes.length);
+        int[] counts = engine.getIdleCounts();
+        int blockCols = regionStats.getBlockCols();
+        for (int block = 0; block < counts.length; block++) {
+            if (counts[block] != 0) {
+                regionStats.addToBlock(Species.ALGAE.code(), block / blockCols, block % blockCols, counts[block]);
+            }
+        }
+        invalidateIndexes();
+    }
+
+    /**
+     * Record the engine holding the idle algae whose cells are counted in
+     * this field, so that they are found in it.
+     *
+     * @param engine The engine, or null if no algae are idle.
+     */
+    void setIdleAlgae(ScheduledStepEngine engine) {
+        idleAlgae = engine;
+    }
+
+    /**
+     * Hand the listed algae of blocks that have fallen asleep to the
+     * tracking, in one pass over the list.
+     * 
+     * @param tiles The tracking.
+     */
+    void holdAsleep(ActiveTiles tiles) {
+        loadAnimals();
+        animals.removeIf(tiles::holdIfAsleep);
+    }
+
+    /**
+     * Return the number of live organisms of a species in a rectangle of
+     * cells, clipped to the field. The first count of a species after the
+     * field has changed builds its summed-area table, in a pass over the
+     * organisms and one over the cells (see SummedAreaTable); until the
+     * field changes again, each count after that costs O(1). A death in
+     * the field changes it, so during a step the table may be rebuilt
+     * after every death; counts are only cheap between steps. Not to be
+     * called while organisms are being placed.
+     * 
+     * @param species The species.
+     * @param fromRow The first row.
+     * @param fromCol The first column.
+     * @param toRow   The row after the last one.
+     * @param toCol   The column after the last one.
+     * @return The count.
+     */
+    public int countInRectangle(Species species, int fromRow, int fromCol, int toRow, int toCol) {
+        List<Organism> organisms = getAnimals();
+        if (areaTable == null) {
+            areaTable = new SummedAreaTable(depth, width);
+        }
+        if (!areaTable.isCurrent(species)) {
+            areaTable.build(species, organisms);
+        }
+        return areaTable.count(species, fromRow, fromCol, toRow, toCol);
+    }
+
+    private void invalidateAreaTable() {
+        if (areaTable != null) {
+            areaTable.invalidate();
+        }
+    }
+
+    /**
+     * Drop the counts and index of the occupants after they change. The
+     * index is not dropped when an organism dies, as searches check.
+     */
+    private void invalidateIndexes() {
+        invalidateAreaTable();
+        if (spatialIndex != null) {
+            spatialIndex = null;
+        }
+    }
+
+    /**
+     * Find the nearest live organism of any of the given species within a
+     * distance of a location (see SpatialIndex). The first search after
+     * the field has changed indexes it; organisms acting on several
+     * threads may search at once, but not while the field is changing.
+     * 
+     * @param from    The location.
+     * @param radius  The greatest distance to look, in moves to an
+     *                adjacent cell.
+     * @param species The species to look for.
+     * @return The organism's location, or null if there is none.
+     */
+    public Location findNearest(Location from, int radius, Species... species) {
+        SpatialIndex index = spatialIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = spatialIndex;
+                if (index == null) {
+                    index = new SpatialIndex(this);
+                    spatialIndex = index;
+                }
+            }
+        }
+        return index.findNearest(from, radius, species);
+    }
+
+    /**
+     * Return the number of live animals of each species in each block of
+     * the field, kept up to date as animals are placed and die.
+     * 
+     * @return The field's region statistics.
+     */
+    public RegionStats getRegionStats() {
+        if (cells != null) {
+            loadAnimals();
+        }
+        return regionStats;
+    }
+
+    /**
+     * Record which parts of the field are still changing, so that what
+     * changes in it is reported to the tracking, and the algae it holds
+     * while they sleep are found (see ActiveTiles).
+     * 
+     * @param tiles The activity after the step that built this field, or
+     *              null if activity is not tracked.
+     */
+    public void setActiveTiles(ActiveTiles tiles) {
+        activeTiles = tiles;
+    }
+
+    /**
+     * @return The activity after the step that built this field, or null
+     *         if activity is not tracked.
+     */
+    public ActiveTiles getActiveTiles() {
+        return activeTiles;
+    }
+
+    /**
+     * Claim a cell of a concurrent field for an animal, unless an animal
+     * placed by a later claim holds it. Safe to call from several threads
+     * at once.
+     * 
+     * @param anAnimal The animal to be placed.
+     * @param location Where to place the animal.
+     * @return true if the animal now holds the cell.
+     */
+    public boolean claimAnimal(Organism anAnimal, Location location) {
+        if (!cells.claim(location, anAnimal)) {
+            return false;
+        }
+        anAnimal.setField(this);
+        // Check first, so that later claims do not write the shared flag.
+        if (loaded) {
+            loaded = false;
+        }
+        return true;
     }
 
     /**
@@ -52,7 +444,22 @@ public class Field {
      * @return The animal at the given location, or null if there is none.
      */
     public Organism getAnimalAt(Location location) {
-        return field.get(location);
+        return occupant(location);
+    }
+
+    private Organism occupant(Location location) {
+        if (idleAlgae != null) {
+            // An idle alga that has had its turn overwrites what is stored.
+            Organism alga = idleAlgae.getIdle(location.row(), location.col());
+            if (alga != null && idleAlgae.hasHadTurn(this, alga)) {
+                return alga;
+            }
+        }
+        Organism stored = field.get(location);
+        if (stored == null && activeTiles != null) {
+            return activeTiles.getSleeper(location.row(), location.col());
+        }
+        return stored;
     }
 
     /**
@@ -65,7 +472,7 @@ public class Field {
         List<Location> free = new LinkedList<>();
         List<Location> adjacent = getAdjacentLocations(location);
         for (Location next : adjacent) {
-            Organism anAnimal = field.get(next);
+            Organism anAnimal = occupant(next);
             if (anAnimal == null) {
                 free.add(next);
             } else if (!anAnimal.isAlive()) {
@@ -114,7 +521,7 @@ public class Field {
      */
     public void fieldStats() {
         Map<Class<?>, Integer> counts = new HashMap<>();
-        for (Organism anAnimal : field.values()) {
+        for (Organism anAnimal : getAnimals()) {
             if (anAnimal.isAlive()) {
                 counts.put(anAnimal.getClass(), counts.getOrDefault(anAnimal.getClass(), 0) + 1);
             }
@@ -130,6 +537,17 @@ public class Field {
     public void clear() {
         field.clear();
         animals.clear();
+        Arrays.fill(speciesCodes, Species.EMPTY);
+        regionStats.clear();
+        loaded = true;
+        invalidateIndexes();
+        if (activeTiles != null) {
+            activeTiles.wakeAll(this);
+        }
+        if (idleAlgae != null) {
+            idleAlgae.forgetIdle();
+            idleAlgae = null;
+        }
     }
 
     /**
@@ -140,6 +558,8 @@ public class Field {
     public boolean isViable() {
         boolean predatorFound = false;
         boolean preyFound = false;
+        // Only algae sleep or idle, so the listed animals are enough.
+        loadAnimals();
         for (Organism anAnimal : animals) {
             if (anAnimal.isAlive()) {
                 if (anAnimal instanceof Shark || anAnimal instanceof Barracuda) {
@@ -156,12 +576,92 @@ public class Field {
     }
 
     /**
-     * Get the list of animals.
+     * Get the list of animals, including any algae held by the tracking
+     * while their block sleeps, or held as idle while events are
+     * scheduled.
      */
     public List<Organism> getAnimals() {
+        loadAnimals();
+        int sleepers = activeTiles == null ? 0 : activeTiles.getSleeperCount();
+        int idle = idleAlgae == null ? 0 : idleAlgae.getIdleCount();
+        if (sleepers + idle == 0) {
+            return animals;
+        }
+        List<Organism> all = new ArrayList<>(animals.size() + sleepers + idle);
+        all.addAll(animals);
+        if (sleepers > 0) {
+            activeTiles.addSleepersTo(all);
+        }
+        if (idle > 0) {
+            idleAlgae.addIdleTo(all);
+        }
+        return all;
+    }
+
+    /**
+     * Get the list of animals that are to act: every animal but the
+     * sleeping or idle algae. The list is the field's own, and may be
+     * reordered.
+     * 
+     * @return The animals to act.
+     */
+    List<Organism> getAwakeAnimals() {
+        loadAnimals();
         return animals;
     }
 
+    /**
+     * Rebuild the list of animals of a field opened from a file.
+     */
+    private void loadAnimals() {
+        if (!loaded && cells != null) {
+            // Rebuild the list, codes and counts from the claimed cells,
+            // listing the animals in the order a sequential step would have.
+            loaded = true;
+            animals.clear();
+            regionStats.clear();
+            for (int row = 0; row < depth; row++) {
+                for (int col = 0; col < width; col++) {
+                    Organism occupant = cells.get(new Location(row, col));
+                    speciesCodes[row * width + col] = occupant == null ? Species.EMPTY : occupant.getSpecies().code();
+                    if (occupant != null) {
+                        animals.add(occupant);
+                        if (occupant.isAlive()) {
+                            regionStats.add(occupant.getSpecies().code(), row, col);
+                        }
+                    }
+                }
+            }
+            animals.sort(Comparator.comparingLong(Organism::getClaimStamp));
+            invalidateIndexes();
+        } else if (!loaded) {
+            loaded = true;
+            for (int row = 0; row < depth; row++) {
+                for (int col = 0; col < width; col++) {
+                    if (speciesCodes[row * width + col] != Species.EMPTY) {
+                        Organism anAnimal = field.get(new Location(row, col));
+                        anAnimal.setField(this);
+                        animals.add(anAnimal);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the species code of the occupant of every location, stored
+     * row by row (the code for (row, col) is at row * width + col).
+     * The array is the field's own storage and must not be modified.
+     * 
+     * @return The species code grid.
+     */
+    public byte[] getSpeciesCodes() {
+        if (cells != null) {
+            loadAnimals();
+        }
+        return speciesCodes;
+    }
+
     /**
      * Return the depth of the field.
      * 
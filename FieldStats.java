@@ -31,10 +31,20 @@ public class FieldStats {
      * @return A string describing what is in the field.
      */
     public String getPopulationDetails(Field field) {
-        StringBuilder details = new StringBuilder();
         if (!countsValid) {
             generateCounts(field);
         }
+        return getPopulationDetails();
+    }
+
+    /**
+     * Get details of the counts as they stand, e.g. once they have been
+     * given with incrementCounts.
+     * 
+     * @return A string describing the counts.
+     */
+    public String getPopulationDetails() {
+        StringBuilder details = new StringBuilder();
         for (Class<?> key : counters.keySet()) {
             Counter info = counters.get(key);
             details.append(info.getName())
@@ -63,6 +73,30 @@ public class FieldStats {
      * @param animalClass The class of animal to increment.
      */
     public void incrementCount(Class<?> animalClass) {
+        getCounter(animalClass).increment();
+    }
+
+    /**
+     * Increment the count for each species by the number of cells
+     * holding its code.
+     * 
+     * @param codeCounts The number of cells holding each species code.
+     */
+    public void incrementCounts(int[] codeCounts) {
+        for (int code = 1; code < GridKernels.CODES; code++) {
+            if (codeCounts[code] > 0) {
+                getCounter(Species.fromCode(code).organismClass()).add(codeCounts[code]);
+            }
+        }
+    }
+
+    /**
+     * Return the counter for one class of animal, creating it if needed.
+     * 
+     * @param animalClass The class of animal.
+     * @return The counter for that class.
+     */
+    private Counter getCounter(Class<?> animalClass) {
         Counter count = counters.get(animalClass);
         if (count == null) {
             // We do not have a counter for this species yet.
@@ -70,7 +104,7 @@ public class FieldStats {
             count = new Counter(animalClass.getName());
             counters.put(animalClass, count);
         }
-        count.increment();
+        return count;
     }
 
     /**
@@ -100,6 +134,13 @@ public class FieldStats {
      */
     private void generateCounts(Field field) {
         reset();
+        if (GridKernels.isBulk()) {
+            int[] codeCounts = new int[GridKernels.CODES];
+            GridKernels.countSpecies(field.getSpeciesCodes(), codeCounts);
+            incrementCounts(codeCounts);
+            countsValid = true;
+            return;
+        }
         for (int row = 0; row < field.getDepth(); row++) {
             for (int col = 0; col < field.getWidth(); col++) {
                 Organism animal = field.getAnimalAt(new Location(row, col));
@@ -0,0 +1,69 @@
+/**
+ * Storage for the occupants of a field's locations. A Field keeps its
+ * list of organisms and its species code grid itself, and delegates
+ * looking up the organism at a location to its storage.
+ * 
+ * The backend used for new fields is chosen with
+ * -Dsimulator.storage=offheap or OffHeapFieldStorage.setSelected, or
+ * -Dsimulator.storage=morton or MortonFieldStorage.setSelected;
+ * otherwise fields are kept on the heap in a map. The backend does not
+ * change how a run goes, only how fast it is.
+ * 
+ * @version 1.0
+ */
+public interface FieldStorage {
+    /**
+     * Return the organism at the given location, if any.
+     * 
+     * @param location Where in the field.
+     * @return The organism at the location, or null if there is none.
+     */
+    Organism get(Location location);
+
+    /**
+     * Store an organism at the given location, replacing any occupant.
+     * 
+     * @param location Where in the field.
+     * @param organism The organism to store.
+     */
+    void put(Location location, Organism organism);
+
+    /**
+     * Note that the organism stored at a location has died. Storage that
+     * keeps its occupants' state apart from them (see OffHeapFieldStorage)
+     * records it; the rest need not override this.
+     * 
+     * @param location Where the organism is stored.
+     */
+    default void died(Location location) {
+    }
+
+    /**
+     * Remove every organism.
+     */
+    void clear();
+
+    /**
+     * Give back any memory held outside the heap. The storage must not
+     * be used afterwards.
+     */
+    default void release() {
+    }
+
+    /**
+     * Create storage for a new field, using the selected backend.
+     * 
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return The new storage.
+     */
+    static FieldStorage create(int depth, int width) {
+        if (OffHeapFieldStorage.isSelected()) {
+            return new OffHeapFieldStorage(depth, width);
+        }
+        if (MortonFieldStorage.isSelected()) {
+            return new MortonFieldStorage(depth, width);
+        }
+        return new HeapFieldStorage();
+    }
+}
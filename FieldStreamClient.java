@@ -0,0 +1,87 @@
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A command-line client for a FieldStreamServer. It rebuilds the field
+ * from the stream and prints, for each message, its size and the
+ * population it decodes to, which makes it easy to check the stream and
+ * its bandwidth without a browser.
+ *
+ * Usage: java FieldStreamClient [port] [messages]
+ *
+ * @version 1.0
+ */
+public class FieldStreamClient implements WebSocket.Listener {
+    private final CountDownLatch remaining;
+    private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    private byte[] codes;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        FieldStreamClient client = new FieldStreamClient(messages);
+        WebSocket socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/stream"), client).join();
+        client.remaining.await();
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "done").join();
+    }
+
+    /**
+     * @param messages The number of messages to receive before stopping.
+     */
+    public FieldStreamClient(int messages) {
+        remaining = new CountDownLatch(messages);
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket socket, ByteBuffer data, boolean last) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        partial.write(bytes, 0, bytes.length);
+        if (last) {
+            receive(partial.toByteArray());
+            partial.reset();
+            remaining.countDown();
+        }
+        socket.request(1);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Apply one message to the field and print what it holds.
+     */
+    private void receive(byte[] message) {
+        ByteBuffer header = ByteBuffer.wrap(message);
+        byte type = header.get();
+        int step = header.getInt();
+        int width = header.getInt();
+        int depth = header.getInt();
+        int length = message.length - FieldStreamServer.HEADER_BYTES;
+        if (type == FieldStreamServer.KEYFRAME) {
+            codes = new byte[width * depth];
+            SpeciesGridCodec.decodeKeyframe(message, FieldStreamServer.HEADER_BYTES, length, codes);
+        } else if (codes != null) {
+            SpeciesGridCodec.applyDelta(message, FieldStreamServer.HEADER_BYTES, length, codes);
+        }
+        if (codes == null) {
+            return;
+        }
+        int[] counts = new int[GridKernels.CODES];
+        GridKernels.countSpecies(codes, counts);
+        StringBuilder population = new StringBuilder();
+        for (Species species : Species.values()) {
+            population.append(species.organismClass().getSimpleName())
+                    .append(": ")
+                    .append(counts[species.code()])
+                    .append(" ");
+        }
+        System.out.println("Step: " + step + " | " + (type == FieldStreamServer.KEYFRAME ? "keyframe" : "delta")
+                + " " + message.length + " bytes | " + population.toString().trim());
+    }
+}
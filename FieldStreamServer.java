@@ -0,0 +1,346 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A small embedded server that streams the field to browsers on this
+ * machine, so a run can be watched without a window on the host.
+ *
+ * GET / returns a page that draws the field. GET /stream upgrades to a
+ * WebSocket carrying one binary message per step. A client first gets a
+ * keyframe of the whole field, then a delta of the cells that changed
+ * each step (see SpeciesGridCodec). Each client has a short queue of
+ * messages; a client that lets it fill up loses the queued deltas and is
+ * sent a fresh keyframe instead, so a slow client never holds up the
+ * simulation or the other clients.
+ *
+ * Every message starts with a 13-byte header: the type (0 = keyframe,
+ * 1 = delta), then the step, width and depth as big-endian ints.
+ *
+ * Usage: java FieldStreamServer [port] [steps]
+ *
+ * @version 1.0
+ */
+public class FieldStreamServer implements StepListener {
+    public static final byte KEYFRAME = 0;
+    public static final byte DELTA = 1;
+    public static final int HEADER_BYTES = 13;
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_STEPS = 700;
+    private static final double STEP_RATE = 20;
+    // The most messages waiting for one client.
+    private static final int CLIENT_QUEUE = 8;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocket server;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    // The field as last sent; guarded by this.
+    private byte[] lastCodes;
+    private int lastStep, width, depth;
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+        Simulator simulator = new Simulator(80, 120, false);
+        FieldStreamServer server = new FieldStreamServer(port);
+        server.stepCompleted(simulator.getStep(), simulator.getField(), simulator.isDay());
+        simulator.addStepListener(server);
+        System.out.println("Streaming on http://localhost:" + server.getPort() + "/");
+        simulator.getScheduler().setTargetRate(STEP_RATE);
+        simulator.simulate(steps);
+        server.close();
+    }
+
+    /**
+     * Start serving on the loopback interface.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public FieldStreamServer(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptConnections, "stream-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Send each client the changes since the last step, or a keyframe if
+     * it has fallen behind.
+     */
+    @Override
+    public void stepCompleted(int step, Field field, boolean isDay) {
+        byte[] codes = field.getSpeciesCodes();
+        byte[] delta = null;
+        byte[] keyframe = null;
+        synchronized (this) {
+            if (lastCodes != null && lastCodes.length == codes.length) {
+                delta = message(DELTA, step, field.getWidth(), field.getDepth(),
+                        SpeciesGridCodec.encodeDelta(lastCodes, codes));
+                System.arraycopy(codes, 0, lastCodes, 0, codes.length);
+            } else {
+                lastCodes = codes.clone();
+            }
+            lastStep = step;
+            width = field.getWidth();
+            depth = field.getDepth();
+        }
+        for (Client client : clients) {
+            if (delta != null && !client.needsKeyframe) {
+                if (client.queue.offer(delta)) {
+                    continue;
+                }
+                // The client is too slow: drop what it has not been sent.
+                client.queue.clear();
+                client.needsKeyframe = true;
+            }
+            if (keyframe == null) {
+                keyframe = keyframe();
+            }
+            if (client.queue.offer(keyframe)) {
+                client.needsKeyframe = false;
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections and disconnect every client.
+     */
+    public void close() throws IOException {
+        server.close();
+        for (Client client : clients) {
+            client.socket.close();
+        }
+    }
+
+    private synchronized byte[] keyframe() {
+        return message(KEYFRAME, lastStep, width, depth, SpeciesGridCodec.encodeKeyframe(lastCodes));
+    }
+
+    private static byte[] message(byte type, int step, int width, int depth, byte[] payload) {
+        byte[] message = new byte[HEADER_BYTES + payload.length];
+        message[0] = type;
+        putInt(message, 1, step);
+        putInt(message, 5, width);
+        putInt(message, 9, depth);
+        System.arraycopy(payload, 0, message, HEADER_BYTES, payload.length);
+        return message;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private void acceptConnections() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> handle(socket), "stream-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // The server has been closed.
+            }
+        }
+    }
+
+    /**
+     * Answer one HTTP request: the viewer page, or a WebSocket stream.
+     */
+    private void handle(Socket socket) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = in.readLine();
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+            }
+            if (requestLine == null) {
+                return;
+            }
+            OutputStream out = socket.getOutputStream();
+            String path = requestLine.split(" ")[1];
+            String key = headers.get("sec-websocket-key");
+            if (path.equals("/stream") && key != null) {
+                stream(socket, out, key);
+            } else if (path.equals("/")) {
+                byte[] page = viewerPage().getBytes(StandardCharsets.UTF_8);
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\nContent-Length: "
+                        + page.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(page);
+            } else {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // The client has gone away.
+        }
+    }
+
+    /**
+     * Complete the WebSocket handshake, then send queued messages until
+     * the client disconnects.
+     */
+    private void stream(Socket socket, OutputStream out, String key) throws IOException, InterruptedException {
+        String accept;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            accept = Base64.getEncoder().encodeToString(
+                    sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        Client client = new Client(socket);
+        synchronized (this) {
+            if (lastCodes != null) {
+                client.queue.add(keyframe());
+                client.needsKeyframe = false;
+            }
+            clients.add(client);
+        }
+        try {
+            while (!socket.isClosed()) {
+                writeBinaryFrame(out, client.queue.take());
+            }
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * Write an unmasked, unfragmented binary WebSocket frame.
+     */
+    private static void writeBinaryFrame(OutputStream out, byte[] payload) throws IOException {
+        out.write(0x82);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length < 65536) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * @return A page that connects to the stream and draws the field.
+     */
+    private static String viewerPage() {
+        StringBuilder palette = new StringBuilder();
+        for (int rgb : Species.defaultPalette()) {
+            palette.append(palette.length() == 0 ? "" : ",").append(rgb & 0xFFFFFF);
+        }
+        return """
+                <!DOCTYPE html>
+                <html><head><title>Marine Life Simulation</title></head>
+                <body style="font-family: sans-serif">
+                <div id="status">Connecting...</div>
+                <canvas id="field" style="image-rendering: pixelated; width: 720px"></canvas>
+                <script>
+                const palette = [%s];
+                const canvas = document.getElementById('field');
+                const status = document.getElementById('status');
+                let codes = null, image = null;
+                function varint(data, pos) {
+                  let value = 0, scale = 1, b;
+                  do { b = data[pos.i++]; value += (b & 0x7F) * scale; scale *= 128; } while (b & 0x80);
+                  return value;
+                }
+                const ws = new WebSocket('ws://' + location.host + '/stream');
+                ws.binaryType = 'arraybuffer';
+                ws.onmessage = event => {
+                  const view = new DataView(event.data);
+                  const data = new Uint8Array(event.data);
+                  const type = data[0], step = view.getInt32(1), width = view.getInt32(5), depth = view.getInt32(9);
+                  if (!codes || codes.length !== width * depth) {
+                    codes = new Uint8Array(width * depth);
+                    canvas.width = width; canvas.height = depth;
+                    image = canvas.getContext('2d').createImageData(width, depth);
+                  }
+                  const pos = { i: 13 };
+                  let cell = 0;
+                  if (type === 0) {
+                    while (pos.i < data.length) {
+                      const run = varint(data, pos);
+                      codes.fill(run %% 8, cell, cell + Math.floor(run / 8));
+                      cell += Math.floor(run / 8);
+                    }
+                  } else {
+                    while (pos.i < data.length) {
+                      cell += varint(data, pos);
+                      const count = varint(data, pos);
+                      let bits = 0, held = 0;
+                      for (let k = 0; k < count; k++) {
+                        if (held < 3) { bits |= data[pos.i++] << held; held += 8; }
+                        codes[cell++] = bits & 7; bits >>= 3; held -= 3;
+                      }
+                    }
+                  }
+                  for (let c = 0; c < codes.length; c++) {
+                    const rgb = palette[codes[c]];
+                    image.data[4 * c] = rgb >> 16; image.data[4 * c + 1] = (rgb >> 8) & 255;
+                    image.data[4 * c + 2] = rgb & 255; image.data[4 * c + 3] = 255;
+                  }
+                  canvas.getContext('2d').putImageData(image, 0, 0);
+                  status.textContent = 'Step: ' + step + ' (' + data.length + ' bytes)';
+                };
+                ws.onclose = () => status.textContent += ' - disconnected';
+                </script>
+                </body></html>
+                """.formatted(palette);
+    }
+
+    /**
+     * A connected WebSocket client and the messages waiting for it.
+     */
+    private static class Client {
+        final Socket socket;
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(CLIENT_QUEUE);
+        volatile boolean needsKeyframe = true;
+
+        Client(Socket socket) {
+            this.socket = socket;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import javax.imageio.ImageIO;
+
+/**
+ * Export every Nth step of a simulation as an image file, without a
+ * display, so that long runs can be turned into videos.
+ *
+ * Frames are encoded on a fixed pool of threads, and a single writer
+ * thread saves them in step order. At most a fixed number of frames may
+ * be waiting to be encoded or written; once that many are pending, the
+ * simulation waits for the oldest to be saved rather than buffering
+ * more.
+ *
+ * Usage: java FrameExporter directory [steps] [every] [png|raw]
+ *
+ * @version 1.0
+ */
+public class FrameExporter implements StepListener {
+    private static final int DEFAULT_STEPS = 700;
+    private static final int DEFAULT_DEPTH = 80;
+    private static final int DEFAULT_WIDTH = 120;
+
+    /**
+     * The file formats frames can be written in.
+     */
+    public enum Format {
+        // An indexed-color PNG, one pixel per location.
+        PNG,
+        // A 16-byte header (magic, step, width, depth) followed by one
+        // species code per location, row by row.
+        RAW
+    }
+
+    private static final int RAW_MAGIC = 0x53494D46;
+    // Marks the end of the frames for the writer thread.
+    private static final Future<Frame> END = CompletableFuture.completedFuture(null);
+
+    private final Path directory;
+    private final int every;
+    private final Format format;
+    private final ExecutorService encoders;
+    private final Semaphore pending;
+    private final BlockingQueue<Future<Frame>> toWrite = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final IndexColorModel colorModel;
+    private volatile IOException failure;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Paths.get(args[0]);
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+        int every = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        Format format = args.length > 3 ? Format.valueOf(args[3].toUpperCase()) : Format.PNG;
+
+        Files.createDirectories(directory);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        FrameExporter exporter = new FrameExporter(directory, every, format, threads, 2 * threads);
+        Simulator simulator = new Simulator(DEFAULT_DEPTH, DEFAULT_WIDTH, false);
+        try {
+            exporter.stepCompleted(simulator.getStep(), simulator.getField(), simulator.isDay());
+            simulator.addStepListener(exporter);
+            simulator.simulate(steps);
+        } finally {
+            // The writer thread is not a daemon, so it must always be stopped.
+            exporter.close();
+        }
+    }
+
+    /**
+     * Create an exporter. It must be closed to finish writing.
+     *
+     * @param directory  Where to write the frames.
+     * @param every      Export one step in this many; at least 1.
+     * @param format     The file format.
+     * @param threads    The number of encoding threads.
+     * @param maxPending The most frames that may wait to be saved; at
+     *                   least 1.
+     */
+    public FrameExporter(Path directory, int every, Format format, int threads, int maxPending) {
+        if (every < 1) {
+            throw new IllegalArgumentException("Cannot export one step in " + every);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Cannot let " + maxPending + " frames wait to be saved");
+        }
+        this.directory = directory;
+        this.every = every;
+        this.format = format;
+        encoders = Executors.newFixedThreadPool(threads);
+        pending = new Semaphore(maxPending);
+
+        int[] palette = Species.defaultPalette();
+        colorModel = new IndexColorModel(8, palette.length, palette, 0, false, -1,
+                DataBuffer.TYPE_BYTE);
+
+        writer = new Thread(this::writeFrames, "frame-writer");
+        writer.start();
+    }
+
+    /**
+     * Queue the step for export if it is one of the steps wanted,
+     * waiting if too many frames are already pending.
+     */
+    @Override
+    public void stepCompleted(int step, Field field, boolean isDay) {
+        if (step % every != 0) {
+            return;
+        }
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        byte[] codes = field.getSpeciesCodes().clone();
+        int width = field.getWidth();
+        int depth = field.getDepth();
+        toWrite.add(encoders.submit(() -> encode(step, codes, width, depth)));
+    }
+
+    /**
+     * Wait for every queued frame to be written, then stop the threads.
+     *
+     * @throws IOException If a frame could not be written.
+     */
+    public void close() throws IOException, InterruptedException {
+        toWrite.add(END);
+        writer.join();
+        encoders.shutdown();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Encode one frame in the chosen format.
+     */
+    private Frame encode(int step, byte[] codes, int width, int depth) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (format == Format.PNG) {
+            BufferedImage image = new BufferedImage(width, depth, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+            image.getRaster().setDataElements(0, 0, width, depth, codes);
+            ImageIO.write(image, "png", bytes);
+        } else {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(RAW_MAGIC);
+            out.writeInt(step);
+            out.writeInt(width);
+            out.writeInt(depth);
+            out.write(codes);
+        }
+        return new Frame(step, bytes.toByteArray());
+    }
+
+    /**
+     * Save encoded frames in the order they were queued, freeing a
+     * pending slot for each.
+     */
+    private void writeFrames() {
+        try {
+            while (true) {
+                Future<Frame> next = toWrite.take();
+                if (next == END) {
+                    return;
+                }
+                try {
+                    Frame frame = next.get();
+                    String name = String.format("frame-%06d.%s", frame.step(), format.name().toLowerCase());
+                    Files.write(directory.resolve(name), frame.bytes());
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    pending.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An encoded frame.
+     */
+    private record Frame(int step, byte[] bytes) {
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Bulk kernels for the passes that touch every cell of the field each
+ * step: tallying species, mapping cells to colours and sampling creation
+ * probabilities. They work on a species code grid (see
+ * Field.getSpeciesCodes) and are plain loops over primitive arrays: their
+ * gain is reading the codes in order rather than looking up the organism
+ * in every cell.
+ *
+ * Callers keep their original per-cell implementation as a scalar
+ * fallback and ask isBulk() which one to use. The choice can be
+ * made at startup with -Dsimulator.kernels=scalar or changed at runtime
+ * with setBulk.
+ *
+ * @version 1.0
+ */
+public class GridKernels {
+    // Number of codes a histogram must hold: EMPTY plus one per species.
+    public static final int CODES = Species.count() + 1;
+
+    private static volatile boolean bulk = !"scalar".equals(System.getProperty("simulator.kernels"));
+
+    /**
+     * @return true if the bulk kernels should be used.
+     */
+    public static boolean isBulk() {
+        return bulk;
+    }
+
+    /**
+     * Choose between the bulk kernels and the scalar per-cell passes.
+     *
+     * @param useKernels true to use the bulk kernels.
+     */
+    public static void setBulk(boolean useKernels) {
+        bulk = useKernels;
+    }
+
+    /**
+     * Count how many cells hold each code. Four independent histograms
+     * are kept so consecutive cells do not wait on the same counter.
+     *
+     * @param codes  The species code grid.
+     * @param counts Receives the count for each code; at least CODES long.
+     */
+    public static void countSpecies(byte[] codes, int[] counts) {
+        int[] h0 = new int[8];
+        int[] h1 = new int[8];
+        int[] h2 = new int[8];
+        int[] h3 = new int[8];
+        int i = 0;
+        int end = codes.length & ~3;
+        for (; i < end; i += 4) {
+            h0[codes[i] & 7]++;
+            h1[codes[i + 1] & 7]++;
+            h2[codes[i + 2] & 7]++;
+            h3[codes[i + 3] & 7]++;
+        }
+        for (; i < codes.length; i++) {
+            h0[codes[i] & 7]++;
+        }
+        for (int c = 0; c < CODES; c++) {
+            counts[c] = h0[c] + h1[c] + h2[c] + h3[c];
+        }
+    }
+
+    /**
+     * Translate every code into a colour.
+     *
+     * @param codes   The species code grid.
+     * @param palette The RGB colour for each code; at least CODES long.
+     * @param pixels  Receives one RGB value per cell.
+     */
+    public static void mapColours(byte[] codes, int[] palette, int[] pixels) {
+        int i = 0;
+        int end = codes.length & ~3;
+        for (; i < end; i += 4) {
+            pixels[i] = palette[codes[i] & 7];
+            pixels[i + 1] = palette[codes[i + 1] & 7];
+            pixels[i + 2] = palette[codes[i + 2] & 7];
+            pixels[i + 3] = palette[codes[i + 3] & 7];
+        }
+        for (; i < codes.length; i++) {
+            pixels[i] = palette[codes[i] & 7];
+        }
+    }
+
+    /**
+     * Classify uniform samples against ascending cumulative thresholds.
+     * A sample falls in bucket n when it is above exactly n thresholds,
+     * matching an if/else chain of "sample <= threshold" tests. Each
+     * threshold is compared against the whole row before moving to the
+     * next, so the inner loop has no data-dependent branches.
+     *
+     * @param samples    Uniform samples in [0, 1).
+     * @param thresholds Ascending cumulative probabilities.
+     * @param outcomes   The code for each bucket; thresholds.length + 1 long.
+     * @param out        Receives the code chosen for each sample.
+     */
+    public static void classify(double[] samples, double[] thresholds, byte[] outcomes, byte[] out) {
+        int n = samples.length;
+        for (int i = 0; i < n; i++) {
+            out[i] = 0;
+        }
+        for (double threshold : thresholds) {
+            for (int i = 0; i < n; i++) {
+                out[i] += samples[i] > threshold ? 1 : 0;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            out[i] = outcomes[out[i]];
+        }
+    }
+}
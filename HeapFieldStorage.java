@@ -0,0 +1,27 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Field storage on the Java heap: organisms mapped by location.
+ * 
+ * @version 1.0
+ */
+public class HeapFieldStorage implements FieldStorage {
+    // Animals mapped by location.
+    private final Map<Location, Organism> field = new HashMap<>();
+
+    @Override
+    public Organism get(Location location) {
+        return field.get(location);
+    }
+
+    @Override
+    public void put(Location location, Organism organism) {
+        field.put(location, organism);
+    }
+
+    @Override
+    public void clear() {
+        field.clear();
+    }
+}
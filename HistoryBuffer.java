@@ -0,0 +1,228 @@
+import java.util.Arrays;
+
+/**
+ * The species grids of the most recent steps, kept compactly so that a
+ * run can be scrubbed back through in the view (see SimulatorView).
+ *
+ * Every step is encoded with SpeciesGridCodec: a keyframe of the whole
+ * grid every few steps, and a delta of the changed cells otherwise, so
+ * a step costs memory in proportion to how much changed. When the steps
+ * held use more than the memory budget, the oldest keyframe and the
+ * deltas that depend on it are dropped together. Decoding a step starts
+ * from its keyframe, or from the step decoded last when scrubbing
+ * forward, so it applies at most a keyframe interval of deltas.
+ *
+ * Encoding a step is one pass over the grid, much less than a step's
+ * work. The budget can be set at startup with -Dsimulator.history=MB
+ * (0 to keep no history) or with setBudgetMegabytes.
+ *
+ * @version 1.0
+ */
+public class HistoryBuffer implements StepListener {
+    // The memory budget, unless another is chosen.
+    private static final int DEFAULT_BUDGET_MB = 64;
+    // Steps from one keyframe to the next.
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+    private static volatile int budgetMegabytes = Integer.getInteger("simulator.history", DEFAULT_BUDGET_MB);
+
+    private final long budgetBytes;
+    private final int keyframeInterval;
+
+    // The steps held, oldest first, as a ring; guarded by this.
+    private Frame[] frames = new Frame[256];
+    private int head, size;
+    private long bytesUsed;
+    private int depth, width;
+    // The grid of the newest step, to encode the next delta against.
+    private byte[] newest;
+    private int sinceKeyframe;
+    // The step decoded last, and its grid.
+    private int decodedStep = -1;
+    private byte[] decoded;
+
+    /**
+     * One encoded step.
+     */
+    private record Frame(int step, boolean keyframe, byte[] data) {
+    }
+
+    /**
+     * Create a history using the configured budget.
+     */
+    public HistoryBuffer() {
+        this((long) budgetMegabytes << 20, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Create a history with the given budget.
+     *
+     * @param budgetBytes      The most memory the encoded steps may use.
+     * @param keyframeInterval Steps from one keyframe to the next.
+     */
+    public HistoryBuffer(long budgetBytes, int keyframeInterval) {
+        this.budgetBytes = budgetBytes;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * @return true if a history should be kept.
+     */
+    public static boolean isEnabled() {
+        return budgetMegabytes > 0;
+    }
+
+    /**
+     * Choose the memory budget of histories created from now on.
+     *
+     * @param megabytes The budget, or 0 to keep no history.
+     */
+    public static void setBudgetMegabytes(int megabytes) {
+        budgetMegabytes = megabytes;
+    }
+
+    /**
+     * Encode the field after a step. A step that does not follow the
+     * newest one held, e.g. after a reset, starts a new history.
+     */
+    @Override
+    public synchronized void stepCompleted(int step, Field field, boolean isDay) {
+        byte[] codes = field.getSpeciesCodes();
+        if (size > 0 && (step != newestStep() + 1 || field.getDepth() != depth || field.getWidth() != width)) {
+            clear();
+        }
+        boolean keyframe = size == 0 || sinceKeyframe >= keyframeInterval;
+        byte[] data;
+        if (keyframe) {
+            depth = field.getDepth();
+            width = field.getWidth();
+            newest = codes.clone();
+            data = SpeciesGridCodec.encodeKeyframe(codes);
+            sinceKeyframe = 1;
+        } else {
+            data = SpeciesGridCodec.encodeDelta(newest, codes);
+            System.arraycopy(codes, 0, newest, 0, codes.length);
+            sinceKeyframe++;
+        }
+        add(new Frame(step, keyframe, data));
+        evict();
+    }
+
+    /**
+     * Decode a step held in the history.
+     *
+     * @param step  The step.
+     * @param codes Receives the species code grid, row by row; it must
+     *              be the size of the field.
+     * @return false if the step is not held.
+     */
+    public synchronized boolean decode(int step, byte[] codes) {
+        if (size == 0 || step < oldestStep() || step > newestStep()) {
+            return false;
+        }
+        int index = step - oldestStep();
+        int keyframe = index;
+        while (!frame(keyframe).keyframe()) {
+            keyframe--;
+        }
+        int from;
+        if (decoded != null && decodedStep >= frame(keyframe).step() && decodedStep <= step) {
+            // Carry on from the step decoded last.
+            from = decodedStep - oldestStep() + 1;
+        } else {
+            if (decoded == null || decoded.length != depth * width) {
+                decoded = new byte[depth * width];
+            }
+            byte[] data = frame(keyframe).data();
+            SpeciesGridCodec.decodeKeyframe(data, 0, data.length, decoded);
+            from = keyframe + 1;
+        }
+        for (int i = from; i <= index; i++) {
+            byte[] data = frame(i).data();
+            SpeciesGridCodec.applyDelta(data, 0, data.length, decoded);
+        }
+        decodedStep = step;
+        System.arraycopy(decoded, 0, codes, 0, decoded.length);
+        return true;
+    }
+
+    /**
+     * @return The oldest step held, or -1 if none are.
+     */
+    public synchronized int getOldestStep() {
+        return size == 0 ? -1 : oldestStep();
+    }
+
+    /**
+     * @return The newest step held, or -1 if none are.
+     */
+    public synchronized int getNewestStep() {
+        return size == 0 ? -1 : newestStep();
+    }
+
+    /**
+     * @return The memory used by the encoded steps, in bytes.
+     */
+    public synchronized long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    /**
+     * Forget every step.
+     */
+    public synchronized void clear() {
+        Arrays.fill(frames, null);
+        head = 0;
+        size = 0;
+        bytesUsed = 0;
+        decodedStep = -1;
+    }
+
+    private Frame frame(int index) {
+        return frames[(head + index) % frames.length];
+    }
+
+    private int oldestStep() {
+        return frame(0).step();
+    }
+
+    private int newestStep() {
+        return frame(size - 1).step();
+    }
+
+    private void add(Frame frame) {
+        if (size == frames.length) {
+            Frame[] larger = new Frame[frames.length * 2];
+            for (int i = 0; i < size; i++) {
+                larger[i] = frame(i);
+            }
+            frames = larger;
+            head = 0;
+        }
+        frames[(head + size) % frames.length] = frame;
+        size++;
+        bytesUsed += frame.data().length;
+    }
+
+    /**
+     * Drop the oldest keyframe and its deltas while over budget, keeping
+     * at least the newest keyframe's.
+     */
+    private void evict() {
+        while (bytesUsed > budgetBytes) {
+            int next = 1;
+            while (next < size && !frame(next).keyframe()) {
+                next++;
+            }
+            if (next == size) {
+                return;
+            }
+            for (int i = 0; i < next; i++) {
+                bytesUsed -= frames[head].data().length;
+                frames[head] = null;
+                head = (head + 1) % frames.length;
+            }
+            size -= next;
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Random;
 
@@ -79,7 +82,7 @@ public class Jellyfish extends Organism {
     private int breed() {
         int births;
 
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
+        if (canBreed() && breedingRoll(BREEDING_PROBABILITY, rand)) {
             births = rand.nextInt(MAX_LITTER_SIZE) + 1;
         } else {
             births = 0;
@@ -91,4 +94,19 @@ public class Jellyfish extends Organism {
     private boolean canBreed() {
         return age >= BREEDING_AGE;
     }
+
+    @Override
+    protected void writeState(DataOutput out) throws IOException {
+        out.writeInt(age);
+    }
+
+    @Override
+    protected void readState(DataInput in) throws IOException {
+        age = in.readInt();
+    }
+
+    @Override
+    public Species getSpecies() {
+        return Species.JELLYFISH;
+    }
 }
@@ -0,0 +1,577 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+/**
+ * A store on disk of the metrics of many runs, to be queried across runs,
+ * e.g. for every run in which sharks died out before step 300.
+ *
+ * Each run has a directory of its own holding its configuration (the
+ * same as a cached run is keyed on: see ResultCache) and one file per
+ * column: the population of each species, the births and deaths
+ * of all species, and the weather (as its index in
+ * Simulator.WEATHER_CONDITIONS), with one row after populating and one
+ * after every step. Rows are only ever appended. Births are the organisms
+ * alive after a step that were not alive before it, and deaths those
+ * alive before it that are not after it, so an organism born and killed
+ * in the same step is in neither.
+ *
+ * Columns are read by mapping their files into memory: a query reads the
+ * values it looks at straight from the page cache, and nothing of a run
+ * is copied onto the heap. A run being recorded can be read at the same
+ * time, up to the last row all of its columns hold.
+ *
+ * Usage: java MetricsStore directory record runs depth width steps [seed]
+ * records runs with seeds from the given one (default 1) upwards;
+ * java MetricsStore directory extinct species step lists the runs in
+ * which a species (e.g. Shark) died out before a step.
+ *
+ * @version 1.0
+ */
+public class MetricsStore {
+    private static final String RUN_FILE = "run.bin";
+    private static final String BIRTHS_FILE = "births.col";
+    private static final String DEATHS_FILE = "deaths.col";
+    private static final String WEATHER_FILE = "weather.col";
+    private static final String COLUMN_SUFFIX = ".col";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final int RUN_VERSION = 2;
+    // Rows kept by a writer before they are appended to the files.
+    private static final int ROWS_PER_FLUSH = 1024;
+    private static final double[] DEFAULT_MIX = { 0.02, 0.02, 0.08, 0.1, 0.05, 0.15 };
+
+    private final Path directory;
+
+    /**
+     * Open a store in a directory.
+     *
+     * @param directory The directory, created when the first run is
+     *                  recorded.
+     */
+    public MetricsStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        MetricsStore store = new MetricsStore(Paths.get(args[0]));
+        if ("record".equals(args[1])) {
+            int runs = Integer.parseInt(args[2]);
+            int depth = Integer.parseInt(args[3]);
+            int width = Integer.parseInt(args[4]);
+            int steps = Integer.parseInt(args[5]);
+            long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+            PrintStream out = System.out;
+            // The simulator reports every step; keep the output to the runs.
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            for (int i = 0; i < runs; i++) {
+                ResultCache.Run run = new ResultCache.Run(depth, width, DEFAULT_MIX, seed + i, steps);
+                out.println(store.record(run).getFileName());
+            }
+            System.setOut(out);
+        } else if ("extinct".equals(args[1])) {
+            Species species = Species.valueOf(args[2].toUpperCase());
+            int before = Integer.parseInt(args[3]);
+            List<RunMetrics> runs = store.select(run -> {
+                int extinct = run.extinctionStep(species);
+                return extinct >= 0 && extinct < before;
+            });
+            for (RunMetrics run : runs) {
+                System.out.printf("%s seed %d: %s extinct at step %d%n", run.getDirectory().getFileName(),
+                        run.getRun().seed(), args[2], run.extinctionStep(species));
+            }
+            System.out.println(runs.size() + " runs");
+        } else {
+            System.out.println("Unknown command " + args[1]);
+        }
+    }
+
+    /**
+     * Make a headless run and record its metrics.
+     *
+     * @param run The run.
+     * @return The run's directory.
+     * @throws IOException If the store cannot be written.
+     */
+    public Path record(ResultCache.Run run) throws IOException {
+        Randomizer.setSeed(run.seed());
+        Simulator simulator = new Simulator(run.depth(), run.width(), false,
+                new Populator(Species.values(), run.mix()));
+        try (RunWriter writer = startRun(run, simulator)) {
+            while (simulator.getStep() < run.steps()) {
+                simulator.simulateOneStep(false);
+            }
+            simulator.getField().release();
+            return writer.getDirectory();
+        }
+    }
+
+    /**
+     * Start recording a simulation's metrics as a new run: its state now
+     * becomes the first row, and each step it completes another, until
+     * the writer is closed.
+     *
+     * @param run       The run's configuration; its steps are not kept,
+     *                  as the rows say how far it went. The modes
+     *                  selected now are kept with it.
+     * @param simulator The simulation.
+     * @return The run's writer.
+     * @throws IOException If the store cannot be written.
+     */
+    public RunWriter startRun(ResultCache.Run run, Simulator simulator) throws IOException {
+        Files.createDirectories(directory);
+        // Claim the next free run directory; another writer may take one first.
+        for (int id = runDirectories().size();; id++) {
+            Path runDirectory = directory.resolve(String.format("run-%06d", id));
+            try {
+                Files.createDirectory(runDirectory);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            // The configuration goes last, and whole, as it marks the run readable.
+            RunWriter writer = new RunWriter(runDirectory, simulator);
+            Path partial = runDirectory.resolve(RUN_FILE + PARTIAL_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(partial))) {
+                out.writeInt(RUN_VERSION);
+                out.writeInt(run.depth());
+                out.writeInt(run.width());
+                out.writeLong(run.seed());
+                out.writeInt(run.mix().length);
+                for (double probability : run.mix()) {
+                    out.writeDouble(probability);
+                }
+                out.writeUTF(ResultCache.modes());
+                out.writeUTF(ResultCache.codeVersion());
+            }
+            Files.move(partial, runDirectory.resolve(RUN_FILE), StandardCopyOption.ATOMIC_MOVE);
+            return writer;
+        }
+    }
+
+    /**
+     * @return Every run in the store, in the order they were started.
+     *         Their columns are not mapped until first read.
+     * @throws IOException If the store cannot be read.
+     */
+    public List<RunMetrics> runs() throws IOException {
+        List<RunMetrics> runs = new ArrayList<>();
+        for (Path runDirectory : runDirectories()) {
+            runs.add(new RunMetrics(runDirectory));
+        }
+        return runs;
+    }
+
+    /**
+     * Return the runs that pass a filter.
+     *
+     * @param filter The filter, reading what it needs of each run.
+     * @return The runs, in the order they were started.
+     * @throws IOException If the store cannot be read.
+     */
+    public List<RunMetrics> select(Predicate<RunMetrics> filter) throws IOException {
+        List<RunMetrics> selected = new ArrayList<>();
+        for (RunMetrics run : runs()) {
+            if (filter.test(run)) {
+                selected.add(run);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Summarise a value of each run that passes a filter, e.g. the
+     * largest number of sharks, without keeping any run mapped.
+     *
+     * @param filter The filter.
+     * @param value  The value of a run.
+     * @return The count, sum, minimum, mean and maximum of the values.
+     * @throws IOException If the store cannot be read.
+     */
+    public IntSummaryStatistics aggregate(Predicate<RunMetrics> filter, ToIntFunction<RunMetrics> value)
+            throws IOException {
+        IntSummaryStatistics statistics = new IntSummaryStatistics();
+        for (Path runDirectory : runDirectories()) {
+            RunMetrics run = new RunMetrics(runDirectory);
+            if (filter.test(run)) {
+                statistics.accept(value.applyAsInt(run));
+            }
+        }
+        return statistics;
+    }
+
+    private List<Path> runDirectories() throws IOException {
+        List<Path> runDirectories = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return runDirectories;
+        }
+        try (Stream<Path> children = Files.list(directory)) {
+            children.filter(child -> Files.isRegularFile(child.resolve(RUN_FILE))).forEach(runDirectories::add);
+        }
+        Collections.sort(runDirectories);
+        return runDirectories;
+    }
+
+    private static String speciesFile(Species species) {
+        return species.organismClass().getSimpleName() + COLUMN_SUFFIX;
+    }
+
+    /**
+     * Appends a simulation's metrics to a run's columns, one row per step.
+     */
+    public static class RunWriter implements StepListener, AutoCloseable {
+        private final Path directory;
+        private final Simulator simulator;
+        private final FileChannel[] counts = new FileChannel[Species.values().length];
+        private final FileChannel births, deaths, weather;
+        private final ByteBuffer[] countRows = new ByteBuffer[counts.length];
+        private final ByteBuffer birthRows = ByteBuffer.allocate(ROWS_PER_FLUSH * Integer.BYTES);
+        private final ByteBuffer deathRows = ByteBuffer.allocate(ROWS_PER_FLUSH * Integer.BYTES);
+        private final ByteBuffer weatherRows = ByteBuffer.allocate(ROWS_PER_FLUSH);
+        private int buffered;
+        // The organisms alive after the last row, or null before the first.
+        private Set<Organism> alive;
+
+        private RunWriter(Path directory, Simulator simulator) throws IOException {
+            this.directory = directory;
+            this.simulator = simulator;
+            Species[] species = Species.values();
+            for (int i = 0; i < species.length; i++) {
+                counts[i] = append(speciesFile(species[i]));
+                countRows[i] = ByteBuffer.allocate(ROWS_PER_FLUSH * Integer.BYTES);
+            }
+            births = append(BIRTHS_FILE);
+            deaths = append(DEATHS_FILE);
+            weather = append(WEATHER_FILE);
+            addRow(simulator.getField());
+            simulator.addStepListener(this);
+        }
+
+        /**
+         * @return The run's directory.
+         */
+        public Path getDirectory() {
+            return directory;
+        }
+
+        @Override
+        public void stepCompleted(int step, Field field, boolean isDay) {
+            try {
+                addRow(field);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Stop recording, and append the rows not yet written.
+         *
+         * @throws IOException If the store cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            simulator.removeStepListener(this);
+            flush();
+            for (FileChannel channel : counts) {
+                channel.close();
+            }
+            births.close();
+            deaths.close();
+            weather.close();
+        }
+
+        private void addRow(Field field) throws IOException {
+            int[] populations = ScenarioSuite.populations(field);
+            for (int i = 0; i < populations.length; i++) {
+                countRows[i].putInt(populations[i]);
+            }
+            Set<Organism> nowAlive = Collections.newSetFromMap(new IdentityHashMap<>());
+            int born = 0;
+            for (Organism organism : field.getAnimals()) {
+                if (organism.isAlive()) {
+                    nowAlive.add(organism);
+                    if (alive != null && !alive.contains(organism)) {
+                        born++;
+                    }
+                }
+            }
+            // The first row has no step before it.
+            birthRows.putInt(alive == null ? 0 : born);
+            deathRows.putInt(alive == null ? 0 : alive.size() - (nowAlive.size() - born));
+            int weatherIndex = Simulator.WEATHER_CONDITIONS.indexOf(simulator.getWeather());
+            if (weatherIndex < 0) {
+                throw new IllegalStateException("Unknown weather " + simulator.getWeather());
+            }
+            weatherRows.put((byte) weatherIndex);
+            alive = nowAlive;
+            if (++buffered == ROWS_PER_FLUSH) {
+                flush();
+            }
+        }
+
+        /**
+         * Append the buffered rows, the weather last, so that a reader
+         * never sees a row's weather before its other columns.
+         */
+        private void flush() throws IOException {
+            for (int i = 0; i < counts.length; i++) {
+                write(counts[i], countRows[i]);
+            }
+            write(births, birthRows);
+            write(deaths, deathRows);
+            write(weather, weatherRows);
+            buffered = 0;
+        }
+
+        private FileChannel append(String file) throws IOException {
+            return FileChannel.open(directory.resolve(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+
+        private static void write(FileChannel channel, ByteBuffer rows) throws IOException {
+            rows.flip();
+            while (rows.hasRemaining()) {
+                channel.write(rows);
+            }
+            rows.clear();
+        }
+    }
+
+    /**
+     * The metrics of one run, read from its mapped columns.
+     */
+    public static class RunMetrics {
+        private final Path directory;
+        private final ResultCache.Run run;
+        private final String modes, codeVersion;
+        private final int rows;
+        private final IntColumn[] counts = new IntColumn[Species.values().length];
+        private IntColumn births, deaths;
+        private MappedByteBuffer weather;
+
+        private RunMetrics(Path directory) throws IOException {
+            this.directory = directory;
+            // The weather is appended last, so its rows are complete in every column.
+            rows = (int) Files.size(directory.resolve(WEATHER_FILE));
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(directory.resolve(RUN_FILE)))) {
+                int version = in.readInt();
+                if (version != RUN_VERSION) {
+                    throw new IOException("Unknown run version " + version + " in " + directory);
+                }
+                int depth = in.readInt();
+                int width = in.readInt();
+                long seed = in.readLong();
+                double[] mix = new double[in.readInt()];
+                for (int i = 0; i < mix.length; i++) {
+                    mix[i] = in.readDouble();
+                }
+                run = new ResultCache.Run(depth, width, mix, seed, rows - 1);
+                modes = in.readUTF();
+                codeVersion = in.readUTF();
+            }
+        }
+
+        /**
+         * @return The run's directory.
+         */
+        public Path getDirectory() {
+            return directory;
+        }
+
+        /**
+         * @return The run's configuration, and the steps recorded so far.
+         */
+        public ResultCache.Run getRun() {
+            return run;
+        }
+
+        /**
+         * @return The modes the run was made with, as ResultCache.modes
+         *         gives them.
+         */
+        public String getModes() {
+            return modes;
+        }
+
+        /**
+         * @return The version of the simulation's code the run was made
+         *         with (see ResultCache.codeVersion).
+         */
+        public String getCodeVersion() {
+            return codeVersion;
+        }
+
+        /**
+         * @return The rows: the steps recorded, and the one after
+         *         populating.
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @param species The species.
+         * @return The species' live population, by step.
+         */
+        public IntColumn count(Species species) {
+            int i = species.ordinal();
+            if (counts[i] == null) {
+                counts[i] = new IntColumn(map(speciesFile(species), rows * Integer.BYTES).asIntBuffer());
+            }
+            return counts[i];
+        }
+
+        /**
+         * @return The organisms born in each step, of all species.
+         */
+        public IntColumn births() {
+            if (births == null) {
+                births = new IntColumn(map(BIRTHS_FILE, rows * Integer.BYTES).asIntBuffer());
+            }
+            return births;
+        }
+
+        /**
+         * @return The organisms that died in each step, of all species.
+         */
+        public IntColumn deaths() {
+            if (deaths == null) {
+                deaths = new IntColumn(map(DEATHS_FILE, rows * Integer.BYTES).asIntBuffer());
+            }
+            return deaths;
+        }
+
+        /**
+         * @param step The step.
+         * @return The weather in the step.
+         */
+        public String weather(int step) {
+            if (weather == null) {
+                weather = map(WEATHER_FILE, rows);
+            }
+            return Simulator.WEATHER_CONDITIONS.get(weather.get(step));
+        }
+
+        /**
+         * @param species The species.
+         * @return The first step after populating at which no organism of
+         *         the species was alive, or -1 if there was none.
+         */
+        public int extinctionStep(Species species) {
+            IntColumn column = count(species);
+            int step = column.firstStep(count -> count == 0);
+            // Absent from the start is not dying out.
+            return step == 0 ? -1 : step;
+        }
+
+        private MappedByteBuffer map(String file, long bytes) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(file), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * A column of ints, one per step, read in place from its mapped file.
+     */
+    public static class IntColumn {
+        private final IntBuffer values;
+
+        private IntColumn(IntBuffer values) {
+            this.values = values;
+        }
+
+        /**
+         * @return The number of steps, including the one after populating.
+         */
+        public int size() {
+            return values.limit();
+        }
+
+        /**
+         * @param step The step.
+         * @return The value at the step.
+         */
+        public int get(int step) {
+            return values.get(step);
+        }
+
+        /**
+         * @param test The test.
+         * @return The first step whose value passes the test, or -1.
+         */
+        public int firstStep(IntPredicate test) {
+            for (int step = 0; step < values.limit(); step++) {
+                if (test.test(values.get(step))) {
+                    return step;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return The smallest value, or 0 if there are none.
+         */
+        public int min() {
+            int min = values.limit() == 0 ? 0 : Integer.MAX_VALUE;
+            for (int step = 0; step < values.limit(); step++) {
+                min = Math.min(min, values.get(step));
+            }
+            return min;
+        }
+
+        /**
+         * @return The largest value, or 0 if there are none.
+         */
+        public int max() {
+            int max = values.limit() == 0 ? 0 : Integer.MIN_VALUE;
+            for (int step = 0; step < values.limit(); step++) {
+                max = Math.max(max, values.get(step));
+            }
+            return max;
+        }
+
+        /**
+         * @param from The first step.
+         * @param to   The step after the last one.
+         * @return The sum of the values from one step up to another.
+         */
+        public long sum(int from, int to) {
+            long sum = 0;
+            for (int step = Math.max(0, from); step < Math.min(values.limit(), to); step++) {
+                sum += values.get(step);
+            }
+            return sum;
+        }
+
+        /**
+         * @return The mean value, or 0 if there are none.
+         */
+        public double mean() {
+            return values.limit() == 0 ? 0 : (double) sum(0, values.limit()) / values.limit();
+        }
+    }
+}
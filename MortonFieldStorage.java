@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/**
+ * Field storage on the Java heap in an array of cells laid out tile by
+ * tile rather than row by row, so that the cells near a location, above
+ * and below as well as beside it, are mostly near it in memory. The
+ * field is split into square tiles, stored one after another row by row;
+ * within a tile the cells are in Morton (Z-order) order (see
+ * UpdateOrder.mortonCode). It pays off most with organisms acting in
+ * Morton order, when the cells an organism looks at are near those the
+ * organism before it looked at, but it can be used with any order.
+ *
+ * Only the last row and column of tiles are padded, so the array has at
+ * most (depth + TILE - 1) * (width + TILE - 1) cells, whatever the
+ * field's shape.
+ *
+ * Tiled storage can be chosen for new fields at startup with
+ * -Dsimulator.storage=morton or with setSelected.
+ *
+ * @version 1.0
+ */
+public class MortonFieldStorage implements FieldStorage {
+    // The side of a tile in cells, a power of two.
+    private static final int TILE_SHIFT = 4;
+    private static final int TILE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE - 1;
+
+    private static volatile boolean selected = "morton".equals(System.getProperty("simulator.storage"));
+
+    private final int tileCols;
+    private final Organism[] cells;
+
+    /**
+     * Create empty storage for a field of the given size.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public MortonFieldStorage(int depth, int width) {
+        int tileRows = (depth + TILE_MASK) >> TILE_SHIFT;
+        tileCols = (width + TILE_MASK) >> TILE_SHIFT;
+        cells = new Organism[Math.multiplyExact(tileRows * tileCols, TILE * TILE)];
+    }
+
+    /**
+     * @return true if new fields should use tiled array storage.
+     */
+    public static boolean isSelected() {
+        return selected;
+    }
+
+    /**
+     * Choose whether new fields use tiled array storage.
+     *
+     * @param tiled true to keep new fields in tiled arrays.
+     */
+    public static void setSelected(boolean tiled) {
+        selected = tiled;
+    }
+
+    @Override
+    public Organism get(Location location) {
+        return cells[index(location.row(), location.col())];
+    }
+
+    @Override
+    public void put(Location location, Organism organism) {
+        cells[index(location.row(), location.col())] = organism;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(cells, null);
+    }
+
+    /**
+     * @return The position of a cell in the array: its tile's, row by
+     *         row, then its Morton code within the tile.
+     */
+    private int index(int row, int col) {
+        int tile = (row >> TILE_SHIFT) * tileCols + (col >> TILE_SHIFT);
+        return tile << 2 * TILE_SHIFT | UpdateOrder.mortonCode(row & TILE_MASK, col & TILE_MASK);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Long-run occupancy of each block of the field by each species, kept
+ * separately for day and night steps: for example, how far jellyfish
+ * rise at night, or where tuna gather away from sharks.
+ *
+ * After each step the field's region statistics (see RegionStats) are
+ * added to running totals, so a step costs O(blocks) however large the
+ * field, and so does reading or exporting a heatmap.
+ *
+ * Usage: java OccupancyHeatmap directory [steps]
+ * writes one CSV file per species for day and for night, and prints
+ * the mean depth of each species by day and by night.
+ *
+ * @version 1.0
+ */
+public class OccupancyHeatmap implements StepListener {
+    private static final int DEFAULT_STEPS = 700;
+    private static final int DEFAULT_DEPTH = 80;
+    private static final int DEFAULT_WIDTH = 120;
+
+    private int blockSize, blockRows, blockCols, depth, width;
+    // Summed counts, laid out as RegionStats.getCounts.
+    private long[] dayTotals, nightTotals;
+    private int daySteps, nightSteps;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args[0]);
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+
+        Files.createDirectories(directory);
+        OccupancyHeatmap heatmap = new OccupancyHeatmap();
+        Simulator simulator = new Simulator(DEFAULT_DEPTH, DEFAULT_WIDTH, false);
+        simulator.addStepListener(heatmap);
+        simulator.simulate(steps);
+        for (Species species : Species.values()) {
+            String name = species.organismClass().getSimpleName();
+            heatmap.writeCsv(directory.resolve(name + "-day.csv"), species, false);
+            heatmap.writeCsv(directory.resolve(name + "-night.csv"), species, true);
+            System.out.printf(Locale.ROOT, "%-10s mean depth: day %6.1f, night %6.1f%n", name,
+                    heatmap.getMeanDepth(species, false), heatmap.getMeanDepth(species, true));
+        }
+    }
+
+    /**
+     * Add the field's block counts to the day or night totals.
+     */
+    @Override
+    public void stepCompleted(int step, Field field, boolean isDay) {
+        RegionStats stats = field.getRegionStats();
+        if (dayTotals == null || field.getDepth() != depth || field.getWidth() != width
+                || stats.getBlockSize() != blockSize) {
+            depth = field.getDepth();
+            width = field.getWidth();
+            blockSize = stats.getBlockSize();
+            blockRows = stats.getBlockRows();
+            blockCols = stats.getBlockCols();
+            dayTotals = new long[stats.getCounts().length];
+            nightTotals = new long[stats.getCounts().length];
+            daySteps = 0;
+            nightSteps = 0;
+        }
+        if (isDay) {
+            stats.addTo(dayTotals);
+            daySteps++;
+        } else {
+            stats.addTo(nightTotals);
+            nightSteps++;
+        }
+    }
+
+    /**
+     * Return the mean number of organisms of a species in each block, by
+     * day or by night.
+     *
+     * @param species The species.
+     * @param night   true for night steps, false for day steps.
+     * @return The mean count per block, row by row.
+     */
+    public double[] getMeanOccupancy(Species species, boolean night) {
+        int blocks = blockRows * blockCols;
+        double[] mean = new double[blocks];
+        int steps = night ? nightSteps : daySteps;
+        if (steps == 0) {
+            return mean;
+        }
+        long[] totals = night ? nightTotals : dayTotals;
+        int base = species.code() * blocks;
+        for (int block = 0; block < blocks; block++) {
+            mean[block] = (double) totals[base + block] / steps;
+        }
+        return mean;
+    }
+
+    /**
+     * Return the mean row of a species' organisms, taking each block's
+     * organisms to be at the block's middle row.
+     *
+     * @param species The species.
+     * @param night   true for night steps, false for day steps.
+     * @return The mean row, or NaN if none were seen.
+     */
+    public double getMeanDepth(Species species, boolean night) {
+        double[] mean = getMeanOccupancy(species, night);
+        double weighted = 0;
+        double total = 0;
+        for (int blockRow = 0; blockRow < blockRows; blockRow++) {
+            int top = blockRow * blockSize;
+            double middle = (top + Math.min(depth, top + blockSize)) / 2.0;
+            for (int blockCol = 0; blockCol < blockCols; blockCol++) {
+                double count = mean[blockRow * blockCols + blockCol];
+                weighted += count * middle;
+                total += count;
+            }
+        }
+        return total == 0 ? Double.NaN : weighted / total;
+    }
+
+    /**
+     * Write a heatmap as CSV: one line per row of blocks, holding the
+     * mean count of the species in each block.
+     *
+     * @param file    The file to write.
+     * @param species The species.
+     * @param night   true for night steps, false for day steps.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeCsv(Path file, Species species, boolean night) throws IOException {
+        double[] mean = getMeanOccupancy(species, night);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (int blockRow = 0; blockRow < blockRows; blockRow++) {
+                StringBuilder line = new StringBuilder();
+                for (int blockCol = 0; blockCol < blockCols; blockCol++) {
+                    if (blockCol > 0) {
+                        line.append(',');
+                    }
+                    line.append(String.format(Locale.ROOT, "%.2f", mean[blockRow * blockCols + blockCol]));
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        }
+    }
+}
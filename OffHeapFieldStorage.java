@@ -0,0 +1,386 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field storage kept outside the Java heap. The map from cells to
+ * organisms becomes one int per cell (the occupant's index in a list)
+ * instead of a hash map entry and a location key per occupant, and each
+ * cell has a fixed-size record of its occupant's primitive state: its
+ * flags (whether it is alive), location, species code and the state of
+ * its kind (age, food level and so on). The record is written when the
+ * occupant is put and its flags when it dies, so once a step is over the
+ * records hold the state every occupant ended the step in.
+ *
+ * The storage can also be a file mapped into memory, e.g. to save a world
+ * (see Field.save). The file holds a species code column and the column
+ * of records. A saved world can be reopened without reading it: the
+ * operating system pages cells in as they are touched, and an organism
+ * is only rebuilt from its record the first time it is looked up.
+ *
+ * Memory is allocated in chunks so that no buffer exceeds the 2GB
+ * limit. Memory for fields that are created every step is returned by
+ * release and reused, rather than left for the garbage collector; the
+ * released storage lets go of it first, and fails if it is used again.
+ *
+ * @version 1.0
+ */
+public class OffHeapFieldStorage implements FieldStorage {
+    private static final int MAGIC = 0x464C4432;
+    private static final int HEADER_BYTES = 12;
+    // Bytes kept per cell for the occupant's flags, location, species
+    // code and state.
+    private static final int RECORD_BYTES = 20;
+    // The flag set in a record while its occupant is alive.
+    private static final int ALIVE = 1;
+    // Cells per chunk.
+    private static final int CHUNK_SHIFT = 26;
+    private static final int CHUNK_CELLS = 1 << CHUNK_SHIFT;
+    // The most sets of chunks kept for reuse for any field size.
+    private static final int POOL_LIMIT = 4;
+
+    private static volatile boolean selected = "offheap".equals(System.getProperty("simulator.storage"));
+    // Released slot and record chunks, by number of cells.
+    private static final Map<Long, Deque<Chunks>> pool = new HashMap<>();
+
+    private final int depth, width;
+    private final long cells;
+    // One int per cell: 1 + the occupant's index in organisms, or 0.
+    // Null once released.
+    private ByteBuffer[] slots;
+    // One record per cell.
+    private ByteBuffer[] records;
+    // One species code per cell; only kept for mapped storage.
+    private ByteBuffer[] codes;
+    // The occupants, rebuilt from their records when mapped from a file.
+    private final List<Organism> organisms = new ArrayList<>();
+    // Scratch space for encoding a record.
+    private final RecordBuffer recordBytes = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+
+    /**
+     * @return true if new fields should use off-heap storage.
+     */
+    public static boolean isSelected() {
+        return selected;
+    }
+
+    /**
+     * Choose whether new fields use off-heap storage.
+     *
+     * @param offHeap true to keep new fields off the heap.
+     */
+    public static void setSelected(boolean offHeap) {
+        selected = offHeap;
+    }
+
+    /**
+     * Create anonymous off-heap storage for a field.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public OffHeapFieldStorage(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        cells = (long) depth * width;
+        Chunks reused = takeFromPool(cells);
+        if (reused != null) {
+            slots = reused.slots();
+            records = reused.records();
+            clearSlots();
+        } else {
+            slots = allocate(cells, Integer.BYTES);
+            records = allocate(cells, RECORD_BYTES);
+        }
+        codes = null;
+    }
+
+    private OffHeapFieldStorage(int depth, int width, FileChannel channel) throws IOException {
+        this.depth = depth;
+        this.width = width;
+        cells = (long) depth * width;
+        slots = allocate(cells, Integer.BYTES);
+        codes = map(channel, HEADER_BYTES, cells, 1);
+        records = map(channel, HEADER_BYTES + cells, cells, RECORD_BYTES);
+    }
+
+    /**
+     * Create a file to hold a field and map it as empty storage.
+     * Any existing file is replaced.
+     *
+     * @param file  The file to create.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return Storage backed by the file.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public static OffHeapFieldStorage create(Path file, int depth, int width) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(depth).putInt(width);
+            channel.write(header.flip(), 0);
+            return new OffHeapFieldStorage(depth, width, channel);
+        }
+    }
+
+    /**
+     * Map a file written through create.
+     *
+     * @param file The file to map.
+     * @return Storage backed by the file.
+     * @throws IOException If the file cannot be read or is not a field.
+     */
+    public static OffHeapFieldStorage open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(file + " does not hold a field");
+            }
+            return new OffHeapFieldStorage(header.getInt(), header.getInt(), channel);
+        }
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Copy the species code of every cell of mapped storage, row by row.
+     *
+     * @param speciesCodes Receives the codes.
+     */
+    public void copyCodes(byte[] speciesCodes) {
+        checkNotReleased();
+        for (int chunk = 0; chunk < codes.length; chunk++) {
+            ByteBuffer column = codes[chunk];
+            column.get(0, speciesCodes, chunk * CHUNK_CELLS, column.capacity());
+        }
+    }
+
+    @Override
+    public Organism get(Location location) {
+        checkNotReleased();
+        long cell = (long) location.row() * width + location.col();
+        int slot = slots[chunk(cell)].getInt(offset(cell) * Integer.BYTES);
+        if (slot > 0) {
+            return organisms.get(slot - 1);
+        }
+        if (codes == null || codes[chunk(cell)].get(offset(cell)) == Species.EMPTY) {
+            return null;
+        }
+        // Rebuild the occupant of a mapped cell the first time it is needed.
+        byte[] record = new byte[RECORD_BYTES];
+        records[chunk(cell)].get(offset(cell) * RECORD_BYTES, record);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            int flags = in.readByte();
+            Location recorded = new Location(in.readInt(), in.readInt());
+            if (!recorded.equals(location)) {
+                throw new IOException("record is for " + recorded);
+            }
+            Organism organism = Organism.read(in, location);
+            if ((flags & ALIVE) == 0) {
+                organism.tryKill();
+            }
+            organisms.add(organism);
+            slots[chunk(cell)].putInt(offset(cell) * Integer.BYTES, organisms.size());
+            return organism;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt record at " + location, e);
+        }
+    }
+
+    @Override
+    public void put(Location location, Organism organism) {
+        checkNotReleased();
+        long cell = (long) location.row() * width + location.col();
+        ByteBuffer slotChunk = slots[chunk(cell)];
+        int slotOffset = offset(cell) * Integer.BYTES;
+        int slot = slotChunk.getInt(slotOffset);
+        if (slot > 0) {
+            organisms.set(slot - 1, organism);
+        } else {
+            organisms.add(organism);
+            slotChunk.putInt(slotOffset, organisms.size());
+        }
+
+        recordBytes.reset();
+        try {
+            recordOut.writeByte(organism.isAlive() ? ALIVE : 0);
+            recordOut.writeInt(location.row());
+            recordOut.writeInt(location.col());
+            organism.write(recordOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (recordBytes.size() > RECORD_BYTES) {
+            throw new IllegalStateException(organism.getSpecies() + " state does not fit in a record");
+        }
+        records[chunk(cell)].put(offset(cell) * RECORD_BYTES, recordBytes.bytes(), 0, recordBytes.size());
+        if (codes != null) {
+            codes[chunk(cell)].put(offset(cell), organism.getSpecies().code());
+        }
+    }
+
+    @Override
+    public void died(Location location) {
+        checkNotReleased();
+        long cell = (long) location.row() * width + location.col();
+        int flagsOffset = offset(cell) * RECORD_BYTES;
+        ByteBuffer recordChunk = records[chunk(cell)];
+        recordChunk.put(flagsOffset, (byte) (recordChunk.get(flagsOffset) & ~ALIVE));
+    }
+
+    @Override
+    public void clear() {
+        checkNotReleased();
+        organisms.clear();
+        clearSlots();
+        if (codes != null) {
+            for (ByteBuffer column : codes) {
+                for (int i = 0; i < column.capacity(); i++) {
+                    column.put(i, Species.EMPTY);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        if (slots == null) {
+            return;
+        }
+        organisms.clear();
+        // Let go of the buffers before another field can take them, so
+        // that this storage fails if it is used again rather than
+        // reading cells that are no longer its own.
+        Chunks released = new Chunks(slots, records);
+        ByteBuffer[] mapped = codes;
+        slots = null;
+        records = null;
+        codes = null;
+        if (mapped != null) {
+            for (ByteBuffer column : mapped) {
+                ((MappedByteBuffer) column).force();
+            }
+            for (ByteBuffer column : released.records()) {
+                ((MappedByteBuffer) column).force();
+            }
+            return;
+        }
+        synchronized (pool) {
+            Deque<Chunks> free = pool.computeIfAbsent(cells, size -> new ArrayDeque<>());
+            if (free.size() < POOL_LIMIT) {
+                free.push(released);
+            }
+        }
+    }
+
+    private void checkNotReleased() {
+        if (slots == null) {
+            throw new IllegalStateException("Field storage used after it was released");
+        }
+    }
+
+    private void clearSlots() {
+        for (ByteBuffer column : slots) {
+            for (int i = 0; i < column.capacity(); i += Integer.BYTES) {
+                column.putInt(i, 0);
+            }
+        }
+    }
+
+    private static Chunks takeFromPool(long cells) {
+        synchronized (pool) {
+            Deque<Chunks> free = pool.get(cells);
+            return free == null ? null : free.poll();
+        }
+    }
+
+    /**
+     * Allocate direct buffers holding the given number of bytes per cell.
+     */
+    private static ByteBuffer[] allocate(long cells, int bytesPerCell) {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(cells)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(chunkCells(cells, i) * bytesPerCell);
+        }
+        return chunks;
+    }
+
+    /**
+     * Map a column of a file holding the given number of bytes per cell.
+     */
+    private static ByteBuffer[] map(FileChannel channel, long start, long cells, int bytesPerCell)
+            throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(cells)];
+        for (int i = 0; i < chunks.length; i++) {
+            long position = start + (long) i * CHUNK_CELLS * bytesPerCell;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                    (long) chunkCells(cells, i) * bytesPerCell);
+        }
+        return chunks;
+    }
+
+    private static int chunkCount(long cells) {
+        return (int) ((cells + CHUNK_CELLS - 1) >>> CHUNK_SHIFT);
+    }
+
+    private static int chunkCells(long cells, int chunk) {
+        return (int) Math.min(CHUNK_CELLS, cells - ((long) chunk << CHUNK_SHIFT));
+    }
+
+    private static int chunk(long cell) {
+        return (int) (cell >>> CHUNK_SHIFT);
+    }
+
+    private static int offset(long cell) {
+        return (int) (cell & (CHUNK_CELLS - 1));
+    }
+
+    /**
+     * The slot and record chunks of anonymous storage, kept for reuse.
+     */
+    private record Chunks(ByteBuffer[] slots, ByteBuffer[] records) {
+    }
+
+    /**
+     * A byte array output stream whose contents can be read without
+     * copying them.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(RECORD_BYTES);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
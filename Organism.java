@@ -1,10 +1,52 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.Random;
+
 /**
  * @author Sakibul Islam
  * @version 1.0
  */
 public abstract class Organism {
+    // For killing an organism atomically (see tryKill).
+    private static final VarHandle ALIVE;
+
+    static {
+        try {
+            ALIVE = MethodHandles.lookup().findVarHandle(Organism.class, "alive", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private boolean alive;
     private Location location;
+    // Breeding tries left until the next success, when events are
+    // scheduled (see EventCalendar); 0 until drawn.
+    private int breedingCountdown;
+    // This organism's illness in the calendar, and whether it has fallen
+    // due, when events are scheduled.
+    private EventCalendar.Entry illness;
+    private boolean ill;
+    // This organism's next successful breeding try in the calendar, and
+    // whether it has fallen due, for organisms that try on every step
+    // (see ScheduledStepEngine).
+    private EventCalendar.Entry breeding;
+    private boolean breedingDue;
+    // This organism's place in the order organisms act in when events
+    // are scheduled, and a bound that the places of all organisms before
+    // it are at or below (see ScheduledStepEngine); 0 until given one.
+    private long rank;
+    private long rankFloor;
+    // The stamp of the claim that last placed this organism in a
+    // concurrent field (see ConcurrentFieldStorage).
+    private long claimStamp;
+    // The field this organism was last placed in, which counts it in its
+    // region statistics while it is alive.
+    private Field field;
 
     /**
      * Constructor for objects of class Animal.
@@ -25,6 +67,13 @@ public abstract class Organism {
      */
     abstract public void act(Field currentField, Field nextFieldState, boolean isDay);
 
+    /**
+     * Return the species of this organism.
+     * 
+     * @return The organism's species.
+     */
+    abstract public Species getSpecies();
+
     /**
      * Check whether the animal is alive or not.
      * 
@@ -38,10 +87,36 @@ public abstract class Organism {
      * Indicate that the animal is no longer alive.
      */
     protected void setDead() {
-        alive = false;
+        // Atomic, as for tryKill, so that an organism dying of disease
+        // on one thread and eaten on another is only counted out once.
+        if (ALIVE.compareAndSet(this, true, false) && field != null && location != null) {
+            field.animalDied(this, location);
+        }
+        cancelEvents();
         location = null;
     }
 
+    /**
+     * Kill the organism if it is still alive, e.g. when it is eaten.
+     * The check and the kill are one atomic step, so when organisms act
+     * on several threads, two predators can never both eat the same prey.
+     * Unlike setDead the location is kept, since the prey may be acting
+     * on another thread at the same moment.
+     * 
+     * @return true if this call killed the organism; false if it was
+     *         already dead.
+     */
+    protected boolean tryKill() {
+        if (!ALIVE.compareAndSet(this, true, false)) {
+            return false;
+        }
+        if (field != null && location != null) {
+            field.animalDied(this, location);
+        }
+        cancelEvents();
+        return true;
+    }
+
     /**
      * Return the animal's location.
      * 
@@ -59,4 +134,278 @@ public abstract class Organism {
     protected void setLocation(Location location) {
         this.location = location;
     }
+
+    /**
+     * Decide whether a try at breeding succeeds. Normally a die is rolled
+     * for every try; when events are scheduled, the number of tries until
+     * the next success is drawn once and counted down instead, or, for an
+     * organism whose every step is a try, put in the calendar (see
+     * ScheduledStepEngine), so that this try succeeds if it has fallen due.
+     * 
+     * @param probability The chance of success on each try.
+     * @param rand        The source of randomness.
+     * @return true if this try succeeds.
+     */
+    protected boolean breedingRoll(double probability, Random rand) {
+        if (!EventCalendar.isEnabled()) {
+            return rand.nextDouble() <= probability;
+        }
+        if (isBreedingScheduled()) {
+            boolean due = breedingDue;
+            breedingDue = false;
+            return due;
+        }
+        if (breedingCountdown <= 0) {
+            breedingCountdown = EventCalendar.sampleGap(probability, rand);
+        }
+        return --breedingCountdown == 0;
+    }
+
+    /**
+     * Move towards prey that can be sensed beyond the adjacent cells, when
+     * predators sense further than them (see SpatialIndex): find the
+     * nearest prey within the sensing radius, and take the free adjacent
+     * location that brings this organism nearest to it.
+     * 
+     * @param currentField  The field the prey are in.
+     * @param freeLocations The free adjacent locations; the one taken is
+     *                      removed.
+     * @param prey          The species to look for.
+     * @return The location to move to, or null if predators only sense
+     *         the adjacent cells, no prey is sensed, or no free location
+     *         is nearer to it.
+     */
+    protected Location approachPrey(Field currentField, List<Location> freeLocations, Species... prey) {
+        int radius = SpatialIndex.getSensingRadius();
+        if (radius <= 1 || freeLocations.isEmpty()) {
+            return null;
+        }
+        Location target = currentField.findNearest(location, radius, prey);
+        if (target == null) {
+            return null;
+        }
+        Location nearest = null;
+        int nearestDistance = SpatialIndex.distance(location, target);
+        for (Location free : freeLocations) {
+            int distance = SpatialIndex.distance(free, target);
+            if (distance < nearestDistance) {
+                nearest = free;
+                nearestDistance = distance;
+            }
+        }
+        if (nearest != null) {
+            freeLocations.remove(nearest);
+        }
+        return nearest;
+    }
+
+    /**
+     * @return true if this organism's illness has been put in the calendar.
+     */
+    boolean isIllnessScheduled() {
+        return illness != null;
+    }
+
+    /**
+     * Record this organism's illness in the calendar, so that it is taken
+     * out again if the organism dies first.
+     *
+     * @param illness The event of its illness.
+     */
+    void setIllness(EventCalendar.Entry illness) {
+        this.illness = illness;
+    }
+
+    /**
+     * Take this organism's illness, if any, out of the calendar.
+     */
+    private void cancelIllness() {
+        if (illness != null) {
+            illness.cancel();
+        }
+    }
+
+    /**
+     * Take this organism's events, if any, out of the calendars.
+     */
+    private void cancelEvents() {
+        cancelIllness();
+        if (breeding != null) {
+            breeding.cancel();
+        }
+    }
+
+    /**
+     * Forget this organism's events and its place in the order, e.g. when
+     * events stop being scheduled, so that they are drawn afresh if they
+     * are scheduled again.
+     */
+    void dropEvents() {
+        cancelEvents();
+        illness = null;
+        ill = false;
+        breeding = null;
+        breedingDue = false;
+        breedingCountdown = 0;
+        rank = 0;
+        rankFloor = 0;
+    }
+
+    /**
+     * Take this organism's illness out of the calendar while it sleeps
+     * (see ActiveTiles), so that it is drawn afresh when it wakes.
+     */
+    void dropIllness() {
+        cancelIllness();
+        illness = null;
+    }
+
+    /**
+     * @return true if this organism's illness has fallen due.
+     */
+    boolean isIll() {
+        return ill;
+    }
+
+    /**
+     * Make this organism ill, so that it dies when its turn comes.
+     */
+    void setIll() {
+        ill = true;
+    }
+
+    /**
+     * @return true if this organism's next successful breeding try is in
+     *         the calendar, or has fallen due and not yet been tried.
+     */
+    boolean isBreedingScheduled() {
+        return breeding != null || breedingDue;
+    }
+
+    /**
+     * Record this organism's next successful breeding try in the calendar.
+     *
+     * @param breeding The event of the try.
+     */
+    void setBreeding(EventCalendar.Entry breeding) {
+        this.breeding = breeding;
+    }
+
+    /**
+     * Make this organism's next breeding try succeed, now that it has
+     * fallen due.
+     */
+    void setBreedingDue() {
+        breeding = null;
+        breedingDue = true;
+    }
+
+    /**
+     * @return This organism's place in the order organisms act in, or 0
+     *         if it has none yet.
+     */
+    long getRank() {
+        return rank;
+    }
+
+    /**
+     * @return A bound that the places of all organisms before this one
+     *         are at or below.
+     */
+    long getRankFloor() {
+        return rankFloor;
+    }
+
+    /**
+     * @param rank  This organism's place in the order organisms act in.
+     * @param floor A bound that the places of all organisms before it
+     *              are at or below.
+     */
+    void setRank(long rank, long floor) {
+        this.rank = rank;
+        rankFloor = floor;
+    }
+
+    /**
+     * @param floor A new, higher bound on the places of the organisms
+     *              before this one, once young are put just before it.
+     */
+    void setRankFloor(long floor) {
+        rankFloor = floor;
+    }
+
+    /**
+     * @return The stamp of the claim that last placed this organism in a
+     *         concurrent field.
+     */
+    long getClaimStamp() {
+        return claimStamp;
+    }
+
+    /**
+     * @param stamp The stamp of the claim placing this organism in a
+     *              concurrent field.
+     */
+    void setClaimStamp(long stamp) {
+        claimStamp = stamp;
+    }
+
+    /**
+     * @return The field this organism was last placed in, or null.
+     */
+    Field getField() {
+        return field;
+    }
+
+    /**
+     * @param field The field this organism has been placed in, or null.
+     */
+    void setField(Field field) {
+        this.field = field;
+    }
+
+    /**
+     * Write the organism's species and state, so that an equivalent
+     * organism can be rebuilt elsewhere with read.
+     * 
+     * @param out Where to write the organism.
+     * @throws IOException If the organism cannot be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(getSpecies().code());
+        writeState(out);
+    }
+
+    /**
+     * Rebuild an organism written by write.
+     * 
+     * @param in       Where to read the organism from.
+     * @param location The rebuilt organism's location.
+     * @return The rebuilt organism.
+     * @throws IOException If the organism cannot be read.
+     */
+    public static Organism read(DataInput in, Location location) throws IOException {
+        Organism organism = Species.fromCode(in.readByte()).create(false, location);
+        organism.readState(in);
+        return organism;
+    }
+
+    /**
+     * Write the state particular to this kind of organism, such as its
+     * age. Organisms with no state of their own need not override this.
+     * 
+     * @param out Where to write the state.
+     * @throws IOException If the state cannot be written.
+     */
+    protected void writeState(DataOutput out) throws IOException {
+    }
+
+    /**
+     * Read back the state written by writeState.
+     * 
+     * @param in Where to read the state from.
+     * @throws IOException If the state cannot be read.
+     */
+    protected void readState(DataInput in) throws IOException {
+    }
 }
@@ -0,0 +1,129 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the organisms of a step on a work-stealing thread pool. The list
+ * of organisms is split in halves until the pieces are small, and idle
+ * threads steal pieces from busy ones, so there is no partitioning of
+ * the field and no locking: organisms are placed in a concurrent field
+ * (see Field.concurrent), whose cells are claimed atomically, and prey
+ * is killed atomically (see Organism.tryKill).
+ *
+ * A contested cell goes to the organism a sequential step would have
+ * left there, but what each organism sees of the cells claimed so far
+ * depends on thread timing, so a parallel run cannot be repeated with a
+ * seed. Parallel steps can be chosen at startup with
+ * -Dsimulator.step=parallel or changed with setEnabled.
+ *
+ * @version 1.0
+ */
+public class ParallelStepEngine {
+    // Organisms acted on by one task without splitting further. Large
+    // enough that most neighbours act in the same task, and so see each
+    // other's claims in the order a sequential step would.
+    private static final int CHUNK = 4096;
+
+    private static volatile boolean enabled = "parallel".equals(System.getProperty("simulator.step"));
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an engine that runs on the common pool.
+     */
+    public ParallelStepEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an engine that runs on the given pool.
+     *
+     * @param pool The pool to run on.
+     */
+    public ParallelStepEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return true if steps should be run in parallel.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose between parallel and sequential steps.
+     *
+     * @param parallel true to run steps in parallel.
+     */
+    public static void setEnabled(boolean parallel) {
+        enabled = parallel;
+    }
+
+    /**
+     * Let each live organism act, after first giving it the chance to die
+     * of disease, as Simulator.actAll does, but in parallel.
+     *
+     * @param organisms          The organisms to act.
+     * @param field              The current state of the field.
+     * @param nextFieldState     The new state being built; a concurrent field.
+     * @param isDay              Whether it is day or night.
+     * @param diseaseProbability The chance of each organism dying of disease.
+     */
+    public void actAll(List<Organism> organisms, Field field, Field nextFieldState, boolean isDay,
+            double diseaseProbability) {
+        RandomBuffer shared = Randomizer.getBuffer();
+        shared.setThreaded(true);
+        try {
+            pool.invoke(new ActTask(organisms, 0, organisms.size(), field, nextFieldState, isDay,
+                    diseaseProbability));
+        } finally {
+            shared.setThreaded(false);
+        }
+    }
+
+    /**
+     * Act on a range of the organism list, splitting it while it is large.
+     */
+    private static class ActTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Organism> organisms;
+        private final int from, to;
+        private final Field field, nextFieldState;
+        private final boolean isDay;
+        private final double diseaseProbability;
+
+        ActTask(List<Organism> organisms, int from, int to, Field field, Field nextFieldState, boolean isDay,
+                double diseaseProbability) {
+            this.organisms = organisms;
+            this.from = from;
+            this.to = to;
+            this.field = field;
+            this.nextFieldState = nextFieldState;
+            this.isDay = isDay;
+            this.diseaseProbability = diseaseProbability;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ActTask(organisms, from, middle, field, nextFieldState, isDay, diseaseProbability),
+                        new ActTask(organisms, middle, to, field, nextFieldState, isDay, diseaseProbability));
+                return;
+            }
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            for (int i = from; i < to; i++) {
+                Organism organism = organisms.get(i);
+                ConcurrentFieldStorage.setActingOrder(i);
+                if (organism.isAlive() && rand.nextDouble() < diseaseProbability) {
+                    organism.setDead();
+                } else if (organism.isAlive()) {
+                    organism.act(field, nextFieldState, isDay);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Fills an empty field with randomly chosen organisms, a row at a time
+ * on several threads.
+ *
+ * The cumulative creation probabilities are turned into a table once,
+ * indexed by the leading bits of a sample, so choosing the outcome for a
+ * cell is a table look-up rather than a chain of comparisons. Each row
+ * draws from its own stream (see RandomBuffer.Stream), seeded from one
+ * number taken from the shared generator and the row, so the population
+ * depends only on the seed, not on how the rows were split between
+ * threads. It differs from the population a sequential populate would
+ * make for the same seed. The rows are then loaded into the field in one
+ * pass (see Field.loadOrganisms).
+ *
+ * Parallel population can be chosen at startup with
+ * -Dsimulator.populate=parallel or changed with setEnabled.
+ *
+ * @version 1.0
+ */
+public class Populator {
+    // Entries in the look-up table from a sample to its outcome.
+    private static final int TABLE_SIZE = 1 << 10;
+
+    private static volatile boolean enabled = "parallel".equals(System.getProperty("simulator.populate"));
+
+    // The cumulative probabilities, and the code chosen below each one;
+    // the last code, for samples above them all, is EMPTY.
+    private final double[] thresholds;
+    private final byte[] outcomes;
+    // The first threshold at or above the bottom of each table entry.
+    private final byte[] table;
+
+    /**
+     * Create a populator for the given species and creation probabilities.
+     *
+     * @param species       The species, in the order their probabilities
+     *                      accumulate.
+     * @param probabilities The chance of a cell holding each species.
+     */
+    public Populator(Species[] species, double[] probabilities) {
+        thresholds = new double[species.length];
+        outcomes = new byte[species.length + 1];
+        double cumulative = 0;
+        for (int i = 0; i < species.length; i++) {
+            cumulative += probabilities[i];
+            thresholds[i] = cumulative;
+            outcomes[i] = species[i].code();
+        }
+        outcomes[species.length] = Species.EMPTY;
+
+        table = new byte[TABLE_SIZE];
+        int first = 0;
+        for (int entry = 0; entry < TABLE_SIZE; entry++) {
+            double bottom = (double) entry / TABLE_SIZE;
+            while (first < thresholds.length && thresholds[first] < bottom) {
+                first++;
+            }
+            table[entry] = (byte) first;
+        }
+    }
+
+    /**
+     * @return true if fields should be populated in parallel.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose between parallel and sequential population.
+     *
+     * @param parallel true to populate fields in parallel.
+     */
+    public static void setEnabled(boolean parallel) {
+        enabled = parallel;
+    }
+
+    /**
+     * Return the species code for a sample, as the chain of comparisons
+     * in Simulator.populate would choose it.
+     *
+     * @param sample A uniform sample in [0, 1).
+     * @return The species code, or EMPTY.
+     */
+    public byte sample(double sample) {
+        int i = table[(int) (sample * TABLE_SIZE)];
+        // Only entries that straddle a threshold need to look further.
+        while (i < thresholds.length && sample > thresholds[i]) {
+            i++;
+        }
+        return outcomes[i];
+    }
+
+    /**
+     * Replace the contents of a field with a random population.
+     *
+     * @param field The field to populate.
+     * @param seed  The seed of the rows' streams.
+     */
+    public void populate(Field field, long seed) {
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        byte[] codes = new byte[depth * width];
+        List<List<Organism>> rows = new ArrayList<>(depth);
+        for (int row = 0; row < depth; row++) {
+            rows.add(null);
+        }
+
+        RandomBuffer shared = Randomizer.getBuffer();
+        shared.setThreaded(true);
+        try {
+            IntStream.range(0, depth).parallel().forEach(row -> {
+                // The organisms' own draws (e.g. their ages) come from the
+                // row's stream too.
+                RandomBuffer.Stream stream = new RandomBuffer.Stream(seed, row);
+                RandomBuffer.setThreadSource(stream);
+                try {
+                    rows.set(row, populateRow(row, width, stream, codes));
+                } finally {
+                    RandomBuffer.setThreadSource(null);
+                }
+            });
+        } finally {
+            shared.setThreaded(false);
+        }
+
+        int total = 0;
+        for (List<Organism> row : rows) {
+            total += row.size();
+        }
+        List<Organism> organisms = new ArrayList<>(total);
+        for (List<Organism> row : rows) {
+            organisms.addAll(row);
+        }
+        field.loadOrganisms(codes, organisms);
+    }
+
+    /**
+     * Choose the occupant of each cell of a row, filling in its codes.
+     *
+     * @return The row's organisms, from left to right.
+     */
+    private List<Organism> populateRow(int row, int width, RandomBuffer.Stream stream, byte[] codes) {
+        List<Organism> organisms = new ArrayList<>();
+        int cell = row * width;
+        for (int col = 0; col < width; col++) {
+            byte code = sample(stream.nextDouble());
+            codes[cell + col] = code;
+            if (code != Species.EMPTY) {
+                organisms.add(Species.fromCode(code).create(true, new Location(row, col)));
+            }
+        }
+        return organisms;
+    }
+}
@@ -0,0 +1,372 @@
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * A Random that, during a step, hands out numbers from a buffer filled
+ * up front instead of generating each one as it is asked for.
+ *
+ * Each step has its own stream, keyed by the generator's seed, the step
+ * number and the next value of the generator used outside steps, which
+ * beginStep draws. Since that generator moves on with every step (and
+ * with every draw between steps), the streams of a run that is reset
+ * differ from those of the run before, yet a run resumed from getState
+ * draws the same streams again. The stream is counter based: its i-th value is a mix of
+ * the stream's key and i, so any part of it can be filled independently
+ * of the rest. The buffer is filled in blocks, in parallel when it is
+ * large, with a straight-line loop the JIT can unroll; the numbers drawn
+ * for a step do not depend on the buffer size or the number of threads.
+ *
+ * Outside a step (from endStep to the next beginStep), or when buffering
+ * is disabled, it behaves exactly like java.util.Random, so runs without
+ * buffering repeat as before for the same seed. Buffering can be chosen
+ * at startup with -Dsimulator.random=buffered or changed with setEnabled.
+ * Random's generator is stepped here rather than in Random, so that its
+ * state can be read and restored (see getState), e.g. to checkpoint a
+ * run; it is stepped atomically, as in Random, so that it stays safe to
+ * share between threads. The buffer of a step is only for the thread
+ * running the step: a step run on several threads should call
+ * setThreaded instead, so that each thread draws from its own generator
+ * (see setThreadSource).
+ *
+ * @version 1.0
+ */
+public class RandomBuffer extends Random {
+    private static final long serialVersionUID = 1L;
+    // Values filled per block; a block is the unit of parallel work.
+    private static final int BLOCK = 1 << 14;
+    // The fewest values worth filling in parallel.
+    private static final int PARALLEL_THRESHOLD = 1 << 17;
+    // The increment of the counter, as in SplittableRandom.
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+    // The constants of Random's linear congruential generator.
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private static volatile boolean enabled = "buffered".equals(System.getProperty("simulator.random"));
+    // The generator a thread draws from while draws are threaded, if it
+    // has been given one rather than using its ThreadLocalRandom.
+    private static final ThreadLocal<Random> threadSource = new ThreadLocal<>();
+
+    // Not initialised here: Random's constructor sets them through setSeed.
+    private long baseSeed;
+    // The state of the generator used outside a step, as Random's.
+    private AtomicLong state;
+    private long streamKey;
+    private boolean active;
+    private long[] values = new long[BLOCK];
+    // Index in the step's stream of values[0].
+    private long base;
+    private int cursor;
+    private int limit;
+    private long drawn;
+    // Whether draws go to each thread's own generator.
+    private volatile boolean threaded;
+
+    /**
+     * Create a generator with an unpredictable seed.
+     */
+    public RandomBuffer() {
+        super();
+    }
+
+    /**
+     * Create a generator with the given seed.
+     *
+     * @param seed The seed.
+     */
+    public RandomBuffer(long seed) {
+        super(seed);
+    }
+
+    /**
+     * @return true if steps should draw from a buffer.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose between buffered and direct generation during steps.
+     *
+     * @param buffered true to fill a buffer for each step.
+     */
+    public static void setEnabled(boolean buffered) {
+        enabled = buffered;
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        baseSeed = seed;
+        if (state == null) {
+            state = new AtomicLong();
+        }
+        state.set((seed ^ MULTIPLIER) & MASK);
+        active = false;
+    }
+
+    /**
+     * @return The seed last set, from which each step's stream is drawn.
+     */
+    public long getSeed() {
+        return baseSeed;
+    }
+
+    /**
+     * @return The state of the generator used outside a step.
+     */
+    public long getState() {
+        return state.get();
+    }
+
+    /**
+     * Put the generator back as it was when getSeed and getState were
+     * read, so that it goes on to draw the same numbers.
+     *
+     * @param seed  The seed, from getSeed.
+     * @param state The state, from getState.
+     */
+    public synchronized void restore(long seed, long state) {
+        baseSeed = seed;
+        this.state.set(state & MASK);
+        active = false;
+    }
+
+    /**
+     * Start drawing from the stream for a step, filling the buffer with
+     * about as many values as the step is expected to use. This draws
+     * one value from the generator used outside steps, for the key.
+     *
+     * @param step     The step number.
+     * @param expected The number of values the step is expected to draw.
+     */
+    public void beginStep(int step, int expected) {
+        streamKey = mix(baseSeed ^ mix(step * GOLDEN_GAMMA) ^ mix(advance()));
+        int blocks = Math.max(1, (expected + BLOCK - 1) / BLOCK);
+        if (values.length < blocks * BLOCK) {
+            values = new long[blocks * BLOCK];
+        }
+        base = 0;
+        drawn = 0;
+        fill(values.length);
+        active = true;
+    }
+
+    /**
+     * Stop drawing from the buffer, going back to direct generation.
+     */
+    public void endStep() {
+        active = false;
+    }
+
+    /**
+     * Send draws to each calling thread's own generator, rather than the
+     * buffer or the shared seed, while a step runs on several threads.
+     * Draws made this way cannot be repeated with a seed.
+     *
+     * @param perThread true while a step runs on several threads.
+     */
+    public void setThreaded(boolean perThread) {
+        threaded = perThread;
+    }
+
+    /**
+     * Choose the generator the calling thread draws from while draws are
+     * threaded, e.g. a Stream, so that work split across threads can
+     * still be repeated with a seed.
+     *
+     * @param source The generator, or null for the thread's
+     *               ThreadLocalRandom.
+     */
+    public static void setThreadSource(Random source) {
+        if (source == null) {
+            threadSource.remove();
+        } else {
+            threadSource.set(source);
+        }
+    }
+
+    private static Random threadRandom() {
+        Random source = threadSource.get();
+        return source != null ? source : ThreadLocalRandom.current();
+    }
+
+    /**
+     * @return true if a step is drawing from the buffer.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return The number of values drawn from the buffer since the last
+     *         beginStep.
+     */
+    public long getDrawn() {
+        return drawn;
+    }
+
+    /**
+     * Take the next count uniform doubles in [0, 1) in one go, e.g. for
+     * a pass that makes one roll per organism.
+     *
+     * @param into  Receives the doubles.
+     * @param count The number wanted.
+     */
+    public void nextDoubles(double[] into, int count) {
+        if (!active) {
+            for (int i = 0; i < count; i++) {
+                into[i] = nextDouble();
+            }
+            return;
+        }
+        int done = 0;
+        while (done < count) {
+            if (cursor == limit) {
+                refill();
+            }
+            int n = Math.min(count - done, limit - cursor);
+            long[] v = values;
+            int from = cursor;
+            for (int i = 0; i < n; i++) {
+                into[done + i] = (v[from + i] >>> 11) * DOUBLE_UNIT;
+            }
+            cursor += n;
+            done += n;
+        }
+        drawn += count;
+    }
+
+    @Override
+    public double nextDouble() {
+        if (threaded) {
+            return threadRandom().nextDouble();
+        }
+        if (!active) {
+            return super.nextDouble();
+        }
+        return (take() >>> 11) * DOUBLE_UNIT;
+    }
+
+    @Override
+    protected int next(int bits) {
+        if (threaded) {
+            return threadRandom().nextInt() >>> (32 - bits);
+        }
+        if (!active) {
+            return (int) (advance() >>> (48 - bits));
+        }
+        return (int) (take() >>> (64 - bits));
+    }
+
+    /**
+     * Step the generator used outside a step, as Random does.
+     *
+     * @return The new state.
+     */
+    private long advance() {
+        long current;
+        long next;
+        do {
+            current = state.get();
+            next = (current * MULTIPLIER + ADDEND) & MASK;
+        } while (!state.compareAndSet(current, next));
+        return next;
+    }
+
+    private long take() {
+        if (cursor == limit) {
+            refill();
+        }
+        drawn++;
+        return values[cursor++];
+    }
+
+    /**
+     * Move on to the next part of the step's stream once the buffer has
+     * been used up.
+     */
+    private void refill() {
+        base += limit;
+        fill(values.length);
+    }
+
+    /**
+     * Fill the first count values with the stream from base.
+     */
+    private void fill(int count) {
+        long[] v = values;
+        long key = streamKey;
+        long start = base;
+        int blocks = count / BLOCK;
+        if (count >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, blocks).parallel()
+                    .forEach(b -> fillBlock(v, b * BLOCK, key, start + (long) b * BLOCK));
+        } else {
+            for (int b = 0; b < blocks; b++) {
+                fillBlock(v, b * BLOCK, key, start + (long) b * BLOCK);
+            }
+        }
+        cursor = 0;
+        limit = count;
+    }
+
+    private static void fillBlock(long[] v, int offset, long key, long index) {
+        long z = key + (index + 1) * GOLDEN_GAMMA;
+        for (int i = 0; i < BLOCK; i++) {
+            v[offset + i] = mix(z + i * GOLDEN_GAMMA);
+        }
+    }
+
+    /**
+     * A counter-based stream like a step's, as a Random: seeded from a
+     * seed and an index (e.g. a row of the field), its values depend only
+     * on those two, so streams for different indices can be drawn on
+     * different threads and still repeat. Not thread safe.
+     */
+    public static class Stream extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private final long key;
+        private long counter;
+
+        /**
+         * Create the stream for an index.
+         *
+         * @param seed  The seed shared by the streams.
+         * @param index Which stream.
+         */
+        public Stream(long seed, long index) {
+            super(0);
+            key = mix(seed ^ mix(index * GOLDEN_GAMMA));
+        }
+
+        @Override
+        public double nextDouble() {
+            return (nextLong() >>> 11) * DOUBLE_UNIT;
+        }
+
+        @Override
+        public long nextLong() {
+            return mix(key + ++counter * GOLDEN_GAMMA);
+        }
+
+        @Override
+        protected int next(int bits) {
+            return (int) (nextLong() >>> (64 - bits));
+        }
+    }
+
+    /**
+     * The 64-bit finaliser used by SplittableRandom.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -7,9 +7,29 @@ import java.util.Random;
  * @version 1.0
  */
 public class Randomizer {
-    private static final Random rand = new Random();
+    private static final RandomBuffer rand = new RandomBuffer();
 
     public static Random getRandom() {
         return rand;
     }
+
+    /**
+     * Return the shared generator as a RandomBuffer, so that a step can
+     * draw its numbers from a buffer filled up front.
+     * 
+     * @return The shared generator.
+     */
+    public static RandomBuffer getBuffer() {
+        return rand;
+    }
+
+    /**
+     * Reseed the shared random number generator, so that a run can be
+     * repeated.
+     * 
+     * @param seed The new seed.
+     */
+    public static void setSeed(long seed) {
+        rand.setSeed(seed);
+    }
 }
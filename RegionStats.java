@@ -0,0 +1,258 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Counts of the live organisms of each species in every block of a
+ * field, where a block is a square of cells. The field keeps the counts
+ * up to date as organisms are placed in it and die, so the density of a
+ * region can be read without scanning its cells, and a whole grid of
+ * counts costs O(blocks) rather than O(cells) to read.
+ *
+ * Counts are kept species by species, each as a row-major grid of
+ * blocks, so they can be read straight into a heatmap.
+ *
+ * The counts of a field whose organisms act on several threads are
+ * shared: organisms on different threads can die at once, so add and
+ * remove then update a count atomically. Other counts are updated
+ * plainly, which is cheaper.
+ *
+ * @version 1.0
+ */
+public class RegionStats {
+    // The side of a block in cells, unless another is asked for.
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+    // For updating a count atomically (see add and remove).
+    private static final VarHandle COUNT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int depth, width;
+    private final int blockSize;
+    private final int blockRows, blockCols;
+    // The count for (code, block) is at code * blocks + block.
+    private final int[] counts;
+    // Whether several threads may add and remove at once.
+    private final boolean shared;
+
+    /**
+     * Create empty counts for a field.
+     *
+     * @param depth     The depth of the field.
+     * @param width     The width of the field.
+     * @param blockSize The side of a block in cells.
+     */
+    public RegionStats(int depth, int width, int blockSize) {
+        this(depth, width, blockSize, false);
+    }
+
+    /**
+     * Create empty counts for a field, which several threads may update
+     * at once if they are shared.
+     *
+     * @param depth     The depth of the field.
+     * @param width     The width of the field.
+     * @param blockSize The side of a block in cells.
+     * @param shared    true if several threads may add and remove at
+     *                  once.
+     */
+    public RegionStats(int depth, int width, int blockSize, boolean shared) {
+        this.shared = shared;
+        this.depth = depth;
+        this.width = width;
+        this.blockSize = blockSize;
+        blockRows = (depth + blockSize - 1) / blockSize;
+        blockCols = (width + blockSize - 1) / blockSize;
+        counts = new int[GridKernels.CODES * blockRows * blockCols];
+    }
+
+    /**
+     * Count an organism of a species arriving at a cell.
+     *
+     * @param code The species code.
+     * @param row  The cell's row.
+     * @param col  The cell's column.
+     */
+    public void add(byte code, int row, int col) {
+        int index = code * blocks() + block(row, col);
+        if (shared) {
+            COUNT.getAndAdd(counts, index, 1);
+        } else {
+            counts[index]++;
+        }
+    }
+
+    /**
+     * Stop counting an organism of a species at a cell.
+     *
+     * @param code The species code.
+     * @param row  The cell's row.
+     * @param col  The cell's column.
+     */
+    public void remove(byte code, int row, int col) {
+        int index = code * blocks() + block(row, col);
+        if (shared) {
+            COUNT.getAndAdd(counts, index, -1);
+        } else {
+            counts[index]--;
+        }
+    }
+
+    /**
+     * Count a number of organisms of a species in a block at once.
+     *
+     * @param code     The species code.
+     * @param blockRow The block's row.
+     * @param blockCol The block's column.
+     * @param count    The number of organisms.
+     */
+    public void addToBlock(byte code, int blockRow, int blockCol, int count) {
+        int index = code * blocks() + blockRow * blockCols + blockCol;
+        if (shared) {
+            COUNT.getAndAdd(counts, index, count);
+        } else {
+            counts[index] += count;
+        }
+    }
+
+    /**
+     * Recount every block from a species code grid.
+     *
+     * @param codes The species code grid (see Field.getSpeciesCodes).
+     */
+    public void rebuild(byte[] codes) {
+        clear();
+        int blocks = blocks();
+        for (int row = 0; row < depth; row++) {
+            int blockBase = (row / blockSize) * blockCols;
+            int cell = row * width;
+            for (int col = 0; col < width; col++) {
+                byte code = codes[cell + col];
+                if (code != Species.EMPTY) {
+                    counts[code * blocks + blockBase + col / blockSize]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a copy of the counts as they are now, which does not change
+     * with the field, e.g. for the view to read on another thread while
+     * the simulation goes on. Costs O(blocks).
+     *
+     * @return The copy.
+     */
+    public RegionStats copy() {
+        RegionStats copy = new RegionStats(depth, width, blockSize);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        return copy;
+    }
+
+    /**
+     * Reset every count to zero.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Return the number of organisms of a species in a block.
+     *
+     * @param species  The species.
+     * @param blockRow The block's row.
+     * @param blockCol The block's column.
+     * @return The count.
+     */
+    public int getCount(Species species, int blockRow, int blockCol) {
+        return counts[species.code() * blocks() + blockRow * blockCols + blockCol];
+    }
+
+    /**
+     * Return the number of organisms of a species in a rectangle of
+     * blocks.
+     *
+     * @param species  The species.
+     * @param fromRow  The first block row.
+     * @param fromCol  The first block column.
+     * @param toRow    The block row after the last one.
+     * @param toCol    The block column after the last one.
+     * @return The count.
+     */
+    public int countInBlocks(Species species, int fromRow, int fromCol, int toRow, int toCol) {
+        int base = species.code() * blocks();
+        int total = 0;
+        for (int blockRow = Math.max(0, fromRow); blockRow < Math.min(blockRows, toRow); blockRow++) {
+            int rowBase = base + blockRow * blockCols;
+            for (int blockCol = Math.max(0, fromCol); blockCol < Math.min(blockCols, toCol); blockCol++) {
+                total += counts[rowBase + blockCol];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Return the fraction of a block's cells held by a species.
+     *
+     * @param species  The species.
+     * @param blockRow The block's row.
+     * @param blockCol The block's column.
+     * @return The density, from 0 to 1.
+     */
+    public double getDensity(Species species, int blockRow, int blockCol) {
+        int rows = Math.min(blockSize, depth - blockRow * blockSize);
+        int cols = Math.min(blockSize, width - blockCol * blockSize);
+        return (double) getCount(species, blockRow, blockCol) / (rows * cols);
+    }
+
+    /**
+     * Add every block's count for each species to a running total, e.g.
+     * for a heatmap. Costs O(blocks).
+     *
+     * @param totals Receives the counts, laid out as getCounts; its
+     *               length must be getCounts().length.
+     */
+    public void addTo(long[] totals) {
+        for (int i = 0; i < counts.length; i++) {
+            totals[i] += counts[i];
+        }
+    }
+
+    /**
+     * Return the counts themselves: the count for a species in block
+     * (blockRow, blockCol) is at
+     * code * blockRows * blockCols + blockRow * blockCols + blockCol.
+     * The array must not be modified.
+     *
+     * @return The counts.
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return The side of a block in cells.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return The number of rows of blocks.
+     */
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    /**
+     * @return The number of columns of blocks.
+     */
+    public int getBlockCols() {
+        return blockCols;
+    }
+
+    private int blocks() {
+        return blockRows * blockCols;
+    }
+
+    private int block(int row, int col) {
+        return (row / blockSize) * blockCols + col / blockSize;
+    }
+}
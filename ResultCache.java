@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A cache on disk of the results of headless runs, so that a run that has
+ * been made before does not have to be made again. A run is a field size,
+ * a mix of species, a seed and a number of steps; its result is its trace,
+ * the population of each species after populating and after every step,
+ * in the format of ScenarioSuite's traces.
+ *
+ * Each entry is kept under a hash of the run's configuration (everything
+ * but the number of steps, together with the modes that change what a
+ * seed produces) and of the code of the classes that decide how a run
+ * goes, so that changing either misses rather than returning a stale
+ * result. An entry holds the trace and a checkpoint of the run's final
+ * state (see Simulator.saveCheckpoint):
+ * - a run of no more steps than an entry's is answered from its trace
+ *   without simulating;
+ * - a longer run carries on from the checkpoint rather than starting
+ *   again at step 0, and then replaces the entry.
+ *
+ * When the entries take more than the size limit, the least recently used
+ * are deleted. Runs with parallel steps cannot be repeated with a seed,
+ * so they are made without the cache; runs with scheduled illness or
+ * tracked activity are cached but are not carried on from a checkpoint,
+ * as their checkpoints do not hold all of their state.
+ *
+ * Usage: java ResultCache directory depth width steps seed [mix...]
+ * prints the trace of a run with the given mix (Species order; the
+ * default mix if none is given), through a cache in the directory.
+ *
+ * @version 1.0
+ */
+public class ResultCache {
+    // The size limit, unless another is chosen.
+    public static final long DEFAULT_MAX_BYTES = 1L << 30;
+    private static final String TRACE_FILE = "trace.csv";
+    private static final String CHECKPOINT_DIRECTORY = "checkpoint";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final double[] DEFAULT_MIX = { 0.02, 0.02, 0.08, 0.1, 0.05, 0.15 };
+    // The classes whose code decides how a run goes.
+    private static final List<Class<?>> MODEL_CLASSES = List.of(Simulator.class, Field.class, FieldStorage.class,
+            HeapFieldStorage.class, OffHeapFieldStorage.class, RegionStats.class, Location.class,
+            Organism.class, Shark.class, Barracuda.class, Tuna.class, Sardine.class, Jellyfish.class,
+            Algae.class, Species.class, Populator.class, Randomizer.class, RandomBuffer.class,
+            RandomBuffer.Stream.class, GridKernels.class, EventCalendar.class, ActiveTiles.class,
+            SpatialIndex.class, UpdateOrder.class, MortonFieldStorage.class);
+
+    private static String codeVersion;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * A run: a field size, a mix of species, a seed and a number of steps.
+     *
+     * @param mix The creation probability of each species, in Species
+     *            order.
+     */
+    public record Run(int depth, int width, double[] mix, long seed, int steps) {
+    }
+
+    /**
+     * How a run's result was found.
+     */
+    public enum Outcome {
+        // Read from an entry without simulating.
+        HIT,
+        // Carried on from an entry's checkpoint.
+        EXTENDED,
+        // Simulated from step 0, and cached.
+        MISS,
+        // Simulated from step 0, and not cached.
+        UNCACHED
+    }
+
+    /**
+     * A run's trace, and how it was found.
+     *
+     * @param trace   The population of each species, in Species order,
+     *                after populating and after every step.
+     * @param outcome How the trace was found.
+     */
+    public record Result(List<int[]> trace, Outcome outcome) {
+    }
+
+    /**
+     * Create a cache in a directory, with the default size limit.
+     *
+     * @param directory The directory, created if need be.
+     */
+    public ResultCache(Path directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a cache in a directory.
+     *
+     * @param directory The directory, created if need be.
+     * @param maxBytes  The most the entries may take on disk before the
+     *                  least recently used are deleted.
+     */
+    public ResultCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        double[] mix = DEFAULT_MIX.clone();
+        for (int i = 5; i < args.length && i - 5 < mix.length; i++) {
+            mix[i - 5] = Double.parseDouble(args[i]);
+        }
+        Run run = new Run(Integer.parseInt(args[1]), Integer.parseInt(args[2]), mix, Long.parseLong(args[4]),
+                Integer.parseInt(args[3]));
+        long start = System.nanoTime();
+        Result result = new ResultCache(Paths.get(args[0])).run(run);
+        double millis = (System.nanoTime() - start) / 1e6;
+        for (int step = 0; step < result.trace().size(); step++) {
+            StringBuilder line = new StringBuilder().append(step);
+            for (int count : result.trace().get(step)) {
+                line.append(',').append(count);
+            }
+            System.out.println(line);
+        }
+        System.out.printf("%s in %.1f ms%n", result.outcome(), millis);
+    }
+
+    /**
+     * Return the trace of a run, from the cache if it can be.
+     *
+     * @param run The run.
+     * @return Its trace, and how it was found.
+     * @throws IOException If the cache cannot be read or written.
+     */
+    public synchronized Result run(Run run) throws IOException {
+        if (ParallelStepEngine.isEnabled()) {
+            return new Result(simulate(run, null, null, null), Outcome.UNCACHED);
+        }
+        Path entry = directory.resolve(key(run));
+        List<int[]> cached = Files.exists(entry.resolve(TRACE_FILE)) ? readTrace(entry.resolve(TRACE_FILE)) : null;
+        if (cached != null && cached.size() > run.steps()) {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Result(new ArrayList<>(cached.subList(0, run.steps() + 1)), Outcome.HIT);
+        }
+
+        boolean resume = cached != null && !EventCalendar.isEnabled() && !ActiveTiles.isEnabled();
+        Files.createDirectories(directory);
+        Path partial = directory.resolve(entry.getFileName() + PARTIAL_SUFFIX);
+        delete(partial);
+        List<int[]> trace = simulate(run, resume ? cached : null, entry, partial);
+        delete(entry);
+        Files.move(partial, entry, StandardCopyOption.ATOMIC_MOVE);
+        evict(entry);
+        return new Result(trace, resume ? Outcome.EXTENDED : Outcome.MISS);
+    }
+
+    /**
+     * @return The space the entries take on disk, in bytes.
+     * @throws IOException If the cache cannot be read.
+     */
+    public synchronized long getBytesUsed() throws IOException {
+        long total = 0;
+        for (Path entry : entries()) {
+            total += size(entry);
+        }
+        return total;
+    }
+
+    /**
+     * Make a run, optionally carrying on from an entry, and optionally
+     * writing a new entry.
+     *
+     * @param run    The run.
+     * @param cached The entry's trace, to carry on from its checkpoint;
+     *               or null to start at step 0.
+     * @param from   The entry, if carrying on from it.
+     * @param into   The directory to write the new entry in, or null.
+     * @return The run's trace.
+     */
+    private List<int[]> simulate(Run run, List<int[]> cached, Path from, Path into) throws IOException {
+        PrintStream out = System.out;
+        // The simulator reports every step; a cached run should be quiet.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Randomizer.setSeed(run.seed());
+            Simulator simulator = new Simulator(run.depth(), run.width(), false,
+                    new Populator(Species.values(), run.mix()));
+            List<int[]> trace = new ArrayList<>();
+            if (cached != null) {
+                simulator.restoreCheckpoint(from.resolve(CHECKPOINT_DIRECTORY));
+                trace.addAll(cached);
+            } else {
+                trace.add(ScenarioSuite.populations(simulator.getField()));
+            }
+            simulator.addStepListener((step, field, isDay) -> trace.add(ScenarioSuite.populations(field)));
+            while (simulator.getStep() < run.steps()) {
+                simulator.simulateOneStep(false);
+            }
+            if (into != null) {
+                Files.createDirectories(into);
+                simulator.saveCheckpoint(into.resolve(CHECKPOINT_DIRECTORY));
+                ScenarioSuite.writeTrace(into.resolve(TRACE_FILE), trace);
+            }
+            simulator.getField().release();
+            return trace;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Delete the least recently used entries, other than the one just
+     * written, while the entries take more than the size limit.
+     */
+    private void evict(Path keep) throws IOException {
+        List<Path> entries = entries();
+        long total = 0;
+        for (Path entry : entries) {
+            total += size(entry);
+        }
+        entries.sort(Comparator.comparing(ResultCache::lastUsed));
+        for (Path entry : entries) {
+            if (total <= maxBytes) {
+                return;
+            }
+            if (!entry.equals(keep)) {
+                total -= size(entry);
+                delete(entry);
+            }
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return entries;
+        }
+        try (Stream<Path> children = Files.list(directory)) {
+            children.filter(child -> Files.isDirectory(child) && !child.getFileName().toString()
+                    .endsWith(PARTIAL_SUFFIX)).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long size(Path entry) throws IOException {
+        try (Stream<Path> files = Files.walk(entry)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static List<int[]> readTrace(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<int[]> trace = new ArrayList<>(lines.size());
+        // Skip the header.
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            int[] counts = new int[fields.length - 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Integer.parseInt(fields[i + 1]);
+            }
+            trace.add(counts);
+        }
+        return trace;
+    }
+
+    /**
+     * @return The name of a run's entry: a hash of its configuration, the
+     *         modes that change what a seed produces, and the code version.
+     */
+    static String key(Run run) {
+        StringBuilder config = new StringBuilder();
+        config.append(run.depth()).append('x').append(run.width()).append(";seed=").append(run.seed())
+                .append(";mix=");
+        for (double probability : run.mix()) {
+            config.append(Double.toHexString(probability)).append(',');
+        }
+        config.append(';').append(modes()).append(";code=").append(codeVersion());
+        return HexFormat.of().formatHex(sha256(config.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return The modes selected now that change what a seed produces,
+     *         as name=value pairs separated by semicolons.
+     */
+    static String modes() {
+        return "random=" + (RandomBuffer.isEnabled() ? "buffered" : "direct")
+                + ";events=" + EventCalendar.isEnabled()
+                + ";activity=" + ActiveTiles.isEnabled()
+                + ";sensing=" + SpatialIndex.getSensingRadius()
+                + ";order=" + UpdateOrder.getSelected();
+    }
+
+    /**
+     * @return A hash of the class files of the classes that decide how a
+     *         run goes, so that a rebuilt simulation misses old entries.
+     */
+    static synchronized String codeVersion() {
+        if (codeVersion == null) {
+            MessageDigest digest = newDigest();
+            for (Class<?> model : MODEL_CLASSES) {
+                String name = model.getName();
+                String resource = name.substring(name.lastIndexOf('.') + 1) + ".class";
+                try (InputStream in = model.getResourceAsStream(resource)) {
+                    if (in == null) {
+                        throw new IllegalStateException("No class file for " + name);
+                    }
+                    digest.update(in.readAllBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            codeVersion = HexFormat.of().formatHex(digest.digest());
+        }
+        return codeVersion;
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        return newDigest().digest(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
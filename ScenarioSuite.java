@@ -0,0 +1,293 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End-to-end scenarios for catching slowdowns that the microbenchmarks in
+ * Benchmarks miss. Each scenario runs the whole simulation headless, from
+ * a fixed seed, for a fixed number of steps, on a field from 80x120 to
+ * 4000x4000 with a given mix of species, and records:
+ * - steps per second, not counting populating the field;
+ * - peak heap use, summed over the heap's memory pools;
+ * - allocation rate, from the bytes allocated by the live threads;
+ * - the population of each species after every step (its trace).
+ *
+ * Results are compared with a stored baseline, and the suite fails if a
+ * scenario is slower, or uses more heap or allocates faster, than the
+ * baseline by more than a threshold. A trace that differs from the
+ * baseline's is reported, with the first step where it differs, so a
+ * speed change that also changed behaviour shows up.
+ *
+ * Usage: java ScenarioSuite directory [record]
+ * writes directory/latest/results.csv and a trace per scenario, compares
+ * them with directory/baseline, and exits with status 1 on a regression.
+ * With record, the results become the new baseline instead. The largest
+ * scenario needs a big heap, e.g. -Xmx12g.
+ *
+ * @version 1.0
+ */
+public class ScenarioSuite {
+    // The largest fall in steps per second, and rises in peak heap and
+    // allocation rate, allowed before a scenario fails, as fractions of
+    // the baseline.
+    private static final double MAX_SLOWDOWN = 0.15;
+    private static final double MAX_HEAP_GROWTH = 0.25;
+    private static final double MAX_ALLOCATION_GROWTH = 0.25;
+    private static final String RESULTS_FILE = "results.csv";
+    private static final String TRACE_SUFFIX = "-trace.csv";
+
+    // Creation probabilities for each species, in Species order.
+    private static final double[] DEFAULT_MIX = { 0.02, 0.02, 0.08, 0.1, 0.05, 0.15 };
+    private static final double[] PREDATOR_HEAVY_MIX = { 0.08, 0.08, 0.06, 0.08, 0.03, 0.12 };
+    private static final double[] ALGAE_SATURATED_MIX = { 0.01, 0.01, 0.04, 0.05, 0.02, 0.6 };
+
+    private static final List<Scenario> SCENARIOS = List.of(
+            new Scenario("default-80x120", 80, 120, DEFAULT_MIX, 11, 500),
+            new Scenario("predators-80x120", 80, 120, PREDATOR_HEAVY_MIX, 12, 500),
+            new Scenario("algae-80x120", 80, 120, ALGAE_SATURATED_MIX, 13, 500),
+            new Scenario("default-500x500", 500, 500, DEFAULT_MIX, 21, 50),
+            new Scenario("predators-1000x1000", 1000, 1000, PREDATOR_HEAVY_MIX, 22, 20),
+            new Scenario("algae-1000x1000", 1000, 1000, ALGAE_SATURATED_MIX, 23, 20),
+            new Scenario("default-4000x4000", 4000, 4000, DEFAULT_MIX, 31, 3));
+
+    /**
+     * A fixed run: a field size, a mix of species, a seed and a number of
+     * steps.
+     */
+    record Scenario(String name, int depth, int width, double[] mix, long seed, int steps) {
+    }
+
+    /**
+     * What a scenario measured.
+     */
+    record Result(String name, double stepsPerSecond, double peakHeapMb, double allocationMbPerSecond) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args[0]);
+        boolean record = args.length > 1 && "record".equals(args[1]);
+        Path latest = directory.resolve("latest");
+        Path baseline = directory.resolve("baseline");
+        Files.createDirectories(latest);
+
+        // Run the smallest scenario once first, so the JIT has warmed up.
+        run(SCENARIOS.get(0), new ArrayList<>());
+        List<Result> results = new ArrayList<>();
+        for (Scenario scenario : SCENARIOS) {
+            List<int[]> trace = new ArrayList<>();
+            results.add(run(scenario, trace));
+            writeTrace(latest.resolve(scenario.name() + TRACE_SUFFIX), trace);
+        }
+        writeResults(latest.resolve(RESULTS_FILE), results);
+
+        if (record) {
+            Files.createDirectories(baseline);
+            writeResults(baseline.resolve(RESULTS_FILE), results);
+            for (Scenario scenario : SCENARIOS) {
+                Files.copy(latest.resolve(scenario.name() + TRACE_SUFFIX),
+                        baseline.resolve(scenario.name() + TRACE_SUFFIX),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            System.out.println("Recorded the baseline in " + baseline);
+            return;
+        }
+        if (!Files.exists(baseline.resolve(RESULTS_FILE))) {
+            System.out.println("No baseline in " + baseline + "; run with record to make one.");
+            return;
+        }
+        if (!compare(results, readResults(baseline.resolve(RESULTS_FILE)), latest, baseline)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run a scenario, measuring it and recording its trace.
+     *
+     * @param scenario The scenario.
+     * @param trace    Receives the population of each species, in Species
+     *                 order, after populating and after every step.
+     * @return The measurements.
+     */
+    static Result run(Scenario scenario, List<int[]> trace) {
+        PrintStream out = System.out;
+        // The simulator reports every step; keep the suite's output readable.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            System.gc();
+            List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                    heapPools.add(pool);
+                }
+            }
+
+            Randomizer.setSeed(scenario.seed());
+            Simulator simulator = new Simulator(scenario.depth(), scenario.width(), false,
+                    new Populator(Species.values(), scenario.mix()));
+            trace.add(populations(simulator.getField()));
+            simulator.addStepListener((step, field, isDay) -> trace.add(populations(field)));
+
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int step = 0; step < scenario.steps(); step++) {
+                simulator.simulateOneStep();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long allocated = allocatedBytes() - allocatedBefore;
+
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : heapPools) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+            simulator.getField().release();
+            return new Result(scenario.name(), scenario.steps() / seconds, peakHeap / 1e6, allocated / 1e6 / seconds);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Compare results with the baseline, printing each scenario's
+     * measurements and any regressions or changes of behaviour.
+     *
+     * @return true if no scenario regressed past a threshold.
+     */
+    private static boolean compare(List<Result> results, Map<String, Result> baselineResults, Path latest,
+            Path baseline) throws IOException {
+        boolean passed = true;
+        System.out.printf("%-20s %21s %21s %21s%n", "scenario", "steps/s (baseline)", "peak MB (baseline)",
+                "alloc MB/s (baseline)");
+        for (Result result : results) {
+            Result base = baselineResults.get(result.name());
+            if (base == null) {
+                System.out.printf("%-20s %10.1f %10s %10.1f %10s %10.1f %10s  not in baseline%n", result.name(),
+                        result.stepsPerSecond(), "", result.peakHeapMb(), "", result.allocationMbPerSecond(), "");
+                continue;
+            }
+            List<String> problems = new ArrayList<>();
+            if (result.stepsPerSecond() < base.stepsPerSecond() * (1 - MAX_SLOWDOWN)) {
+                problems.add("slower");
+            }
+            if (result.peakHeapMb() > base.peakHeapMb() * (1 + MAX_HEAP_GROWTH)) {
+                problems.add("more heap");
+            }
+            if (result.allocationMbPerSecond() > base.allocationMbPerSecond() * (1 + MAX_ALLOCATION_GROWTH)) {
+                problems.add("allocates faster");
+            }
+            passed &= problems.isEmpty();
+
+            String traceName = result.name() + TRACE_SUFFIX;
+            int differsAt = firstDifference(latest.resolve(traceName), baseline.resolve(traceName));
+            String behaviour = differsAt < 0 ? "" : "; populations differ from step " + differsAt;
+            System.out.printf("%-20s %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f  %s%s%n", result.name(),
+                    result.stepsPerSecond(), base.stepsPerSecond(), result.peakHeapMb(), base.peakHeapMb(),
+                    result.allocationMbPerSecond(), base.allocationMbPerSecond(),
+                    problems.isEmpty() ? "ok" : "REGRESSION: " + String.join(", ", problems), behaviour);
+        }
+        return passed;
+    }
+
+    /**
+     * @return The number of live organisms of each species, in Species
+     *         order.
+     */
+    static int[] populations(Field field) {
+        RegionStats stats = field.getRegionStats();
+        Species[] species = Species.values();
+        int[] counts = new int[species.length];
+        for (int i = 0; i < species.length; i++) {
+            counts[i] = stats.countInBlocks(species[i], 0, 0, stats.getBlockRows(), stats.getBlockCols());
+        }
+        return counts;
+    }
+
+    /**
+     * @return The bytes allocated so far by the live threads.
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    static void writeTrace(Path file, List<int[]> trace) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            StringBuilder header = new StringBuilder("step");
+            for (Species species : Species.values()) {
+                header.append(',').append(species.organismClass().getSimpleName());
+            }
+            out.write(header.toString());
+            out.newLine();
+            for (int step = 0; step < trace.size(); step++) {
+                StringBuilder line = new StringBuilder().append(step);
+                for (int count : trace.get(step)) {
+                    line.append(',').append(count);
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return The first step at which two traces differ, or -1 if they
+     *         are the same or the baseline has none.
+     */
+    private static int firstDifference(Path trace, Path baselineTrace) throws IOException {
+        if (!Files.exists(baselineTrace)) {
+            return -1;
+        }
+        List<String> lines = Files.readAllLines(trace);
+        List<String> baselineLines = Files.readAllLines(baselineTrace);
+        // Skip the header.
+        for (int i = 1; i < Math.max(lines.size(), baselineLines.size()); i++) {
+            if (i >= lines.size() || i >= baselineLines.size() || !lines.get(i).equals(baselineLines.get(i))) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeResults(Path file, List<Result> results) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("scenario,stepsPerSecond,peakHeapMb,allocationMbPerSecond");
+            out.newLine();
+            for (Result result : results) {
+                out.write(String.format(Locale.ROOT, "%s,%.2f,%.2f,%.2f", result.name(), result.stepsPerSecond(),
+                        result.peakHeapMb(), result.allocationMbPerSecond()));
+                out.newLine();
+            }
+        }
+    }
+
+    private static Map<String, Result> readResults(Path file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            results.put(fields[0], new Result(fields[0], Double.parseDouble(fields[1]),
+                    Double.parseDouble(fields[2]), Double.parseDouble(fields[3])));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,479 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the organisms of a step when rare events are scheduled (see
+ * EventCalendar), so that an organism with nothing due is not visited.
+ *
+ * Everything that moves acts on every step, since it ages, hungers and
+ * moves. Algae only do anything when they fall ill or succeed at
+ * breeding, and both are drawn into calendars ahead of time, so an alga
+ * with neither due is idle: it is taken out of the field's list and held
+ * here, and each new field takes over the cells and counts of all the
+ * idle algae in one copy (see Field.carryIdle) rather than an alga at a
+ * time. An idle alga goes back to the list for the step its illness or
+ * breeding falls due.
+ *
+ * An idle alga still has a turn, at which it would have placed itself in
+ * the new field: until then its cell there is free, and an animal moved
+ * into it holds it until it is overwritten when the turn comes. So while
+ * a step runs, the new field only shows an idle alga once the organism
+ * acting comes after it in the order, and never counts anything placed
+ * in its cell before that (see hasHadTurn). In insertion order the order of a step is the
+ * order the organisms were placed in during the one before: each
+ * organism is placed at its turn, its young just before it. That order
+ * is kept as a rank per organism (see Organism.getRank), young being
+ * given ranks between their parent's and those of everything before it,
+ * so that the organisms that act take their turns exactly where they
+ * would have among the idle ones. When the ranks between two organisms
+ * run short, every organism is ranked again in one sort. In Morton order
+ * the turns follow from the locations; in shuffled order, which has no
+ * order to compare with, the idle algae next to anything that moves act.
+ *
+ * The calendars draw random numbers at other times than the rolls they
+ * replace, so a seeded run differs from one with rolls; the populations
+ * match on average.
+ *
+ * @version 1.0
+ */
+public class ScheduledStepEngine {
+    // The smallest gap between neighbouring ranks that a step may start
+    // with, leaving room for any litter in the step.
+    private static final long MIN_RANK_GAP = 1 << 16;
+
+    private final int width;
+    private final int blockSize, blockCols;
+    // When organisms fall ill, and when algae next breed.
+    private final EventCalendar diseaseCalendar = new EventCalendar();
+    private final EventCalendar breedingCalendar = new EventCalendar();
+    // The idle algae of each block by cell, or null for a block holding
+    // none, and how many each block holds.
+    private final Organism[][] idle;
+    private final int[] idleCounts;
+    private int idleTotal;
+    // The species code of each cell as far as the idle algae go, row by
+    // row, for copying into each new field.
+    private final byte[] idleCodes;
+    // The smallest gap between neighbouring ranks given out since the
+    // organisms were last ranked, or 0 if they must be ranked again.
+    private long smallestGap;
+    // Whether any step has run since the engine was last cleared or woken.
+    private boolean active;
+    // While a step runs, the field being built, the order of the step and
+    // the place in it of the organism acting; building is null between
+    // steps.
+    private Field building;
+    private UpdateOrder order;
+    private long turn;
+
+    /**
+     * Create an engine for a field of the given size.
+     *
+     * @param depth     The depth of the field.
+     * @param width     The width of the field.
+     * @param blockSize The side of the blocks of the field's region
+     *                  statistics, which the idle algae are counted in.
+     */
+    public ScheduledStepEngine(int depth, int width, int blockSize) {
+        this.width = width;
+        this.blockSize = blockSize;
+        int blockRows = (depth + blockSize - 1) / blockSize;
+        blockCols = (width + blockSize - 1) / blockSize;
+        idle = new Organism[blockRows * blockCols][];
+        idleCounts = new int[blockRows * blockCols];
+        idleCodes = new byte[depth * width];
+    }
+
+    /**
+     * Let each live organism with something to do act, in the selected
+     * order (see UpdateOrder), after first letting those whose illness has
+     * fallen due die at their turn.
+     *
+     * @param field              The current state of the field.
+     * @param nextFieldState     The new state being built, still empty.
+     * @param isDay              Whether it is day or night.
+     * @param step               The number of this step.
+     * @param diseaseProbability The chance of each organism falling ill
+     *                           in a step.
+     * @param rand               The source of randomness.
+     */
+    public void actAll(Field field, Field nextFieldState, boolean isDay, int step, double diseaseProbability,
+            Random rand) {
+        active = true;
+        field.setIdleAlgae(this);
+        List<Organism> acting = field.getAwakeAnimals();
+        if (smallestGap < MIN_RANK_GAP || hasUnranked(acting)) {
+            rank(acting);
+        }
+        // Organisms placed last step have their events drawn, and algae
+        // are held until they are wanted.
+        acting.removeIf(organism -> {
+            if (!organism.isAlive()) {
+                return true;
+            }
+            if (!organism.isIllnessScheduled()) {
+                organism.setIllness(schedule(diseaseCalendar, organism, step, diseaseProbability, rand));
+            }
+            if (!(organism instanceof Algae)) {
+                return false;
+            }
+            if (!organism.isBreedingScheduled()) {
+                organism.setBreeding(
+                        schedule(breedingCalendar, organism, step, Algae.REPRODUCTION_PROBABILITY, rand));
+            }
+            hold(organism);
+            return true;
+        });
+        for (Organism organism : diseaseCalendar.takeDue(step)) {
+            organism.setIll();
+            wake(field, organism);
+        }
+        for (Organism organism : breedingCalendar.takeDue(step)) {
+            organism.setBreedingDue();
+            wake(field, organism);
+        }
+        order = UpdateOrder.getSelected();
+        if (order == UpdateOrder.SHUFFLED) {
+            // Wake the algae next to anything that moves; woken algae are
+            // added after the movers, so are not looked around.
+            int movers = acting.size();
+            for (int i = 0; i < movers; i++) {
+                Organism organism = acting.get(i);
+                if (!(organism instanceof Algae) && organism.isAlive()) {
+                    wakeAround(field, organism.getLocation());
+                }
+            }
+        }
+        nextFieldState.carryIdle(this);
+
+        if (order == UpdateOrder.INSERTION) {
+            acting.sort(Comparator.comparingLong(Organism::getRank));
+        } else {
+            order.arrange(acting, rand);
+        }
+        List<Organism> placed = nextFieldState.getAwakeAnimals();
+        building = nextFieldState;
+        turn = Long.MAX_VALUE;
+        try {
+            for (Organism organism : acting) {
+                if (!organism.isAlive()) {
+                    continue;
+                }
+                if (organism.isIll()) {
+                    organism.setDead();
+                } else {
+                    if (order != UpdateOrder.SHUFFLED) {
+                        turn = placeInOrder(organism);
+                    }
+                    organism.act(field, nextFieldState, isDay);
+                    rankYoung(organism, placed);
+                }
+            }
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * Put every idle alga back in a field's list and forget every event,
+     * e.g. before a step in which events are rolled, so that the field
+     * holds every organism itself again.
+     *
+     * @param field The current state of the field.
+     */
+    public void wakeAll(Field field) {
+        List<Organism> organisms = field.getAwakeAnimals();
+        for (Organism[] cells : idle) {
+            if (cells != null) {
+                for (Organism alga : cells) {
+                    if (alga != null) {
+                        field.addAwake(alga);
+                    }
+                }
+            }
+        }
+        // Idle algae keep their turns among the rest.
+        organisms.sort(Comparator.comparingLong(Organism::getRank));
+        for (Organism organism : organisms) {
+            organism.dropEvents();
+        }
+        clear();
+        field.setIdleAlgae(null);
+    }
+
+    /**
+     * Forget every event and idle alga, e.g. when the field is populated
+     * afresh.
+     */
+    public void clear() {
+        diseaseCalendar.clear();
+        breedingCalendar.clear();
+        forgetIdle();
+        smallestGap = 0;
+        active = false;
+    }
+
+    /**
+     * @return true if a step has run since the engine was last cleared or
+     *         woken, so that it may hold algae and events.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Forget the idle algae, e.g. when the field holding them is emptied.
+     */
+    void forgetIdle() {
+        if (idleTotal == 0) {
+            return;
+        }
+        for (int block = 0; block < idle.length; block++) {
+            Organism[] cells = idle[block];
+            if (cells != null) {
+                for (Organism alga : cells) {
+                    if (alga != null) {
+                        Location location = alga.getLocation();
+                        idleCodes[location.row() * width + location.col()] = Species.EMPTY;
+                    }
+                }
+                idle[block] = null;
+                idleCounts[block] = 0;
+            }
+        }
+        idleTotal = 0;
+    }
+
+    /**
+     * Return the idle alga in a cell, if any.
+     *
+     * @param row The cell's row.
+     * @param col The cell's column.
+     * @return The alga, or null if the cell holds no idle alga.
+     */
+    Organism getIdle(int row, int col) {
+        Organism[] cells = idle[blockOf(row, col)];
+        return cells == null ? null : cells[cellOf(row, col)];
+    }
+
+    /**
+     * Return whether an idle alga is in a field yet: in the field being
+     * built by a step, whether the organism acting comes after it.
+     * Anything placed in its cell before then holds it until the alga
+     * overwrites it at its turn.
+     *
+     * @param field The field.
+     * @param alga  The idle alga.
+     * @return true if the alga is in the field.
+     */
+    boolean hasHadTurn(Field field, Organism alga) {
+        return field != building || placeInOrder(alga) < turn;
+    }
+
+    /**
+     * Take an idle alga out of the engine, as it has been overwritten.
+     *
+     * @param alga The alga.
+     */
+    void dropIdle(Organism alga) {
+        release(alga);
+    }
+
+    /**
+     * Add every idle alga to a list.
+     *
+     * @param organisms Receives the algae.
+     */
+    void addIdleTo(List<Organism> organisms) {
+        for (Organism[] cells : idle) {
+            if (cells != null) {
+                for (Organism alga : cells) {
+                    if (alga != null) {
+                        organisms.add(alga);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of idle algae held out of the field's list.
+     */
+    public int getIdleCount() {
+        return idleTotal;
+    }
+
+    /**
+     * @return The species code of each cell as far as the idle algae go,
+     *         row by row. The array is the engine's own.
+     */
+    byte[] getIdleCodes() {
+        return idleCodes;
+    }
+
+    /**
+     * @return The number of idle algae in each block of the field's
+     *         region statistics. The array is the engine's own.
+     */
+    int[] getIdleCounts() {
+        return idleCounts;
+    }
+
+    /**
+     * Put an event in a calendar for the step of the next success of a
+     * try made on every step from this one.
+     */
+    private static EventCalendar.Entry schedule(EventCalendar calendar, Organism organism, int step,
+            double probability, Random rand) {
+        // This step is the first try, so a gap of 1 falls due now.
+        int gap = EventCalendar.sampleGap(probability, rand);
+        return calendar.schedule(organism, gap > Integer.MAX_VALUE - step ? Integer.MAX_VALUE : step + gap - 1);
+    }
+
+    private void hold(Organism alga) {
+        Location location = alga.getLocation();
+        int block = blockOf(location.row(), location.col());
+        if (idle[block] == null) {
+            idle[block] = new Organism[blockSize * blockSize];
+        }
+        Organism[] cells = idle[block];
+        int cell = cellOf(location.row(), location.col());
+        if (cells[cell] == null) {
+            idleCounts[block]++;
+            idleTotal++;
+        }
+        cells[cell] = alga;
+        idleCodes[location.row() * width + location.col()] = Species.ALGAE.code();
+        alga.setField(null);
+    }
+
+    /**
+     * Put an organism back in the field's list to act this step, if it is
+     * an idle alga.
+     */
+    private void wake(Field field, Organism organism) {
+        if (release(organism)) {
+            field.addAwake(organism);
+        }
+    }
+
+    /**
+     * Take an organism out of the engine, if it is an idle alga.
+     *
+     * @return true if it was idle.
+     */
+    private boolean release(Organism organism) {
+        Location location = organism.getLocation();
+        if (location == null) {
+            return false;
+        }
+        int block = blockOf(location.row(), location.col());
+        Organism[] cells = idle[block];
+        int cell = cellOf(location.row(), location.col());
+        if (cells == null || cells[cell] != organism) {
+            return false;
+        }
+        cells[cell] = null;
+        if (--idleCounts[block] == 0) {
+            idle[block] = null;
+        }
+        idleTotal--;
+        idleCodes[location.row() * width + location.col()] = Species.EMPTY;
+        return true;
+    }
+
+    /**
+     * @return An organism's place in the order of the step: its rank in
+     *         insertion order, the Morton code of its location in Morton
+     *         order.
+     */
+    private long placeInOrder(Organism organism) {
+        if (order == UpdateOrder.MORTON) {
+            Location location = organism.getLocation();
+            return UpdateOrder.mortonCode(location.row(), location.col()) & 0xFFFFFFFFL;
+        }
+        return organism.getRank();
+    }
+
+    /**
+     * Wake the idle algae in the cells around a location, any of which an
+     * organism there may look at in the new field.
+     */
+    private void wakeAround(Field field, Location location) {
+        for (int row = Math.max(0, location.row() - 1); row <= Math.min(field.getDepth() - 1,
+                location.row() + 1); row++) {
+            for (int col = Math.max(0, location.col() - 1); col <= Math.min(width - 1, location.col() + 1); col++) {
+                Organism alga = getIdle(row, col);
+                if (alga != null) {
+                    wake(field, alga);
+                }
+            }
+        }
+    }
+
+    private static boolean hasUnranked(List<Organism> organisms) {
+        for (Organism organism : organisms) {
+            if (organism.getRank() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rank every organism afresh, evenly spread over the ranks, keeping
+     * the order of those already ranked; those not yet ranked, such as a
+     * new population, come last in the order they are listed in.
+     */
+    private void rank(List<Organism> listed) {
+        List<Organism> all = new ArrayList<>(listed.size() + idleTotal);
+        all.addAll(listed);
+        addIdleTo(all);
+        // The sort is stable, so the unranked stay in their listed order.
+        all.sort(Comparator.comparingLong(organism -> organism.getRank() == 0 ? Long.MAX_VALUE : organism.getRank()));
+        long spacing = Long.MAX_VALUE / (all.size() + 1);
+        long rank = 0;
+        for (Organism organism : all) {
+            organism.setRank(rank + spacing, rank);
+            rank += spacing;
+        }
+        smallestGap = spacing;
+    }
+
+    /**
+     * Rank the young an organism has just placed, which are at the end of
+     * the new field's list just before the organism itself, if it placed
+     * itself: between its rank and those of everything before it.
+     */
+    private void rankYoung(Organism parent, List<Organism> placed) {
+        int end = placed.size();
+        if (end > 0 && placed.get(end - 1) == parent) {
+            end--;
+        }
+        int first = end;
+        while (first > 0 && placed.get(first - 1).getRank() == 0) {
+            first--;
+        }
+        int young = end - first;
+        if (young == 0) {
+            return;
+        }
+        long floor = parent.getRankFloor();
+        long gap = (parent.getRank() - floor) / (young + 1);
+        for (int i = 0; i < young; i++) {
+            placed.get(first + i).setRank(floor + gap * (i + 1), floor + gap * i);
+        }
+        parent.setRankFloor(floor + gap * young);
+        smallestGap = Math.min(smallestGap, gap);
+    }
+
+    private int blockOf(int row, int col) {
+        return (row / blockSize) * blockCols + col / blockSize;
+    }
+
+    private int cellOf(int row, int col) {
+        return (row % blockSize) * blockSize + col % blockSize;
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Random;
 
@@ -40,12 +43,18 @@ public class Shark extends Organism {
         if (!isDay) {
             // Night behavior - more aggressive hunting and breeding
             nextLocation = findFood(currentField);
+            if (nextLocation == null) {
+                nextLocation = approachPrey(currentField, freeLocations, Species.TUNA);
+            }
             if (!freeLocations.isEmpty()) {
                 giveBirth(currentField, nextFieldState, freeLocations);
             }
         } else {
             // Day behavior - less active hunting
             nextLocation = findFood(currentField);
+            if (nextLocation == null) {
+                nextLocation = approachPrey(currentField, freeLocations, Species.TUNA);
+            }
             if (nextLocation == null && !freeLocations.isEmpty() && rand.nextDouble() < 0.5) {
                 nextLocation = freeLocations.remove(0);
             }
@@ -62,8 +71,7 @@ public class Shark extends Organism {
 
         for (Location loc : adjacent) {
             Organism animal = field.getAnimalAt(loc);
-            if (animal instanceof Tuna tuna && tuna.isAlive()) {
-                tuna.setDead();
+            if (animal instanceof Tuna tuna && tuna.tryKill()) {
                 foodLevel = TUNA_FOOD_VALUE;
                 return loc;
             }
@@ -75,7 +83,7 @@ public class Shark extends Organism {
     private void giveBirth(Field currentField, Field nextFieldState, List<Location> freeLocations) {
         int births = 0;
 
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
+        if (canBreed() && breedingRoll(BREEDING_PROBABILITY, rand)) {
             List<Location> adjacent = currentField.getAdjacentLocations(getLocation());
 
             for (Location loc : adjacent) {
@@ -115,4 +123,23 @@ public class Shark extends Organism {
     public boolean isMale() {
         return isMale;
     }
+
+    @Override
+    protected void writeState(DataOutput out) throws IOException {
+        out.writeInt(age);
+        out.writeInt(foodLevel);
+        out.writeBoolean(isMale);
+    }
+
+    @Override
+    protected void readState(DataInput in) throws IOException {
+        age = in.readInt();
+        foodLevel = in.readInt();
+        isMale = in.readBoolean();
+    }
+
+    @Override
+    public Species getSpecies() {
+        return Species.SHARK;
+    }
 }
@@ -1,4 +1,12 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A simple predator-prey simulator, based on a rectangular field containing
@@ -7,6 +15,8 @@ import java.util.*;
  * @version 1.0
  */
 public class Simulator {
+    // The weather conditions, in the order a step draws them from.
+    public static final List<String> WEATHER_CONDITIONS = List.of("Sunny", "Rainy", "Cloudy", "Windy", "Stormy");
     private static final int DEFAULT_WIDTH = 120;
     private static final int DEFAULT_DEPTH = 80;
     private static final double SHARK_CREATION_PROBABILITY = 0.02;
@@ -16,6 +26,20 @@ public class Simulator {
     private static final double JELLYFISH_CREATION_PROBABILITY = 0.05;
     private static final double ALGAE_CREATION_PROBABILITY = 0.15;
     private static final double DISEASE_PROBABILITY = 0.05;
+    // Steps per second when the field is displayed.
+    private static final double DISPLAY_STEP_RATE = 20;
+    // Species in the order populate accumulates their creation probabilities.
+    private static final Species[] CREATION_ORDER = { Species.SHARK, Species.BARRACUDA, Species.TUNA,
+            Species.SARDINE, Species.JELLYFISH, Species.ALGAE };
+    private static final double[] CREATION_PROBABILITIES = { SHARK_CREATION_PROBABILITY,
+            BARRACUDA_CREATION_PROBABILITY, TUNA_CREATION_PROBABILITY, SARDINE_CREATION_PROBABILITY,
+            JELLYFISH_CREATION_PROBABILITY, ALGAE_CREATION_PROBABILITY };
+    // The files of a checkpoint (see saveCheckpoint).
+    private static final String CHECKPOINT_FIELD = "field.bin";
+    private static final String CHECKPOINT_STATE = "state.bin";
+    private static final int CHECKPOINT_VERSION = 1;
+    // Populates fields in parallel, when parallel population is enabled.
+    private static final Populator POPULATOR = new Populator(CREATION_ORDER, CREATION_PROBABILITIES);
 
     private Field field;
     private int step;
@@ -23,6 +47,28 @@ public class Simulator {
     private boolean isDay;
     private String weather;
     private final Random rand = Randomizer.getRandom();
+    // Listeners told about each completed step.
+    private final List<StepListener> listeners = new ArrayList<>();
+    // Paces the steps of simulate.
+    private final StepScheduler scheduler;
+    // Runs steps with rare events scheduled rather than rolled, when
+    // they are (see EventCalendar); otherwise null until they are.
+    private ScheduledStepEngine scheduledEngine;
+    // The numbers drawn by the last step, to size the next step's buffer
+    // when random numbers are buffered (see RandomBuffer).
+    private int expectedDraws;
+    // Runs steps on several threads, when parallel steps are enabled.
+    private ParallelStepEngine parallelEngine;
+    // Populates the field with a chosen mix of species, or null for the
+    // default creation probabilities.
+    private final Populator populator;
+    // Sends a snapshot of each step to its subscribers.
+    private final StepPublisher publisher = new StepPublisher();
+    // Which parts of the field are still changing, when activity is
+    // tracked; otherwise null.
+    private final ActiveTiles activeTiles;
+    // Measures each step, when telemetry is enabled; otherwise null.
+    private final StepTelemetry telemetry;
 
     /**
      * Construct a simulation field with default size.
@@ -38,6 +84,33 @@ public class Simulator {
      * @param width Width of the field. Must be greater than zero.
      */
     public Simulator(int depth, int width) {
+        this(depth, width, true);
+    }
+
+    /**
+     * Create a simulation field with the given size, optionally without
+     * a graphical view (e.g. for benchmarks or runs on a machine with no
+     * display).
+     * 
+     * @param depth    Depth of the field. Must be greater than zero.
+     * @param width    Width of the field. Must be greater than zero.
+     * @param showView Whether to display the field in a window.
+     */
+    public Simulator(int depth, int width, boolean showView) {
+        this(depth, width, showView, null);
+    }
+
+    /**
+     * Create a simulation field with the given size, populated by the
+     * given populator rather than with the default creation
+     * probabilities (e.g. to try a different mix of species).
+     * 
+     * @param depth     Depth of the field. Must be greater than zero.
+     * @param width     Width of the field. Must be greater than zero.
+     * @param showView  Whether to display the field in a window.
+     * @param populator The populator, or null for the default one.
+     */
+    public Simulator(int depth, int width, boolean showView, Populator populator) {
         if (width <= 0 || depth <= 0) {
             System.out.println("The dimensions must be >= zero.");
             System.out.println("Using default values.");
@@ -46,9 +119,24 @@ public class Simulator {
         }
 
         field = new Field(depth, width);
-        view = new SimulatorView(depth, width);
+        view = showView ? new SimulatorView(depth, width) : null;
+        scheduler = new StepScheduler(this, showView ? DISPLAY_STEP_RATE : StepScheduler.UNBOUNDED);
+        if (view != null) {
+            view.setRedrawRequest(scheduler::redraw);
+        }
         isDay = true;
         weather = "Sunny"; // default weather
+        this.populator = populator;
+        activeTiles = ActiveTiles.isEnabled()
+                ? new ActiveTiles(depth, width, field.getRegionStats().getBlockSize())
+                : null;
+        telemetry = StepTelemetry.isEnabled() ? StepTelemetry.register() : null;
+        if (view != null && HistoryBuffer.isEnabled()) {
+            // Keep recent steps, so the view can scrub back through them.
+            HistoryBuffer history = new HistoryBuffer();
+            addStepListener(history);
+            view.setHistory(history);
+        }
 
         reset();
     }
@@ -69,9 +157,28 @@ public class Simulator {
      */
     public void simulate(int numSteps) {
         reportStats();
-        for (int n = 1; n <= numSteps && field.isViable(); n++) {
-            simulateOneStep();
-            delay(50); // adjust this to change execution speed
+        scheduler.run(numSteps);
+    }
+
+    /**
+     * Return the scheduler that paces simulate. It can be used to change
+     * the speed, or to pause, resume or single-step a run from another
+     * thread.
+     * 
+     * @return The scheduler.
+     */
+    public StepScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Show the current step in the view again, e.g. when it has been
+     * panned to cells it was not given. It must be called on the thread
+     * running the simulation (see StepScheduler.redraw).
+     */
+    public void redraw() {
+        if (view != null) {
+            view.showStatus(step, field);
         }
     }
 
@@ -80,27 +187,187 @@ public class Simulator {
      * Iterate over the whole field updating the state of each animal.
      */
     public void simulateOneStep() {
+        simulateOneStep(true);
+    }
+
+    /**
+     * Run the simulation from its current state for a single step,
+     * optionally without updating the display (e.g. to catch up when
+     * running behind).
+     * 
+     * @param render Whether to show the new state in the view.
+     */
+    public void simulateOneStep(boolean render) {
+        if (telemetry != null) {
+            telemetry.beginStep();
+        }
         step++;
         isDay = !isDay; // Toggle day/night
         updateWeather(); // update weather condition
-        Field nextFieldState = new Field(field.getDepth(), field.getWidth());
+        boolean parallel = ParallelStepEngine.isEnabled();
+        // Parallel steps roll for events.
+        boolean scheduled = EventCalendar.isEnabled() && !parallel;
+        if (!scheduled && scheduledEngine != null && scheduledEngine.isActive()) {
+            scheduledEngine.wakeAll(field);
+        }
+        Field nextFieldState = parallel ? Field.concurrent(field.getDepth(), field.getWidth())
+                : new Field(field.getDepth(), field.getWidth());
 
-        List<Organism> animals = field.getAnimals();
-        for (Organism anAnimal : animals) {
+        if (activeTiles != null) {
+            activeTiles.beginStep(field, nextFieldState, parallel);
+        }
+        RandomBuffer buffer = Randomizer.getBuffer();
+        boolean buffered = RandomBuffer.isEnabled() && !parallel;
+        if (buffered) {
+            buffer.beginStep(step, expectedDraws);
+        }
+        if (scheduled) {
+            if (scheduledEngine == null) {
+                scheduledEngine = new ScheduledStepEngine(field.getDepth(), field.getWidth(),
+                        field.getRegionStats().getBlockSize());
+            }
+            scheduledEngine.actAll(field, nextFieldState, isDay, step, DISEASE_PROBABILITY, rand);
+        } else {
+            // Sleeping algae are held by the tracking rather than listed.
+            List<Organism> acting = field.getAwakeAnimals();
+            UpdateOrder.getSelected().arrange(acting, rand);
+            if (parallel) {
+                if (parallelEngine == null) {
+                    parallelEngine = new ParallelStepEngine();
+                }
+                parallelEngine.actAll(acting, field, nextFieldState, isDay, DISEASE_PROBABILITY);
+            } else {
+                actAll(acting, field, nextFieldState, isDay, rand);
+            }
+        }
+        if (activeTiles != null) {
+            activeTiles.applyDisease(nextFieldState, DISEASE_PROBABILITY, rand);
+        }
+        if (buffered) {
+            expectedDraws = (int) Math.min(Integer.MAX_VALUE, buffer.getDrawn());
+            buffer.endStep();
+        }
+        endPhase(StepTelemetry.Phase.ACT);
+
+        field.release();
+        field = nextFieldState;
+        if (activeTiles != null) {
+            activeTiles.update(field);
+        }
+        endPhase(StepTelemetry.Phase.SWAP);
+        // Use the improved logging output
+        reportStats();
+        endPhase(StepTelemetry.Phase.REPORT);
+        if (view != null && render) {
+            view.showStatus(step, field);
+        }
+        endPhase(StepTelemetry.Phase.RENDER);
+        notifyListeners();
+        publish();
+        endPhase(StepTelemetry.Phase.NOTIFY);
+        if (telemetry != null) {
+            telemetry.endStep(step, field);
+        }
+    }
+
+    private void endPhase(StepTelemetry.Phase phase) {
+        if (telemetry != null) {
+            telemetry.endPhase(phase);
+        }
+    }
+
+    /**
+     * @return The telemetry measuring each step, or null if telemetry is
+     *         not enabled.
+     */
+    public StepTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Tell a listener about each step from now on.
+     * 
+     * @param listener The listener to add.
+     */
+    public void addStepListener(StepListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about steps.
+     * 
+     * @param listener The listener to remove.
+     */
+    public void removeStepListener(StepListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (StepListener listener : listeners) {
+            listener.stepCompleted(step, field, isDay);
+        }
+    }
+
+    /**
+     * Return the publisher of a snapshot of each step, which subscribers
+     * can take snapshots from at their own pace without holding up the
+     * simulation.
+     * 
+     * @return The publisher.
+     */
+    public StepPublisher getPublisher() {
+        return publisher;
+    }
+
+    private void publish() {
+        if (publisher.hasSubscribers()) {
+            publisher.submit(new StepSnapshot(step, weather, isDay, field));
+        }
+    }
+
+    /**
+     * Let each live organism act, after first giving it the chance to die
+     * of disease.
+     * 
+     * @param organisms      The organisms to act, in order.
+     * @param field          The current state of the field.
+     * @param nextFieldState The new state being built.
+     * @param isDay          Whether it is day or night.
+     * @param rand           The source of the disease rolls.
+     */
+    static void actAll(List<Organism> organisms, Field field, Field nextFieldState, boolean isDay, Random rand) {
+        actAll(organisms, field, nextFieldState, isDay, rand, null);
+    }
+
+    /**
+     * Let each live organism act, as above, and tell a listener of each
+     * organism that has acted, before the next one does.
+     *
+     * @param acted Told of each organism that has acted, or null.
+     */
+    static void actAll(List<Organism> organisms, Field field, Field nextFieldState, boolean isDay, Random rand,
+            Consumer<Organism> acted) {
+        // With a buffered generator, take every disease roll in one slice.
+        double[] rolls = null;
+        if (rand instanceof RandomBuffer buffer && buffer.isActive()) {
+            rolls = new double[organisms.size()];
+            buffer.nextDoubles(rolls, rolls.length);
+        }
+        int index = 0;
+        for (Organism anAnimal : organisms) {
+            int i = index++;
             // Introduce disease: animal may die due to disease before acting.
-            if (anAnimal.isAlive() && rand.nextDouble() < DISEASE_PROBABILITY) {
+            if (anAnimal.isAlive() && (rolls != null ? rolls[i] : rand.nextDouble()) < DISEASE_PROBABILITY) {
                 anAnimal.setDead();
                 continue;
             }
             if (anAnimal.isAlive()) {
                 anAnimal.act(field, nextFieldState, isDay);
+                if (acted != null) {
+                    acted.accept(anAnimal);
+                }
             }
         }
-
-        field = nextFieldState;
-        // Use the improved logging output
-        reportStats();
-        view.showStatus(step, field);
     }
 
     /**
@@ -108,8 +375,133 @@ public class Simulator {
      */
     public void reset() {
         step = 0;
+        if (scheduledEngine != null) {
+            scheduledEngine.clear();
+        }
+        if (publisher.hasSubscribers()) {
+            // Snapshots may still be reading the old field's codes.
+            Field old = field;
+            field = new Field(old.getDepth(), old.getWidth());
+            old.release();
+        }
         populate();
-        view.showStatus(step, field);
+        if (activeTiles != null) {
+            activeTiles.wakeAll(field);
+        }
+        if (view != null) {
+            view.showStatus(step, field);
+        }
+        notifyListeners();
+        publish();
+    }
+
+    /**
+     * Save the state of the run to a directory, so that restoreCheckpoint
+     * can carry it on later: the field, the step, day or night, the
+     * weather, the shared random generator's state and the order the
+     * organisms act in.
+     * 
+     * A run restored from a checkpoint goes on exactly as this one would
+     * have, unless steps run in parallel, events are scheduled by the
+     * calendar (whose schedule is not saved) or activity is tracked
+     * (every tile wakes on restoring).
+     * 
+     * @param directory The directory to write, created if need be. Any
+     *                  checkpoint already in it is replaced.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void saveCheckpoint(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        field.save(directory.resolve(CHECKPOINT_FIELD));
+        RandomBuffer buffer = Randomizer.getBuffer();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(directory.resolve(CHECKPOINT_STATE))))) {
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeInt(field.getDepth());
+            out.writeInt(field.getWidth());
+            out.writeInt(step);
+            out.writeBoolean(isDay);
+            out.writeUTF(weather);
+            out.writeInt(expectedDraws);
+            out.writeLong(buffer.getSeed());
+            out.writeLong(buffer.getState());
+            List<Organism> live = new ArrayList<>();
+            for (Organism anAnimal : field.getAnimals()) {
+                if (anAnimal.isAlive()) {
+                    live.add(anAnimal);
+                }
+            }
+            out.writeInt(live.size());
+            for (Organism anAnimal : live) {
+                out.writeInt(anAnimal.getLocation().row() * field.getWidth() + anAnimal.getLocation().col());
+            }
+        }
+    }
+
+    /**
+     * Carry on the run saved by saveCheckpoint, in place of this one's
+     * current state. The field must be the size of the saved one.
+     * 
+     * @param directory The directory holding the checkpoint.
+     * @throws IOException If the checkpoint cannot be read, or is for a
+     *                     field of another size.
+     */
+    public void restoreCheckpoint(Path directory) throws IOException {
+        Field opened = Field.open(directory.resolve(CHECKPOINT_FIELD));
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(directory.resolve(CHECKPOINT_STATE))))) {
+            if (in.readInt() != CHECKPOINT_VERSION) {
+                throw new IOException("Unknown checkpoint version in " + directory);
+            }
+            int depth = in.readInt();
+            int width = in.readInt();
+            if (depth != field.getDepth() || width != field.getWidth() || depth != opened.getDepth()
+                    || width != opened.getWidth()) {
+                throw new IOException("Checkpoint in " + directory + " is for a " + depth + "x" + width + " field");
+            }
+            int savedStep = in.readInt();
+            boolean savedIsDay = in.readBoolean();
+            String savedWeather = in.readUTF();
+            int savedDraws = in.readInt();
+            long seed = in.readLong();
+            long state = in.readLong();
+            // Rebuild the organisms in the order they acted in. Creating an
+            // organism may draw random numbers, so the generator is put
+            // back afterwards.
+            int count = in.readInt();
+            List<Organism> organisms = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int cell = in.readInt();
+                Organism organism = opened.getAnimalAt(new Location(cell / width, cell % width));
+                if (organism == null) {
+                    throw new IOException("Checkpoint in " + directory + " has no organism at cell " + cell);
+                }
+                organisms.add(organism);
+            }
+            Field restored = new Field(depth, width);
+            restored.loadOrganisms(opened.getSpeciesCodes(), organisms);
+
+            field.release();
+            field = restored;
+            step = savedStep;
+            isDay = savedIsDay;
+            weather = savedWeather;
+            expectedDraws = savedDraws;
+            if (scheduledEngine != null) {
+                scheduledEngine.clear();
+            }
+            Randomizer.getBuffer().restore(seed, state);
+        } finally {
+            opened.release();
+        }
+        if (activeTiles != null) {
+            activeTiles.wakeAll(field);
+        }
+        if (view != null) {
+            view.showStatus(step, field);
+        }
+        notifyListeners();
+        publish();
     }
 
     /**
@@ -118,7 +510,15 @@ public class Simulator {
      */
     private void populate() {
         Random rand = Randomizer.getRandom();
+        if (populator != null || Populator.isEnabled()) {
+            (populator != null ? populator : POPULATOR).populate(field, rand.nextLong());
+            return;
+        }
         field.clear();
+        if (GridKernels.isBulk()) {
+            populateRows(field, 0, field.getDepth(), rand);
+            return;
+        }
         for (int row = 0; row < field.getDepth(); row++) {
             for (int col = 0; col < field.getWidth(); col++) {
                 double randDouble = rand.nextDouble();
@@ -152,14 +552,91 @@ public class Simulator {
         }
     }
 
+    /**
+     * Populate the field a row at a time: draw a row of samples, classify
+     * them all against the cumulative creation probabilities in one bulk
+     * pass, then create the chosen organisms.
+     * 
+     * @param field   The field to populate.
+     * @param fromRow The first row to populate.
+     * @param toRow   The row after the last one to populate.
+     * @param rand    The source of the samples.
+     */
+    static void populateRows(Field field, int fromRow, int toRow, Random rand) {
+        int width = field.getWidth();
+        double[] thresholds = new double[CREATION_PROBABILITIES.length];
+        byte[] outcomes = new byte[CREATION_ORDER.length + 1];
+        double cumulative = 0;
+        for (int i = 0; i < CREATION_ORDER.length; i++) {
+            cumulative += CREATION_PROBABILITIES[i];
+            thresholds[i] = cumulative;
+            outcomes[i] = CREATION_ORDER[i].code();
+        }
+        outcomes[CREATION_ORDER.length] = Species.EMPTY;
+
+        double[] samples = new double[width];
+        byte[] codes = new byte[width];
+        for (int row = fromRow; row < toRow; row++) {
+            for (int col = 0; col < width; col++) {
+                samples[col] = rand.nextDouble();
+            }
+            GridKernels.classify(samples, thresholds, outcomes, codes);
+            for (int col = 0; col < width; col++) {
+                if (codes[col] != Species.EMPTY) {
+                    Location location = new Location(row, col);
+                    field.placeAnimal(Species.fromCode(codes[col]).create(true, location), location);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The current state of the field.
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return The current step number.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return The current weather, one of WEATHER_CONDITIONS.
+     */
+    public String getWeather() {
+        return weather;
+    }
+
+    /**
+     * @return Whether it is currently day.
+     */
+    public boolean isDay() {
+        return isDay;
+    }
+
     // Updated logging method that prints a consistent header with all info.
     public void reportStats() {
         // Compute population counts
         Map<String, Integer> counts = new HashMap<>();
-        for (Organism a : field.getAnimals()) {
-            if (a.isAlive()) {
-                String key = a.getClass().getSimpleName();
-                counts.put(key, counts.getOrDefault(key, 0) + 1);
+        if (activeTiles != null || (scheduledEngine != null && scheduledEngine.getIdleCount() > 0)) {
+            // Read the counts per block rather than visiting every organism.
+            RegionStats stats = field.getRegionStats();
+            for (Species species : Species.values()) {
+                int count = stats.countInBlocks(species, 0, 0, stats.getBlockRows(), stats.getBlockCols());
+                if (count > 0) {
+                    counts.put(species.organismClass().getSimpleName(), count);
+                }
+            }
+        } else {
+            for (Organism a : field.getAnimals()) {
+                if (a.isAlive()) {
+                    String key = a.getClass().getSimpleName();
+                    counts.put(key, counts.getOrDefault(key, 0) + 1);
+                }
             }
         }
         // Build a population details string
@@ -173,25 +650,15 @@ public class Simulator {
         System.out.println("--------------------------------------------------");
         System.out.println("Step: " + step + " | Weather: " + weather);
         System.out.println("Population: " + popDetails.toString().trim());
-        System.out.println("--------------------------------------------------");
-    }
-
-    /**
-     * Pause for a given time.
-     * 
-     * @param milliseconds The time to pause for, in milliseconds
-     */
-    private void delay(int milliseconds) {
-        try {
-            Thread.sleep(milliseconds);
-        } catch (InterruptedException e) {
-            // ignore
+        if (scheduler.getStepsPerSecond() > 0) {
+            System.out.printf("Rate: %.1f steps/s | Lag: %.1f ms | Skipped frames: %d%n",
+                    scheduler.getStepsPerSecond(), scheduler.getLagMillis(), scheduler.getSkippedFrames());
         }
+        System.out.println("--------------------------------------------------");
     }
 
     // New method to update weather condition
     private void updateWeather() {
-        String[] conditions = { "Sunny", "Rainy", "Cloudy", "Windy", "Stormy" };
-        weather = conditions[rand.nextInt(conditions.length)];
+        weather = WEATHER_CONDITIONS.get(rand.nextInt(WEATHER_CONDITIONS.size()));
     }
 }
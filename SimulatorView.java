@@ -1,7 +1,14 @@
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import javax.swing.*;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A graphical view of the simulation grid.
@@ -10,12 +17,20 @@ import java.util.Map;
  * Colors for each type of species can be defined using the
  * setColor method.
  * 
+ * The simulation hands each step over as a snapshot: the population,
+ * a copy of the block counts and the cells around the part of the
+ * field in view. It is shown on the event dispatch thread, which alone
+ * touches the components and the rest of the view's state, so the
+ * simulation never waits for painting and never shares what it is
+ * changing. If the view moves to cells the last snapshot does not hold,
+ * it asks for the step to be drawn again (see setRedrawRequest).
+ * 
  * @author Sakibul Islam
  * @version 1.0
  */
 public class SimulatorView extends JFrame {
     // Colors used for empty locations.
-    private static final Color EMPTY_COLOR = Color.white;
+    private static final Color EMPTY_COLOR = Species.EMPTY_COLOR;
 
     // Color used for objects that have no defined color.
     private static final Color UNKNOWN_COLOR = Color.gray;
@@ -25,11 +40,34 @@ public class SimulatorView extends JFrame {
     private final JLabel stepLabel;
     private final JLabel population;
     private final FieldView fieldView;
+    private final int depth, width;
 
     // A map for storing colors for participants in the simulation
     private final Map<Class<?>, Color> colors;
     // A statistics object computing and storing simulation information
     private final FieldStats stats;
+    // The latest snapshot not yet shown, handed from the simulation to
+    // the event dispatch thread. Only the newest is kept, so a slow
+    // display skips steps rather than falling behind.
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    // The locations whose cells snapshots should hold, or null if the
+    // view is zoomed out and shows only the blocks. Set on the event
+    // dispatch thread and read by the simulation.
+    private volatile Rectangle wanted;
+    // Asks the simulation to show its current step again, or null.
+    private volatile Runnable redrawRequest;
+
+    // The rest is used on the event dispatch thread only.
+    // Recent steps to scrub back through, or null if none are kept.
+    private HistoryBuffer history;
+    private final JSlider scrubber;
+    // Whether the scrubber is being moved by showStatus, not the user.
+    private boolean followingLive;
+    // The last live snapshot, and a step decoded from history.
+    private Snapshot live;
+    private byte[] historyCodes;
+    // Whether a refresh has been queued and not yet run.
+    private boolean refreshQueued;
 
     /**
      * Create a view of the given width and height.
@@ -38,14 +76,13 @@ public class SimulatorView extends JFrame {
      * @param width  The simulation's width.
      */
     public SimulatorView(int height, int width) {
+        depth = height;
+        this.width = width;
         stats = new FieldStats();
         colors = new LinkedHashMap<>();
-        setColor(Shark.class, Color.red);
-        setColor(Barracuda.class, Color.green);
-        setColor(Tuna.class, Color.yellow);
-        setColor(Sardine.class, Color.cyan);
-        setColor(Jellyfish.class, Color.magenta);
-        setColor(Algae.class, new Color(0, 128, 0)); // Added algae with dark green color
+        for (Species species : Species.values()) {
+            colors.put(species.organismClass(), species.defaultColor());
+        }
 
         setTitle("Marine Life Simulation");
         stepLabel = new JLabel(STEP_PREFIX, JLabel.CENTER);
@@ -54,11 +91,21 @@ public class SimulatorView extends JFrame {
         setLocation(100, 50);
 
         fieldView = new FieldView(height, width);
+        scrubber = new JSlider(0, 0);
+        scrubber.setVisible(false);
+        scrubber.addChangeListener(e -> {
+            if (!followingLive) {
+                showHistory(scrubber.getValue());
+            }
+        });
 
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(population, BorderLayout.CENTER);
+        bottom.add(scrubber, BorderLayout.SOUTH);
         Container contents = getContentPane();
         contents.add(stepLabel, BorderLayout.NORTH);
         contents.add(fieldView, BorderLayout.CENTER);
-        contents.add(population, BorderLayout.SOUTH);
+        contents.add(bottom, BorderLayout.SOUTH);
         pack();
         setVisible(true);
     }
@@ -70,7 +117,7 @@ public class SimulatorView extends JFrame {
      * @param color       The color to be used for the given class.
      */
     public void setColor(Class<?> animalClass, Color color) {
-        colors.put(animalClass, color);
+        onEventThread(() -> colors.put(animalClass, color));
     }
 
     /**
@@ -87,36 +134,208 @@ public class SimulatorView extends JFrame {
     }
 
     /**
-     * Show the current status of the field.
+     * Let the user scrub back through the steps held in a history, with a
+     * slider under the field. While the slider is not at its right-hand
+     * end, the chosen step is shown instead of the live one.
+     * 
+     * @param history The history, or null to remove the slider.
+     */
+    public void setHistory(HistoryBuffer history) {
+        onEventThread(() -> {
+            this.history = history;
+            scrubber.setVisible(history != null);
+            pack();
+        });
+    }
+
+    /**
+     * Give the view a way to ask for the current step to be shown again,
+     * e.g. when it is panned to cells the last snapshot does not hold.
+     * The request may be run on any thread, and is expected to call
+     * showStatus later on the thread running the simulation.
+     * 
+     * @param request The request, or null if there is none.
+     */
+    public void setRedrawRequest(Runnable request) {
+        redrawRequest = request;
+    }
+
+    /**
+     * Show the current status of the field. This takes a snapshot of
+     * what the view needs, costing O(blocks) plus the cells in view
+     * whatever the size of the field, and shows it later on the event
+     * dispatch thread.
      * 
      * @param step  Which iteration step it is.
      * @param field The field whose status is to be displayed.
      */
     public void showStatus(int step, Field field) {
+        RegionStats blocks = field.getRegionStats().copy();
+        int[] counts = new int[GridKernels.CODES];
+        for (Species species : Species.values()) {
+            counts[species.code()] = blocks.countInBlocks(species, 0, 0, blocks.getBlockRows(), blocks.getBlockCols());
+        }
+        Rectangle area = wanted;
+        byte[] cells = area == null ? null : new byte[area.width * area.height];
+        if (area == null) {
+            // Zoomed out: the blocks are all that is drawn.
+        } else if (GridKernels.isBulk()) {
+            byte[] codes = field.getSpeciesCodes();
+            for (int row = 0; row < area.height; row++) {
+                System.arraycopy(codes, (area.y + row) * width + area.x, cells, row * area.width, area.width);
+            }
+        } else {
+            for (int row = 0; row < area.height; row++) {
+                for (int col = 0; col < area.width; col++) {
+                    Organism animal = field.getAnimalAt(new Location(area.y + row, area.x + col));
+                    cells[row * area.width + col] = animal == null ? Species.EMPTY : animal.getSpecies().code();
+                }
+            }
+        }
+        if (pending.getAndSet(new Snapshot(step, counts, blocks, area, cells)) == null) {
+            SwingUtilities.invokeLater(this::showPending);
+        }
+    }
+
+    /**
+     * Show the latest snapshot handed over, unless the user is looking
+     * at an earlier step.
+     */
+    private void showPending() {
+        Snapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
         if (!isVisible()) {
             setVisible(true);
         }
+        live = snapshot;
+        if (history != null && followLive(snapshot.step())) {
+            // The user is looking at an earlier step.
+            stepLabel.setText(STEP_PREFIX + scrubber.getValue() + " (live: " + snapshot.step() + ")");
+            return;
+        }
+        show(snapshot, STEP_PREFIX + snapshot.step());
+    }
 
-        stepLabel.setText(STEP_PREFIX + step);
+    /**
+     * Show a snapshot, live or from the history, under a step label.
+     */
+    private void show(Snapshot snapshot, String label) {
+        stepLabel.setText(label);
         stats.reset();
+        stats.incrementCounts(snapshot.counts());
+        stats.countFinished();
+        population.setText(POPULATION_PREFIX + stats.getPopulationDetails());
+        fieldView.showSnapshot(snapshot, getPalette());
+    }
 
-        fieldView.preparePaint();
+    /**
+     * Stretch the scrubber to run from the oldest step held to the live
+     * one, keeping it at the live end if it was there.
+     * 
+     * @return true if the user has scrubbed back to an earlier step.
+     */
+    private boolean followLive(int step) {
+        boolean atLive = scrubber.getValue() >= scrubber.getMaximum();
+        int oldest = history.getOldestStep();
+        followingLive = true;
+        scrubber.setMinimum(oldest < 0 ? step : Math.min(oldest, step));
+        scrubber.setMaximum(step);
+        if (atLive) {
+            scrubber.setValue(step);
+        }
+        followingLive = false;
+        return !atLive;
+    }
+
+    /**
+     * @return true if the user has scrubbed back to an earlier step.
+     */
+    private boolean isScrubbedBack() {
+        return history != null && scrubber.getValue() < scrubber.getMaximum();
+    }
+
+    /**
+     * Show a step chosen with the scrubber: the live snapshot if it is
+     * the live step, otherwise the step decoded from the history, cut
+     * down to what the view needs. This decodes the whole field, but
+     * only when the user picks a step.
+     */
+    private void showHistory(int step) {
+        if (live == null) {
+            return;
+        }
+        if (step >= live.step()) {
+            show(live, STEP_PREFIX + live.step());
+            return;
+        }
+        if (historyCodes == null) {
+            historyCodes = new byte[depth * width];
+        }
+        if (!history.decode(step, historyCodes)) {
+            return;
+        }
+        int[] counts = new int[GridKernels.CODES];
+        GridKernels.countSpecies(historyCodes, counts);
+        RegionStats blocks = new RegionStats(depth, width, live.blocks().getBlockSize());
+        blocks.rebuild(historyCodes);
+        Rectangle area = wanted;
+        byte[] cells = null;
+        if (area != null) {
+            cells = new byte[area.width * area.height];
+            for (int row = 0; row < area.height; row++) {
+                System.arraycopy(historyCodes, (area.y + row) * width + area.x, cells, row * area.width, area.width);
+            }
+        }
+        show(new Snapshot(step, counts, blocks, area, cells), STEP_PREFIX + step + " (live: " + live.step() + ")");
+    }
 
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Object animal = field.getAnimalAt(new Location(row, col));
-                if (animal != null) {
-                    stats.incrementCount(animal.getClass());
-                    fieldView.drawMark(col, row, getColor(animal.getClass()));
-                } else {
-                    fieldView.drawMark(col, row, EMPTY_COLOR);
+    /**
+     * Fetch the cells the view now needs: again from the history if an
+     * earlier step is shown, otherwise by asking the simulation to show
+     * its step again. Requests are run once each, after the event being
+     * handled.
+     */
+    private void refresh() {
+        if (refreshQueued) {
+            return;
+        }
+        refreshQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            refreshQueued = false;
+            if (isScrubbedBack()) {
+                showHistory(scrubber.getValue());
+            } else {
+                Runnable request = redrawRequest;
+                if (request != null) {
+                    request.run();
                 }
             }
+        });
+    }
+
+    /**
+     * Run an update of the view's state on the event dispatch thread.
+     */
+    private static void onEventThread(Runnable update) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            update.run();
+        } else {
+            SwingUtilities.invokeLater(update);
         }
-        stats.countFinished();
+    }
 
-        population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
-        fieldView.repaint();
+    /**
+     * @return The RGB colour for each species code, EMPTY included.
+     */
+    private int[] getPalette() {
+        int[] palette = new int[GridKernels.CODES];
+        palette[Species.EMPTY] = EMPTY_COLOR.getRGB();
+        for (Species species : Species.values()) {
+            palette[species.code()] = getColor(species.organismClass()).getRGB();
+        }
+        return palette;
     }
 
     /**
@@ -125,7 +344,16 @@ public class SimulatorView extends JFrame {
      * @return true If there is more than one species alive.
      */
     public boolean isViable(Field field) {
-        return stats.isViable(field);
+        return field.isViable();
+    }
+
+    /**
+     * What the view shows of one step: the number of organisms with each
+     * species code, the block counts, and the cells of an area of the
+     * field row by row (both null if the view is zoomed out). Nothing in
+     * it changes once it has been handed over.
+     */
+    private record Snapshot(int step, int[] counts, RegionStats blocks, Rectangle area, byte[] cells) {
     }
 
     /**
@@ -135,15 +363,56 @@ public class SimulatorView extends JFrame {
      * component displays the field.
      * This is rather advanced GUI stuff - you can ignore this
      * for your project if you like.
+     *
+     * The view can be zoomed with the mouse wheel, panned by dragging,
+     * and fitted to the window again by double-clicking. Zoomed in, only
+     * the locations in view and a margin around them are held, one pixel
+     * each, so memory and the cost of a frame are bounded by the size of
+     * the window however large the field. Zoomed out past one pixel per
+     * location, each block of the field's region statistics is drawn as
+     * one tile instead, in the colour of its commonest species faded by
+     * how full it is; the tiles also stand in for cells not yet fetched.
      */
     private class FieldView extends JPanel {
         private final int GRID_VIEW_SCALING_FACTOR = 6;
+        // The largest size the view asks for, so large fields fit on screen.
+        private final int MAX_PREFERRED_WIDTH = 960;
+        private final int MAX_PREFERRED_HEIGHT = 720;
+        // Zoom limits in pixels per location, and the zoom per wheel notch.
+        private final double MIN_SCALE = 1.0 / 64;
+        private final double MAX_SCALE = 64;
+        private final double ZOOM_STEP = 1.25;
+        // Changes are tracked in square tiles of this many locations a side.
+        private final int TILE_SIZE = 16;
 
         private final int gridWidth, gridHeight;
-        private int xScale, yScale;
-        Dimension size;
-        private Graphics g;
-        private Image fieldImage;
+        // The cells of the latest snapshot, one pixel per location, the
+        // locations they cover and the codes they were drawn from; all
+        // null until a snapshot with cells is shown.
+        private BufferedImage cellImage;
+        private int[] pixels;
+        private Rectangle cellArea;
+        private byte[] lastDrawn;
+        // Which tiles of the cells have changed since they were last
+        // repainted.
+        private int tilesWide;
+        private boolean[] dirtyTiles;
+        private boolean anyDirty;
+
+        // Pixels per location, and the location (possibly fractional) at
+        // the top left of the view.
+        private double scale = GRID_VIEW_SCALING_FACTOR;
+        private double originX, originY;
+        // Whether the view follows the component's size, showing the
+        // whole field, rather than a zoom and pan chosen by the user.
+        private boolean fitted = true;
+
+        // The zoomed-out picture: one pixel per block of the latest
+        // snapshot's counts, rebuilt when it is next painted.
+        private RegionStats regionStats;
+        private int[] palette;
+        private BufferedImage overview;
+        private boolean overviewStale;
 
         /**
          * Create a new FieldView component.
@@ -151,60 +420,352 @@ public class SimulatorView extends JFrame {
         public FieldView(int height, int width) {
             gridHeight = height;
             gridWidth = width;
-            size = new Dimension(0, 0);
+            setBackground(UNKNOWN_COLOR);
+            // Until the view is laid out, ask for what it shows at its
+            // preferred size.
+            wanted = getPreferredSize().width >= width ? new Rectangle(width, height) : null;
+
+            MouseAdapter navigation = new MouseAdapter() {
+                private Point dragFrom;
+
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    zoomAt(e.getPoint(), Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()));
+                }
+
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    dragFrom = e.getPoint();
+                }
+
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    if (dragFrom != null) {
+                        pan(e.getX() - dragFrom.x, e.getY() - dragFrom.y);
+                        dragFrom = e.getPoint();
+                    }
+                }
+
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2) {
+                        fitted = true;
+                        viewChanged();
+                        repaint();
+                    }
+                }
+            };
+            addMouseListener(navigation);
+            addMouseMotionListener(navigation);
+            addMouseWheelListener(navigation);
         }
 
         /**
          * Tell the GUI manager how big we would like to be.
          */
         public Dimension getPreferredSize() {
-            return new Dimension(gridWidth * GRID_VIEW_SCALING_FACTOR,
-                    gridHeight * GRID_VIEW_SCALING_FACTOR);
+            double preferredScale = Math.min(GRID_VIEW_SCALING_FACTOR, Math.min(
+                    (double) MAX_PREFERRED_WIDTH / gridWidth, (double) MAX_PREFERRED_HEIGHT / gridHeight));
+            return new Dimension(Math.max(1, (int) (gridWidth * preferredScale)),
+                    Math.max(1, (int) (gridHeight * preferredScale)));
+        }
+
+        /**
+         * Show a snapshot: recolour the cells that differ from the last
+         * one and repaint them, or repaint the overview.
+         */
+        public void showSnapshot(Snapshot snapshot, int[] palette) {
+            if (!Arrays.equals(palette, this.palette)) {
+                lastDrawn = null;
+            }
+            this.palette = palette;
+            regionStats = snapshot.blocks();
+            overviewStale = true;
+            if (snapshot.cells() == null) {
+                // Cells from an older step would be out of date.
+                cellImage = null;
+                cellArea = null;
+                lastDrawn = null;
+            } else {
+                drawCells(snapshot.area(), snapshot.cells());
+            }
+            fitToSize();
+            if (scale < 1 || !holdsCells(visibleCells())) {
+                anyDirty = false;
+                repaint();
+            } else {
+                repaintDirty();
+            }
+            viewChanged();
         }
 
         /**
-         * Prepare for a new round of painting. Since the component
-         * may be resized, compute the scaling factor again.
+         * Recolour the cells whose code differs from the last snapshot, or
+         * all of them if the snapshot covers other locations.
          */
-        public void preparePaint() {
-            if (!size.equals(getSize())) { // if the size has changed...
-                size = getSize();
-                fieldImage = fieldView.createImage(size.width, size.height);
-                g = fieldImage.getGraphics();
-
-                xScale = size.width / gridWidth;
-                if (xScale < 1) {
-                    xScale = GRID_VIEW_SCALING_FACTOR;
+        private void drawCells(Rectangle area, byte[] cells) {
+            if (lastDrawn == null || !area.equals(cellArea)) {
+                if (cellImage == null || cellImage.getWidth() != area.width || cellImage.getHeight() != area.height) {
+                    cellImage = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+                    pixels = ((DataBufferInt) cellImage.getRaster().getDataBuffer()).getData();
+                    tilesWide = (area.width + TILE_SIZE - 1) / TILE_SIZE;
+                    dirtyTiles = new boolean[tilesWide * ((area.height + TILE_SIZE - 1) / TILE_SIZE)];
+                }
+                cellArea = area;
+                lastDrawn = cells;
+                GridKernels.mapColours(cells, palette, pixels);
+                Arrays.fill(dirtyTiles, true);
+                anyDirty = true;
+                return;
+            }
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != lastDrawn[i]) {
+                    pixels[i] = palette[cells[i]];
+                    dirtyTiles[(i / area.width / TILE_SIZE) * tilesWide + (i % area.width) / TILE_SIZE] = true;
+                    anyDirty = true;
                 }
-                yScale = size.height / gridHeight;
-                if (yScale < 1) {
-                    yScale = GRID_VIEW_SCALING_FACTOR;
+            }
+            lastDrawn = cells;
+        }
+
+        /**
+         * Ask for the changed tiles in view to be repainted: one rectangle
+         * for each run of changed tiles along a row of tiles.
+         */
+        private void repaintDirty() {
+            if (!anyDirty) {
+                return;
+            }
+            int tilesHigh = dirtyTiles.length / tilesWide;
+            for (int ty = 0; ty < tilesHigh; ty++) {
+                int tx = 0;
+                while (tx < tilesWide) {
+                    if (!dirtyTiles[ty * tilesWide + tx]) {
+                        tx++;
+                        continue;
+                    }
+                    int start = tx;
+                    while (tx < tilesWide && dirtyTiles[ty * tilesWide + tx]) {
+                        dirtyTiles[ty * tilesWide + tx] = false;
+                        tx++;
+                    }
+                    int left = toScreenX(cellArea.x + start * TILE_SIZE);
+                    int right = toScreenX(cellArea.x + Math.min(cellArea.width, tx * TILE_SIZE));
+                    int top = toScreenY(cellArea.y + ty * TILE_SIZE);
+                    int bottom = toScreenY(cellArea.y + Math.min(cellArea.height, (ty + 1) * TILE_SIZE));
+                    if (right >= 0 && bottom >= 0 && left <= getWidth() && top <= getHeight()) {
+                        repaint(left, top, right - left + 1, bottom - top + 1);
+                    }
                 }
             }
+            anyDirty = false;
+        }
+
+        /**
+         * Zoom in or out, keeping the location under a point where it is.
+         */
+        private void zoomAt(Point point, double factor) {
+            fitToSize();
+            double x = originX + point.x / scale;
+            double y = originY + point.y / scale;
+            scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+            originX = x - point.x / scale;
+            originY = y - point.y / scale;
+            fitted = false;
+            viewChanged();
+            repaint();
         }
 
         /**
-         * Paint on grid location on this field in a given color.
+         * Move the view by a number of pixels, keeping some of the field
+         * in view.
          */
-        public void drawMark(int x, int y, Color color) {
-            g.setColor(color);
-            g.fillRect(x * xScale, y * yScale, xScale - 1, yScale - 1);
+        private void pan(int dx, int dy) {
+            fitToSize();
+            originX = Math.max(-getWidth() / scale / 2, Math.min(gridWidth - getWidth() / scale / 2,
+                    originX - dx / scale));
+            originY = Math.max(-getHeight() / scale / 2, Math.min(gridHeight - getHeight() / scale / 2,
+                    originY - dy / scale));
+            fitted = false;
+            viewChanged();
+            repaint();
         }
 
         /**
-         * The field view component needs to be redisplayed. Copy the
-         * internal image to screen.
+         * While the view is fitted, show the whole field at the largest
+         * scale that fits the component.
+         */
+        private void fitToSize() {
+            if (fitted && getWidth() > 0 && getHeight() > 0) {
+                scale = Math.min((double) getWidth() / gridWidth, (double) getHeight() / gridHeight);
+                originX = 0;
+                originY = 0;
+            }
+        }
+
+        /**
+         * After a zoom, pan or resize, choose the cells that snapshots
+         * should hold: those in view and a margin of half the view on
+         * each side, so that small pans need nothing new, or none when
+         * zoomed out. Ask for them if the cells held do not cover the
+         * view.
+         */
+        private void viewChanged() {
+            fitToSize();
+            Rectangle visible = visibleCells();
+            if (scale < 1) {
+                wanted = null;
+                return;
+            }
+            Rectangle current = wanted;
+            if (!visible.isEmpty() && (current == null || !current.contains(visible))) {
+                wanted = new Rectangle(visible.x - visible.width / 2, visible.y - visible.height / 2,
+                        visible.width * 2, visible.height * 2).intersection(new Rectangle(gridWidth, gridHeight));
+            }
+            if (!holdsCells(visible)) {
+                refresh();
+            }
+        }
+
+        /**
+         * @return The locations in view, clipped to the field.
+         */
+        private Rectangle visibleCells() {
+            int firstCol = Math.max(0, (int) Math.floor(originX));
+            int firstRow = Math.max(0, (int) Math.floor(originY));
+            int lastCol = Math.min(gridWidth, (int) Math.ceil(originX + getWidth() / scale));
+            int lastRow = Math.min(gridHeight, (int) Math.ceil(originY + getHeight() / scale));
+            return new Rectangle(firstCol, firstRow, Math.max(0, lastCol - firstCol), Math.max(0, lastRow - firstRow));
+        }
+
+        /**
+         * @return true if the cells held cover the given locations.
+         */
+        private boolean holdsCells(Rectangle locations) {
+            return locations.isEmpty() || (cellArea != null && cellArea.contains(locations));
+        }
+
+        private int toScreenX(double col) {
+            return (int) Math.floor((col - originX) * scale);
+        }
+
+        private int toScreenY(double row) {
+            return (int) Math.floor((row - originY) * scale);
+        }
+
+        /**
+         * The field view component needs to be redisplayed. Draw the
+         * locations in view under the area being repainted, separating
+         * them with grid lines when they are large enough to show them,
+         * or the overview when zoomed out or where no cells are held.
          */
         public void paintComponent(Graphics g) {
-            if (fieldImage != null) {
-                Dimension currentSize = getSize();
-                if (size.equals(currentSize)) {
-                    g.drawImage(fieldImage, 0, 0, null);
-                } else {
-                    // Rescale the previous image.
-                    g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
+            super.paintComponent(g);
+            Dimension size = getSize();
+            if (size.width == 0 || size.height == 0) {
+                return;
+            }
+            // The view is only laid out now, or may have been resized.
+            viewChanged();
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(size);
+            }
+            if (regionStats != null && (scale < 1 || !holdsCells(visibleCells()))) {
+                paintOverview(g, clip, regionStats);
+            }
+            if (scale < 1 || cellArea == null) {
+                return;
+            }
+            // Draw just the locations under the clip.
+            int firstCol = Math.max(cellArea.x, (int) Math.floor(originX + clip.x / scale));
+            int lastCol = Math.min(cellArea.x + cellArea.width,
+                    (int) Math.ceil(originX + (clip.x + clip.width) / scale));
+            int firstRow = Math.max(cellArea.y, (int) Math.floor(originY + clip.y / scale));
+            int lastRow = Math.min(cellArea.y + cellArea.height,
+                    (int) Math.ceil(originY + (clip.y + clip.height) / scale));
+            if (firstCol >= lastCol || firstRow >= lastRow) {
+                return;
+            }
+            g.drawImage(cellImage,
+                    toScreenX(firstCol), toScreenY(firstRow), toScreenX(lastCol), toScreenY(lastRow),
+                    firstCol - cellArea.x, firstRow - cellArea.y, lastCol - cellArea.x, lastRow - cellArea.y,
+                    null);
+            if (scale > 2) {
+                g.setColor(EMPTY_COLOR);
+                for (int x = firstCol + 1; x <= lastCol; x++) {
+                    int px = toScreenX(x) - 1;
+                    g.drawLine(px, toScreenY(firstRow), px, toScreenY(lastRow));
+                }
+                for (int y = firstRow + 1; y <= lastRow; y++) {
+                    int py = toScreenY(y) - 1;
+                    g.drawLine(toScreenX(firstCol), py, toScreenX(lastCol), py);
                 }
             }
         }
+
+        /**
+         * Draw the blocks under the area being repainted, one tile each.
+         */
+        private void paintOverview(Graphics g, Rectangle clip, RegionStats stats) {
+            if (overviewStale || overview == null || overview.getWidth() != stats.getBlockCols()
+                    || overview.getHeight() != stats.getBlockRows()) {
+                overview = renderOverview(stats);
+                overviewStale = false;
+            }
+            int block = stats.getBlockSize();
+            int firstCol = Math.max(0, (int) Math.floor((originX + clip.x / scale) / block));
+            int lastCol = Math.min(stats.getBlockCols(),
+                    (int) Math.ceil((originX + (clip.x + clip.width) / scale) / block));
+            int firstRow = Math.max(0, (int) Math.floor((originY + clip.y / scale) / block));
+            int lastRow = Math.min(stats.getBlockRows(),
+                    (int) Math.ceil((originY + (clip.y + clip.height) / scale) / block));
+            if (firstCol >= lastCol || firstRow >= lastRow) {
+                return;
+            }
+            g.drawImage(overview,
+                    toScreenX(firstCol * block), toScreenY(firstRow * block),
+                    toScreenX(Math.min(gridWidth, lastCol * block)), toScreenY(Math.min(gridHeight, lastRow * block)),
+                    firstCol, firstRow, lastCol, lastRow, null);
+        }
+
+        /**
+         * @return One pixel per block: the colour of the block's commonest
+         *         species, faded towards the empty colour by how empty the
+         *         block is.
+         */
+        private BufferedImage renderOverview(RegionStats stats) {
+            int cols = stats.getBlockCols();
+            int rows = stats.getBlockRows();
+            BufferedImage image = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_RGB);
+            int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            int[] counts = stats.getCounts();
+            int blocks = rows * cols;
+            int empty = palette[Species.EMPTY];
+            for (int blockRow = 0; blockRow < rows; blockRow++) {
+                for (int blockCol = 0; blockCol < cols; blockCol++) {
+                    int block = blockRow * cols + blockCol;
+                    int dominant = Species.EMPTY;
+                    int total = 0;
+                    for (int code = 1; code < GridKernels.CODES; code++) {
+                        int count = counts[code * blocks + block];
+                        total += count;
+                        if (dominant == Species.EMPTY || count > counts[dominant * blocks + block]) {
+                            dominant = code;
+                        }
+                    }
+                    double density = Math.min(1, total / (double) (stats.getBlockSize() * stats.getBlockSize()));
+                    out[block] = total == 0 ? empty : blend(empty, palette[dominant], density);
+                }
+            }
+            return image;
+        }
+
+        private int blend(int from, int to, double amount) {
+            int r = (int) (((from >> 16) & 0xFF) + (((to >> 16) & 0xFF) - ((from >> 16) & 0xFF)) * amount);
+            int g = (int) (((from >> 8) & 0xFF) + (((to >> 8) & 0xFF) - ((from >> 8) & 0xFF)) * amount);
+            int b = (int) ((from & 0xFF) + ((to & 0xFF) - (from & 0xFF)) * amount);
+            return (r << 16) | (g << 8) | b;
+        }
     }
 }
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+
+/**
+ * Where the organisms of each species are in a field, bucketed by species
+ * and by square buckets of cells, so that the nearest organism of a
+ * species within some distance of a cell can be found by looking only at
+ * the buckets near it rather than at every cell within the distance.
+ *
+ * Distances are in steps of a move to an adjacent cell, diagonals
+ * included (the larger of the row and column differences). The index is
+ * built in one pass over the species codes of a field, the first time a
+ * search is made after the field has changed (see Field.findNearest).
+ * While a step runs, organisms are placed in the next field, not in the
+ * one being searched, but organisms in the searched field do die. A
+ * death does not drop the index: the organism stays in it, and searches
+ * check that what they find is alive. So each step builds the index at
+ * most once.
+ *
+ * Predators sense prey within a radius, chosen at startup with
+ * -Dsimulator.sensing=cells or with setSensingRadius. At the default of
+ * 1 they only see the adjacent cells, as they always have; at a larger
+ * radius a predator with no prey next to it moves towards the nearest it
+ * senses (see Organism.approachPrey).
+ *
+ * @version 1.0
+ */
+public class SpatialIndex {
+    // The side of a bucket in cells.
+    public static final int BUCKET_SIZE = 8;
+
+    private static volatile int sensingRadius = Integer.getInteger("simulator.sensing", 1);
+
+    private final Field field;
+    private final int depth, width;
+    private final int bucketRows, bucketCols;
+    // The cells of each species' bucket, as row * width + col, in the
+    // order (code, bucket, row, col); bucket b of code c holds
+    // cells[starts[c * buckets + b]] up to cells[starts[c * buckets + b + 1]].
+    private final int[] starts;
+    private final int[] cells;
+
+    /**
+     * Index the occupants of a field.
+     *
+     * @param field The field, which must not change while the index is
+     *              used.
+     */
+    public SpatialIndex(Field field) {
+        this.field = field;
+        depth = field.getDepth();
+        width = field.getWidth();
+        bucketRows = (depth + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        bucketCols = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        int buckets = bucketRows * bucketCols;
+        byte[] codes = field.getSpeciesCodes();
+
+        // Count each bucket's occupants, then place them, as a counting sort.
+        starts = new int[GridKernels.CODES * buckets + 1];
+        int occupied = 0;
+        for (int row = 0; row < depth; row++) {
+            int bucketBase = (row / BUCKET_SIZE) * bucketCols;
+            for (int col = 0; col < width; col++) {
+                byte code = codes[row * width + col];
+                if (code != Species.EMPTY) {
+                    starts[code * buckets + bucketBase + col / BUCKET_SIZE + 1]++;
+                    occupied++;
+                }
+            }
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        cells = new int[occupied];
+        int[] next = Arrays.copyOf(starts, starts.length - 1);
+        for (int row = 0; row < depth; row++) {
+            int bucketBase = (row / BUCKET_SIZE) * bucketCols;
+            for (int col = 0; col < width; col++) {
+                byte code = codes[row * width + col];
+                if (code != Species.EMPTY) {
+                    cells[next[code * buckets + bucketBase + col / BUCKET_SIZE]++] = row * width + col;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return How far predators sense prey, in cells.
+     */
+    public static int getSensingRadius() {
+        return sensingRadius;
+    }
+
+    /**
+     * Choose how far predators sense prey.
+     *
+     * @param cells The radius in cells; 1 for the adjacent cells only.
+     */
+    public static void setSensingRadius(int cells) {
+        sensingRadius = cells;
+    }
+
+    /**
+     * @return The distance between two locations, in moves to an adjacent
+     *         cell.
+     */
+    public static int distance(Location a, Location b) {
+        return Math.max(Math.abs(a.row() - b.row()), Math.abs(a.col() - b.col()));
+    }
+
+    /**
+     * Find the nearest live organism of any of the given species within a
+     * distance of a location, other than at the location itself. Of those
+     * equally near, the first in the order of the buckets is found.
+     *
+     * @param from    The location.
+     * @param radius  The greatest distance to look.
+     * @param species The species to look for.
+     * @return The organism's location, or null if there is none.
+     */
+    public Location findNearest(Location from, int radius, Species... species) {
+        int buckets = bucketRows * bucketCols;
+        int homeRow = from.row() / BUCKET_SIZE;
+        int homeCol = from.col() / BUCKET_SIZE;
+        int best = radius + 1;
+        int bestCell = -1;
+        // Search rings of buckets outwards, until no bucket in the next
+        // ring can hold anything nearer than what has been found.
+        for (int ring = 0; (ring - 1) * BUCKET_SIZE + 1 < best; ring++) {
+            boolean inField = false;
+            for (int bucketRow = homeRow - ring; bucketRow <= homeRow + ring; bucketRow++) {
+                if (bucketRow < 0 || bucketRow >= bucketRows) {
+                    continue;
+                }
+                boolean edgeRow = bucketRow == homeRow - ring || bucketRow == homeRow + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int bucketCol = homeCol - ring; bucketCol <= homeCol + ring; bucketCol += Math.max(1, step)) {
+                    if (bucketCol < 0 || bucketCol >= bucketCols) {
+                        continue;
+                    }
+                    inField = true;
+                    int bucket = bucketRow * bucketCols + bucketCol;
+                    for (Species wanted : species) {
+                        int slot = wanted.code() * buckets + bucket;
+                        for (int i = starts[slot]; i < starts[slot + 1]; i++) {
+                            int cell = cells[i];
+                            int d = Math.max(Math.abs(cell / width - from.row()), Math.abs(cell % width - from.col()));
+                            if (d > 0 && d < best && isAlive(cell)) {
+                                best = d;
+                                bestCell = cell;
+                            }
+                        }
+                    }
+                }
+            }
+            if (!inField) {
+                break;
+            }
+        }
+        return bestCell < 0 ? null : new Location(bestCell / width, bestCell % width);
+    }
+
+    private boolean isAlive(int cell) {
+        Organism occupant = field.getAnimalAt(new Location(cell / width, cell % width));
+        return occupant != null && occupant.isAlive();
+    }
+}
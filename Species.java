@@ -0,0 +1,102 @@
+import java.awt.Color;
+
+/**
+ * The species that can occupy a location in the field, together with the
+ * compact code used to store them in per-cell byte grids. Code 0 is
+ * reserved for an empty location, so every code fits in three bits.
+ * 
+ * @version 1.0
+ */
+public enum Species {
+    SHARK(Shark.class, Color.red),
+    BARRACUDA(Barracuda.class, Color.green),
+    TUNA(Tuna.class, Color.yellow),
+    SARDINE(Sardine.class, Color.cyan),
+    JELLYFISH(Jellyfish.class, Color.magenta),
+    ALGAE(Algae.class, new Color(0, 128, 0));
+
+    // The code stored for a location with nothing in it.
+    public static final byte EMPTY = 0;
+    // The color used to display an empty location.
+    public static final Color EMPTY_COLOR = Color.white;
+
+    // Species indexed by code - 1, cached to avoid copying values().
+    private static final Species[] BY_CODE = values();
+
+    private final Class<? extends Organism> organismClass;
+    private final Color defaultColor;
+
+    Species(Class<? extends Organism> organismClass, Color defaultColor) {
+        this.organismClass = organismClass;
+        this.defaultColor = defaultColor;
+    }
+
+    /**
+     * @return The code used for this species in a species grid.
+     */
+    public byte code() {
+        return (byte) (ordinal() + 1);
+    }
+
+    /**
+     * @return The class of organism belonging to this species.
+     */
+    public Class<? extends Organism> organismClass() {
+        return organismClass;
+    }
+
+    /**
+     * @return The color this species is displayed in unless another is
+     *         chosen.
+     */
+    public Color defaultColor() {
+        return defaultColor;
+    }
+
+    /**
+     * Create a new organism of this species.
+     * 
+     * @param randomAge If true, the organism will have a random age.
+     * @param location  The organism's location.
+     * @return The new organism.
+     */
+    public Organism create(boolean randomAge, Location location) {
+        return switch (this) {
+            case SHARK -> new Shark(randomAge, location);
+            case BARRACUDA -> new Barracuda(randomAge, location);
+            case TUNA -> new Tuna(randomAge, location);
+            case SARDINE -> new Sardine(randomAge, location);
+            case JELLYFISH -> new Jellyfish(randomAge, location);
+            case ALGAE -> new Algae(location);
+        };
+    }
+
+    /**
+     * Return the species stored under the given code.
+     * 
+     * @param code A species code.
+     * @return The species, or null if the code is EMPTY.
+     */
+    public static Species fromCode(int code) {
+        return code == EMPTY ? null : BY_CODE[code - 1];
+    }
+
+    /**
+     * @return The default RGB color for each species code, EMPTY included.
+     */
+    public static int[] defaultPalette() {
+        int[] palette = new int[BY_CODE.length + 1];
+        palette[EMPTY] = EMPTY_COLOR.getRGB();
+        for (Species species : BY_CODE) {
+            palette[species.code()] = species.defaultColor.getRGB();
+        }
+        return palette;
+    }
+
+    /**
+     * @return The number of species, which is also the largest code.
+     */
+    public static int count() {
+        return BY_CODE.length;
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact encodings of a species code grid (see Field.getSpeciesCodes).
+ *
+ * A keyframe holds the whole grid as runs of equal codes. Each run is one
+ * varint: the run length shifted left three bits, or'ed with the code.
+ *
+ * A delta holds only the cells that changed since a previous grid. It is
+ * a sequence of segments, each made of a varint count of unchanged cells
+ * to skip, a varint count of cells that follow, and those cells' codes
+ * packed three bits each (low bits first, padded to a whole byte). Short
+ * gaps between changed cells are folded into one segment, since sending
+ * a few unchanged codes is cheaper than starting a new segment. The size
+ * of a delta therefore depends on how much changed, not on the grid size.
+ *
+ * @version 1.0
+ */
+public class SpeciesGridCodec {
+    // Unchanged gaps up to this long are sent inside a segment.
+    private static final int MAX_FOLDED_GAP = 4;
+
+    /**
+     * Encode a whole grid.
+     *
+     * @param codes The grid.
+     * @return The encoded keyframe.
+     */
+    public static byte[] encodeKeyframe(byte[] codes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < codes.length) {
+            byte code = codes[i];
+            int start = i;
+            while (i < codes.length && codes[i] == code) {
+                i++;
+            }
+            writeVarint(out, ((long) (i - start) << 3) | code);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a keyframe into a grid.
+     *
+     * @param data   The encoded bytes.
+     * @param offset Where the keyframe starts.
+     * @param length The keyframe's length in bytes.
+     * @param codes  Receives the grid.
+     */
+    public static void decodeKeyframe(byte[] data, int offset, int length, byte[] codes) {
+        int[] position = { offset };
+        int end = offset + length;
+        int cell = 0;
+        while (position[0] < end) {
+            long run = readVarint(data, position);
+            byte code = (byte) (run & 7);
+            int count = (int) (run >>> 3);
+            for (int i = 0; i < count; i++) {
+                codes[cell++] = code;
+            }
+        }
+    }
+
+    /**
+     * Encode the cells that differ between two grids.
+     *
+     * @param previous The earlier grid.
+     * @param current  The later grid, of the same size.
+     * @return The encoded delta; empty if nothing changed.
+     */
+    public static byte[] encodeDelta(byte[] previous, byte[] current) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int n = current.length;
+        int cursor = 0;
+        int i = 0;
+        while (true) {
+            while (i < n && previous[i] == current[i]) {
+                i++;
+            }
+            if (i == n) {
+                break;
+            }
+            // Extend the segment while the gaps between changes are short.
+            int start = i;
+            int end = i + 1;
+            int scan = end;
+            while (scan < n && scan - end <= MAX_FOLDED_GAP) {
+                if (previous[scan] != current[scan]) {
+                    end = scan + 1;
+                }
+                scan++;
+            }
+            writeVarint(out, start - cursor);
+            writeVarint(out, end - start);
+            writePacked(out, current, start, end);
+            cursor = end;
+            i = end;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Apply a delta to a grid, bringing it up to date.
+     *
+     * @param data   The encoded bytes.
+     * @param offset Where the delta starts.
+     * @param length The delta's length in bytes.
+     * @param codes  The grid to update.
+     */
+    public static void applyDelta(byte[] data, int offset, int length, byte[] codes) {
+        int[] position = { offset };
+        int end = offset + length;
+        int cell = 0;
+        while (position[0] < end) {
+            cell += (int) readVarint(data, position);
+            int count = (int) readVarint(data, position);
+            long bits = 0;
+            int available = 0;
+            for (int i = 0; i < count; i++) {
+                if (available < 3) {
+                    bits |= (long) (data[position[0]++] & 0xFF) << available;
+                    available += 8;
+                }
+                codes[cell++] = (byte) (bits & 7);
+                bits >>>= 3;
+                available -= 3;
+            }
+        }
+    }
+
+    /**
+     * Pack codes three bits each, low bits first.
+     */
+    private static void writePacked(ByteArrayOutputStream out, byte[] codes, int from, int to) {
+        int bits = 0;
+        int held = 0;
+        for (int i = from; i < to; i++) {
+            bits |= (codes[i] & 7) << held;
+            held += 3;
+            if (held >= 8) {
+                out.write(bits & 0xFF);
+                bits >>>= 8;
+                held -= 8;
+            }
+        }
+        if (held > 0) {
+            out.write(bits & 0xFF);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read a varint, advancing position[0] past it.
+     */
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * Something that wants to be told each time the simulation completes a
+ * step, such as an exporter or a remote view.
+ * 
+ * @version 1.0
+ */
+public interface StepListener {
+    /**
+     * Called after each step, and once after the field is populated.
+     * The field is the simulation's current state: listeners that keep
+     * any of it beyond this call must copy what they need.
+     * 
+     * @param step  The step just completed (0 after populating).
+     * @param field The state of the field after the step.
+     * @param isDay Whether it is day or night.
+     */
+    void stepCompleted(int step, Field field, boolean isDay);
+}
@@ -0,0 +1,252 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes a snapshot of each step (see StepSnapshot) to subscribers,
+ * such as loggers, exporters or views, without ever making the step loop
+ * wait for them.
+ *
+ * Each subscriber is sent snapshots on an executor, no more than it has
+ * requested, and chooses how it is sent them:
+ * - LATEST: it is sent the newest snapshot when it next has demand;
+ *   snapshots it had no demand for are skipped.
+ * - EVERY: it is sent every snapshot, in order. Up to a given number
+ *   wait for demand; a subscriber that falls further behind is sent
+ *   onError and cancelled.
+ *
+ * Snapshots are only built while there are subscribers (see
+ * hasSubscribers).
+ *
+ * @version 1.0
+ */
+public class StepPublisher implements Flow.Publisher<StepSnapshot> {
+    // Snapshots an EVERY subscriber may fall behind by, unless another
+    // number is chosen.
+    public static final int DEFAULT_BUFFER = 256;
+
+    // Runs subscribers, unless another executor is chosen.
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "step-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * How a subscriber is sent snapshots.
+     */
+    public enum Delivery {
+        LATEST, EVERY
+    }
+
+    private final Executor executor;
+    private final CopyOnWriteArrayList<StepSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a publisher that runs subscribers on a shared pool of daemon
+     * threads.
+     */
+    public StepPublisher() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Create a publisher that runs subscribers on the given executor.
+     *
+     * @param executor The executor.
+     */
+    public StepPublisher(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribe for the latest snapshot only.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super StepSnapshot> subscriber) {
+        subscribe(subscriber, Delivery.LATEST, DEFAULT_BUFFER);
+    }
+
+    /**
+     * Subscribe, choosing how snapshots are sent.
+     *
+     * @param subscriber The subscriber.
+     * @param delivery   LATEST or EVERY.
+     * @param buffer     For EVERY, the snapshots the subscriber may fall
+     *                   behind by before it is cancelled.
+     */
+    public void subscribe(Flow.Subscriber<? super StepSnapshot> subscriber, Delivery delivery, int buffer) {
+        StepSubscription subscription = new StepSubscription(subscriber, delivery, buffer);
+        subscriptions.add(subscription);
+        subscription.drain();
+    }
+
+    /**
+     * @return true if anyone is subscribed, and so a snapshot is wanted.
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Offer a snapshot to every subscriber. Never waits for them.
+     *
+     * @param snapshot The snapshot.
+     */
+    public void submit(StepSnapshot snapshot) {
+        for (StepSubscription subscription : subscriptions) {
+            subscription.offer(snapshot);
+        }
+    }
+
+    /**
+     * Tell every subscriber that there will be no more snapshots.
+     */
+    public void close() {
+        for (StepSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * One subscriber's demand and waiting snapshots. Signals, onSubscribe
+     * included, are sent by one drain at a time, so the subscriber is
+     * never called concurrently.
+     */
+    private class StepSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super StepSnapshot> subscriber;
+        private final Delivery delivery;
+        private final int buffer;
+
+        // For LATEST, the newest snapshot not yet sent.
+        private final AtomicReference<StepSnapshot> latest = new AtomicReference<>();
+        // For EVERY, the snapshots not yet sent; guarded by itself.
+        private final Queue<StepSnapshot> queue = new ArrayDeque<>();
+        // Snapshots requested and not yet sent, capped at Long.MAX_VALUE.
+        private long requested;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable failure;
+        // Whether onSubscribe, or a final signal, has been sent.
+        private boolean started, terminated;
+        // Drains asked for and not yet run.
+        private final AtomicInteger drains = new AtomicInteger();
+
+        StepSubscription(Flow.Subscriber<? super StepSnapshot> subscriber, Delivery delivery, int buffer) {
+            this.subscriber = subscriber;
+            this.delivery = delivery;
+            this.buffer = buffer;
+        }
+
+        void offer(StepSnapshot snapshot) {
+            if (delivery == Delivery.LATEST) {
+                latest.set(snapshot);
+            } else {
+                synchronized (queue) {
+                    if (queue.size() >= buffer) {
+                        failure = new IllegalStateException(
+                                "Subscriber fell more than " + buffer + " steps behind");
+                        subscriptions.remove(this);
+                    } else {
+                        queue.add(snapshot);
+                    }
+                }
+            }
+            drain();
+        }
+
+        void complete() {
+            completed = true;
+            subscriptions.remove(this);
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Non-positive request: " + n);
+                subscriptions.remove(this);
+            } else {
+                synchronized (this) {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void drain() {
+            if (drains.getAndIncrement() == 0) {
+                executor.execute(this::run);
+            }
+        }
+
+        /**
+         * Send what there is demand for, and any final signal, until no
+         * more drains have been asked for.
+         */
+        private void run() {
+            int missed = 1;
+            do {
+                if (!started) {
+                    started = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!cancelled && !terminated) {
+                    if (failure != null) {
+                        terminated = true;
+                        subscriber.onError(failure);
+                        break;
+                    }
+                    StepSnapshot next = null;
+                    synchronized (this) {
+                        if (requested > 0) {
+                            next = take();
+                            if (next != null && requested != Long.MAX_VALUE) {
+                                requested--;
+                            }
+                        }
+                    }
+                    if (next == null) {
+                        if (completed && isEmpty()) {
+                            terminated = true;
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+                    subscriber.onNext(next);
+                }
+                missed = drains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private StepSnapshot take() {
+            if (delivery == Delivery.LATEST) {
+                return latest.getAndSet(null);
+            }
+            synchronized (queue) {
+                return queue.poll();
+            }
+        }
+
+        private boolean isEmpty() {
+            if (delivery == Delivery.LATEST) {
+                return latest.get() == null;
+            }
+            synchronized (queue) {
+                return queue.isEmpty();
+            }
+        }
+    }
+}
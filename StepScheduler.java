@@ -0,0 +1,260 @@
+/**
+ * Run a simulation at a fixed number of steps per second, rather than
+ * sleeping for a fixed time after each step whatever the step cost.
+ *
+ * Steps are scheduled at fixed intervals from the start of the run, so
+ * the time a step takes is taken off the wait before the next one. When
+ * the simulation falls behind it stops waiting and skips drawing steps
+ * until it has caught up; if it falls too far behind, the missed steps
+ * are forgotten instead of being run back to back.
+ *
+ * The run can be paused, resumed, advanced one step at a time while
+ * paused, and stopped, from any thread. The achieved rate, how late the
+ * last step started and how many frames were skipped are available
+ * while it runs. The view can also ask for the current step to be drawn
+ * again, e.g. after being panned; this is done on the thread running
+ * the simulation, between steps.
+ *
+ * @version 1.0
+ */
+public class StepScheduler {
+    // A target rate meaning "as fast as possible".
+    public static final double UNBOUNDED = 0;
+    // Once this many steps behind, forget the missed steps.
+    private static final int MAX_CATCH_UP_STEPS = 5;
+    // How often the measured rate is brought up to date.
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final Simulator simulator;
+    private volatile double targetRate;
+
+    // Control state, guarded by this.
+    private boolean paused;
+    private boolean stopped;
+    private int singleSteps;
+    // Whether the schedule must restart from now, e.g. after a pause.
+    private boolean resync;
+    // Whether the current step is to be drawn again (see redraw).
+    private boolean redrawAsked;
+
+    private volatile double stepsPerSecond;
+    private volatile double lagMillis;
+    private volatile long skippedFrames;
+
+    /**
+     * Create a scheduler for a simulation.
+     *
+     * @param simulator  The simulation to run.
+     * @param targetRate Steps per second, or UNBOUNDED.
+     */
+    public StepScheduler(Simulator simulator, double targetRate) {
+        this.simulator = simulator;
+        this.targetRate = targetRate;
+    }
+
+    /**
+     * Run the simulation for the given number of steps, or until it is
+     * no longer viable or the scheduler is stopped.
+     *
+     * @param numSteps The number of steps to run for.
+     */
+    public void run(int numSteps) {
+        synchronized (this) {
+            stopped = false;
+            resync = true;
+        }
+        long next = 0;
+        long windowStart = System.nanoTime();
+        int windowSteps = 0;
+        for (int n = 1; n <= numSteps && simulator.getField().isViable(); n++) {
+            if (!awaitTurn()) {
+                break;
+            }
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (resync) {
+                    next = now;
+                    resync = false;
+                }
+            }
+            long period = period();
+            boolean behind = period > 0 && now - next >= period;
+            lagMillis = period > 0 ? Math.max(0, now - next) / 1e6 : 0;
+            simulator.simulateOneStep(!behind);
+            if (behind) {
+                skippedFrames++;
+            }
+
+            now = System.nanoTime();
+            windowSteps++;
+            if (now - windowStart >= RATE_WINDOW_NANOS) {
+                stepsPerSecond = windowSteps * 1e9 / (now - windowStart);
+                windowStart = now;
+                windowSteps = 0;
+            }
+            if (period > 0) {
+                next += period;
+                if (now - next > MAX_CATCH_UP_STEPS * period) {
+                    next = now;
+                } else {
+                    waitUntil(next);
+                }
+            } else {
+                next = now;
+            }
+        }
+    }
+
+    /**
+     * Pause the run before its next step.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Resume a paused run.
+     */
+    public synchronized void resume() {
+        paused = false;
+        resync = true;
+        notifyAll();
+    }
+
+    /**
+     * Run one step of a paused run.
+     */
+    public synchronized void singleStep() {
+        singleSteps++;
+        notifyAll();
+    }
+
+    /**
+     * Stop the run before its next step.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Draw the current step again before the next one, e.g. when paused.
+     * Outside a run nothing is drawn.
+     */
+    public synchronized void redraw() {
+        redrawAsked = true;
+        notifyAll();
+    }
+
+    /**
+     * @return Whether the run is paused.
+     */
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Change the target rate; it takes effect from the next step.
+     *
+     * @param stepsPerSecond Steps per second, or UNBOUNDED.
+     */
+    public synchronized void setTargetRate(double stepsPerSecond) {
+        targetRate = stepsPerSecond;
+        resync = true;
+        notifyAll();
+    }
+
+    /**
+     * @return The target rate in steps per second, or UNBOUNDED.
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * @return The steps per second achieved over the last second.
+     */
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    /**
+     * @return How late the last step started, in milliseconds.
+     */
+    public double getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * @return The number of steps run without being drawn.
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Wait while paused, unless a single step has been asked for,
+     * drawing the current step again whenever that is asked for.
+     *
+     * @return false if the run has been stopped.
+     */
+    private boolean awaitTurn() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (paused && singleSteps == 0 && !stopped && !redrawAsked) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (!paused || singleSteps > 0 || stopped) {
+                    if (paused && singleSteps > 0) {
+                        singleSteps--;
+                        resync = true;
+                    }
+                    return !stopped;
+                }
+                redrawAsked = false;
+            }
+            // Outside the lock, so that drawing does not hold up control.
+            simulator.redraw();
+        }
+    }
+
+    /**
+     * Wait until the given time, returning early if the run is paused,
+     * stopped or given a new rate, and drawing the current step again
+     * whenever that is asked for.
+     */
+    private void waitUntil(long deadline) {
+        while (true) {
+            synchronized (this) {
+                try {
+                    long remaining;
+                    while (!paused && !stopped && !resync && !redrawAsked
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (!redrawAsked || paused || stopped || resync || deadline - System.nanoTime() <= 0) {
+                    return;
+                }
+                redrawAsked = false;
+            }
+            simulator.redraw();
+        }
+    }
+
+    /**
+     * @return The time between steps in nanoseconds, or 0 if unbounded.
+     */
+    private long period() {
+        double rate = targetRate;
+        return rate > 0 ? (long) (1e9 / rate) : 0;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * An immutable record of the simulation after one step: the step, the
+ * weather, whether it is day, the number of live organisms of each
+ * species and the species code of every location.
+ *
+ * The grid is a read-only view of the step's own species codes rather
+ * than a copy. The field itself goes on changing during the next step,
+ * as its organisms die, but a death only changes its counts (see
+ * Field.animalDied): the codes are only written as organisms are
+ * placed, and each step places them in a new field (as does a reset).
+ * The counts are copied when the snapshot is taken.
+ *
+ * @version 1.0
+ */
+public final class StepSnapshot {
+    private final int step;
+    private final String weather;
+    private final boolean isDay;
+    // Live organisms of each species, indexed by code.
+    private final int[] counts;
+    private final int depth, width;
+    private final byte[] codes;
+
+    /**
+     * Take a snapshot of a field after a step.
+     *
+     * @param step    The step.
+     * @param weather The weather during the step.
+     * @param isDay   Whether it is day.
+     * @param field   The field after the step.
+     */
+    public StepSnapshot(int step, String weather, boolean isDay, Field field) {
+        this.step = step;
+        this.weather = weather;
+        this.isDay = isDay;
+        depth = field.getDepth();
+        width = field.getWidth();
+        codes = field.getSpeciesCodes();
+        RegionStats stats = field.getRegionStats();
+        counts = new int[GridKernels.CODES];
+        for (Species species : Species.values()) {
+            counts[species.code()] = stats.countInBlocks(species, 0, 0, stats.getBlockRows(),
+                    stats.getBlockCols());
+        }
+    }
+
+    /**
+     * @return The step.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return The weather during the step.
+     */
+    public String getWeather() {
+        return weather;
+    }
+
+    /**
+     * @return Whether it is day.
+     */
+    public boolean isDay() {
+        return isDay;
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of live organisms of the species.
+     */
+    public int getCount(Species species) {
+        return counts[species.code()];
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Return the species code at a location.
+     *
+     * @param row The location's row.
+     * @param col The location's column.
+     * @return The species code, or Species.EMPTY.
+     */
+    public byte getCode(int row, int col) {
+        return codes[row * width + col];
+    }
+
+    /**
+     * Copy the species code of every location, row by row.
+     *
+     * @param into Receives the codes; at least depth * width long.
+     */
+    public void copyCodes(byte[] into) {
+        System.arraycopy(codes, 0, into, 0, codes.length);
+    }
+
+    /**
+     * @return The grid encoded as a keyframe (see SpeciesGridCodec).
+     */
+    public byte[] encodeGrid() {
+        return SpeciesGridCodec.encodeKeyframe(codes);
+    }
+}
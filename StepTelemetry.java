@@ -0,0 +1,391 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measures each step of a simulation: how long each phase takes, how
+ * many bytes it allocates, and how many collections it triggers and how
+ * long they pause, keeping percentiles over the most recent steps. The
+ * measurements, the step rate and the populations are published as an
+ * MXBean (see StepTelemetryMXBean) named simulator:type=StepTelemetry.
+ *
+ * Allocation per phase is that of the simulation thread, which is cheap
+ * to read; allocation per step is summed over every live thread, so it
+ * includes organisms acting on the pool threads of a parallel step. It
+ * is measured thread by thread, from what each had allocated when the
+ * step began (nothing, for a thread started since), so a thread that
+ * ends during the step drops out of the sum without making it negative;
+ * what such a thread allocated in the step is not counted.
+ *
+ * Collections are read from the collector beans at every phase
+ * boundary, like the allocation counters, so each is put down to the
+ * phase it ended in. A collection that a phase triggers may still be
+ * running when the phase ends, and is then counted in a later phase.
+ *
+ * Telemetry can be turned on at startup with -Dsimulator.telemetry=jmx
+ * or with setEnabled, before the simulator is created.
+ *
+ * @version 1.0
+ */
+public class StepTelemetry implements StepTelemetryMXBean {
+    // The name the telemetry is registered under.
+    public static final String OBJECT_NAME = "simulator:type=StepTelemetry";
+    // Steps kept for the percentiles.
+    private static final int WINDOW = 1024;
+    // How often the step rate is brought up to date.
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private static volatile boolean enabled = "jmx".equals(System.getProperty("simulator.telemetry"));
+
+    /**
+     * The phases of a step, in the order they run.
+     */
+    public enum Phase {
+        ACT, SWAP, REPORT, RENDER, NOTIFY
+    }
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    // The start of the step and of the current phase, and what had been
+    // allocated and collected then.
+    private long stepStart, phaseStart;
+    private long phaseAllocated;
+    private long phaseGcCount, phaseGcMillis;
+    // The bytes each live thread had allocated when the step began.
+    private final Map<Long, Long> stepAllocated = new HashMap<>();
+    private long stepGcCount, stepGcMillis;
+
+    // Guarded by this, as JMX reads them from its own threads.
+    private final Window stepNanos = new Window();
+    private final Window stepBytes = new Window();
+    private final Window stepGcPause = new Window();
+    private final Window[] phaseNanos = new Window[Phase.values().length];
+    private final Window[] phaseBytes = new Window[Phase.values().length];
+    private final Window[] phaseGcPause = new Window[Phase.values().length];
+    private final long[] phaseGcCounts = new long[Phase.values().length];
+    private long gcCount, gcMillis;
+    private int step;
+    private final Map<String, Integer> populations = new LinkedHashMap<>();
+
+    private long rateWindowStart;
+    private int rateWindowSteps;
+    private volatile double stepsPerSecond;
+
+    /**
+     * Create telemetry that is not yet registered.
+     */
+    public StepTelemetry() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new Window();
+            phaseBytes[i] = new Window();
+            phaseGcPause[i] = new Window();
+        }
+        rateWindowStart = System.nanoTime();
+    }
+
+    /**
+     * @return true if simulators should measure their steps.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose whether simulators created from now on measure their steps.
+     *
+     * @param measure true to measure steps.
+     */
+    public static void setEnabled(boolean measure) {
+        enabled = measure;
+    }
+
+    /**
+     * Create telemetry and register it with the platform MBean server,
+     * replacing any registered before (e.g. by an earlier simulator).
+     *
+     * @return The telemetry.
+     */
+    public static StepTelemetry register() {
+        StepTelemetry telemetry = new StepTelemetry();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(telemetry, name);
+        } catch (JMException e) {
+            System.err.println("Step telemetry is not available over JMX: " + e.getMessage());
+        }
+        return telemetry;
+    }
+
+    /**
+     * Start measuring a step, and its first phase.
+     */
+    public void beginStep() {
+        stepAllocated.clear();
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] > 0) {
+                stepAllocated.put(ids[i], bytes[i]);
+            }
+        }
+        stepGcCount = gcCountSoFar();
+        stepGcMillis = gcMillisSoFar();
+        phaseGcCount = stepGcCount;
+        phaseGcMillis = stepGcMillis;
+        phaseAllocated = threads.getCurrentThreadAllocatedBytes();
+        stepStart = System.nanoTime();
+        phaseStart = stepStart;
+    }
+
+    /**
+     * Finish measuring a phase, and start measuring the next.
+     *
+     * @param phase The phase just finished.
+     */
+    public void endPhase(Phase phase) {
+        long now = System.nanoTime();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long count = gcCountSoFar();
+        long millis = gcMillisSoFar();
+        synchronized (this) {
+            phaseNanos[phase.ordinal()].add(now - phaseStart);
+            phaseBytes[phase.ordinal()].add(allocated - phaseAllocated);
+            phaseGcPause[phase.ordinal()].add(millis - phaseGcMillis);
+            phaseGcCounts[phase.ordinal()] += count - phaseGcCount;
+        }
+        phaseStart = now;
+        phaseAllocated = allocated;
+        phaseGcCount = count;
+        phaseGcMillis = millis;
+    }
+
+    /**
+     * Finish measuring a step.
+     *
+     * @param step  The step just finished.
+     * @param field The field after the step.
+     */
+    public void endStep(int step, Field field) {
+        long now = System.nanoTime();
+        long allocated = allocatedInStep();
+        long count = gcCountSoFar();
+        long millis = gcMillisSoFar();
+        RegionStats stats = field.getRegionStats();
+        synchronized (this) {
+            this.step = step;
+            stepNanos.add(now - stepStart);
+            stepBytes.add(allocated);
+            stepGcPause.add(millis - stepGcMillis);
+            gcCount += count - stepGcCount;
+            gcMillis += millis - stepGcMillis;
+            for (Species species : Species.values()) {
+                populations.put(species.organismClass().getSimpleName(),
+                        stats.countInBlocks(species, 0, 0, stats.getBlockRows(), stats.getBlockCols()));
+            }
+        }
+
+        rateWindowSteps++;
+        if (now - rateWindowStart >= RATE_WINDOW_NANOS) {
+            stepsPerSecond = rateWindowSteps * 1e9 / (now - rateWindowStart);
+            rateWindowStart = now;
+            rateWindowSteps = 0;
+        }
+    }
+
+    @Override
+    public synchronized int getStep() {
+        return step;
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getPopulations() {
+        return new LinkedHashMap<>(populations);
+    }
+
+    @Override
+    public synchronized double getStepMillisP50() {
+        return stepNanos.percentile(50) / 1e6;
+    }
+
+    @Override
+    public synchronized double getStepMillisP95() {
+        return stepNanos.percentile(95) / 1e6;
+    }
+
+    @Override
+    public synchronized double getStepMillisP99() {
+        return stepNanos.percentile(99) / 1e6;
+    }
+
+    @Override
+    public synchronized long getAllocatedBytesP50() {
+        return stepBytes.percentile(50);
+    }
+
+    @Override
+    public synchronized long getAllocatedBytesP95() {
+        return stepBytes.percentile(95);
+    }
+
+    @Override
+    public synchronized long getAllocatedBytesP99() {
+        return stepBytes.percentile(99);
+    }
+
+    @Override
+    public synchronized Map<String, Double> getPhaseMillisP95() {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            millis.put(phase.name(), phaseNanos[phase.ordinal()].percentile(95) / 1e6);
+        }
+        return millis;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getPhaseAllocatedBytesP95() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            bytes.put(phase.name(), phaseBytes[phase.ordinal()].percentile(95));
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getPhaseGcCount() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            counts.put(phase.name(), phaseGcCounts[phase.ordinal()]);
+        }
+        return counts;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getPhaseGcMillisP99() {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            millis.put(phase.name(), phaseGcPause[phase.ordinal()].percentile(99));
+        }
+        return millis;
+    }
+
+    @Override
+    public synchronized long getGcCount() {
+        return gcCount;
+    }
+
+    @Override
+    public synchronized long getGcMillis() {
+        return gcMillis;
+    }
+
+    @Override
+    public synchronized long getGcMillisPerStepP99() {
+        return stepGcPause.percentile(99);
+    }
+
+    @Override
+    public synchronized void reset() {
+        stepNanos.clear();
+        stepBytes.clear();
+        stepGcPause.clear();
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i].clear();
+            phaseBytes[i].clear();
+            phaseGcPause[i].clear();
+        }
+        Arrays.fill(phaseGcCounts, 0);
+        gcCount = 0;
+        gcMillis = 0;
+    }
+
+    /**
+     * @return The collections run by every collector so far.
+     */
+    private long gcCountSoFar() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return The time every collector has spent collecting so far, in
+     *         milliseconds.
+     */
+    private long gcMillisSoFar() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * @return The bytes the live threads have allocated since the step
+     *         began.
+     */
+    private long allocatedInStep() {
+        long total = 0;
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] > 0) {
+                total += Math.max(0, bytes[i] - stepAllocated.getOrDefault(ids[i], 0L));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The most recent WINDOW samples of a measurement.
+     */
+    private static class Window {
+        private final long[] samples = new long[WINDOW];
+        private int size;
+        private int next;
+
+        void add(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+        }
+
+        void clear() {
+            size = 0;
+            next = 0;
+        }
+
+        /**
+         * @return The sample at the given percentile (nearest rank), or 0
+         *         if there are none.
+         */
+        long percentile(double percent) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percent / 100 * size);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
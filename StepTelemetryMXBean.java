@@ -0,0 +1,103 @@
+import java.util.Map;
+
+/**
+ * The management interface of StepTelemetry, for watching a run with
+ * standard JMX tools such as jconsole or VisualVM. Percentiles are over
+ * the most recent steps (see StepTelemetry).
+ *
+ * @version 1.0
+ */
+public interface StepTelemetryMXBean {
+    /**
+     * @return The last step completed.
+     */
+    int getStep();
+
+    /**
+     * @return Steps completed per second over the last second.
+     */
+    double getStepsPerSecond();
+
+    /**
+     * @return The number of live organisms of each species after the last
+     *         step.
+     */
+    Map<String, Integer> getPopulations();
+
+    /**
+     * @return The median time of a step, in milliseconds.
+     */
+    double getStepMillisP50();
+
+    /**
+     * @return The 95th percentile time of a step, in milliseconds.
+     */
+    double getStepMillisP95();
+
+    /**
+     * @return The 99th percentile time of a step, in milliseconds.
+     */
+    double getStepMillisP99();
+
+    /**
+     * @return The median bytes allocated by a step, on every thread.
+     */
+    long getAllocatedBytesP50();
+
+    /**
+     * @return The 95th percentile bytes allocated by a step.
+     */
+    long getAllocatedBytesP95();
+
+    /**
+     * @return The 99th percentile bytes allocated by a step.
+     */
+    long getAllocatedBytesP99();
+
+    /**
+     * @return The 95th percentile time of each phase of a step, in
+     *         milliseconds, by phase name.
+     */
+    Map<String, Double> getPhaseMillisP95();
+
+    /**
+     * @return The 95th percentile bytes allocated by the simulation
+     *         thread in each phase of a step, by phase name.
+     */
+    Map<String, Long> getPhaseAllocatedBytesP95();
+
+    /**
+     * @return The collections that ended in each phase of a step since
+     *         the telemetry started or was reset, by phase name.
+     */
+    Map<String, Long> getPhaseGcCount();
+
+    /**
+     * @return The 99th percentile time spent collecting during each
+     *         phase of a step, in milliseconds, by phase name.
+     */
+    Map<String, Long> getPhaseGcMillisP99();
+
+    /**
+     * @return The collections run since the telemetry started or was
+     *         reset.
+     */
+    long getGcCount();
+
+    /**
+     * @return The time spent collecting since the telemetry started or
+     *         was reset, in milliseconds.
+     */
+    long getGcMillis();
+
+    /**
+     * @return The 99th percentile time spent collecting during a step, in
+     *         milliseconds.
+     */
+    long getGcMillisPerStepP99();
+
+    /**
+     * Forget everything measured so far.
+     */
+    void reset();
+}
@@ -0,0 +1,415 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Run a simulation split across several processes on this machine, so
+ * that the field is not limited by the memory of one JVM. The field is
+ * cut into horizontal strips, each owned by a StripWorker process. The
+ * coordinator drives the steps in three rounds (see StripWorker): the
+ * strips of one parity act, then the others act on what they did, then
+ * the first ones take in what the others did. It passes each worker its
+ * halo rows, the cells taken and organisms arriving from its neighbours
+ * and which of its boundary organisms they ate, and merges the workers'
+ * population counts. Which parity acts first alternates, so that neither
+ * side of a boundary always has the first pick of the cells along it.
+ * Within a strip the organisms act in the order of one process, which
+ * travels with them as ranks; when a worker runs short of ranks, the
+ * coordinator ranks every organism again between steps.
+ *
+ * Organisms on either side of a boundary act as they would in one
+ * process, in an order where one side acts before the other, but the
+ * strips draw from their own random streams, so the split simulation is
+ * not the same as a single-process one, even for the same seed. Usage:
+ * java StripCoordinator compare [strips] [depth] [width] [steps] [seeds]
+ * checks that it stays statistically close: it runs both engines for
+ * each of the seeds and compares their mean populations every
+ * COMPARE_INTERVAL steps, failing when a species' means differ by more
+ * than COMPARE_STANDARD_ERRORS standard errors of the difference (or
+ * COMPARE_MIN_DIFFERENCE organisms, when both are nearly constant).
+ *
+ * Usage: java StripCoordinator [strips] [depth] [width] [steps] [seed]
+ *
+ * @version 1.0
+ */
+public class StripCoordinator {
+    private static final int DEFAULT_STRIPS = 4;
+    private static final int DEFAULT_WIDTH = 120;
+    private static final int DEFAULT_DEPTH = 80;
+    private static final int DEFAULT_STEPS = 700;
+    // Steps and seeds of a comparison, unless others are given.
+    private static final int DEFAULT_COMPARE_STEPS = 100;
+    private static final int DEFAULT_COMPARE_SEEDS = 10;
+    // Steps between the populations compared.
+    private static final int COMPARE_INTERVAL = 20;
+    // How far apart the mean populations of the two engines may be.
+    private static final double COMPARE_STANDARD_ERRORS = 3;
+    private static final double COMPARE_MIN_DIFFERENCE = 5;
+
+    private final List<Process> workers = new ArrayList<>();
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+    private final StripReport[] reports;
+    private int step;
+    private boolean isDay;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && "compare".equals(args[0])) {
+            int strips = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STRIPS;
+            int depth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+            int width = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_WIDTH;
+            int steps = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_COMPARE_STEPS;
+            int seeds = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_COMPARE_SEEDS;
+            if (!compare(strips, depth, width, steps, seeds)) {
+                System.exit(1);
+            }
+            return;
+        }
+        int strips = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_STRIPS;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WIDTH;
+        int steps = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_STEPS;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : Randomizer.getRandom().nextLong();
+
+        StripCoordinator coordinator = new StripCoordinator(strips, depth, width, seed);
+        try {
+            coordinator.simulate(steps);
+        } finally {
+            coordinator.close();
+        }
+    }
+
+    /**
+     * Start one worker process per strip and wait for them to populate
+     * their strips.
+     *
+     * @param strips The number of strips. Each must have at least one row.
+     * @param depth  The depth of the whole field.
+     * @param width  The width of the field.
+     * @param seed   The seed from which each worker's seed is derived.
+     * @throws IOException If a worker cannot be started or reached.
+     */
+    public StripCoordinator(int strips, int depth, int width, long seed) throws IOException {
+        if (strips <= 0 || strips > depth) {
+            throw new IllegalArgumentException("Cannot split " + depth + " rows into " + strips + " strips");
+        }
+        ins = new DataInputStream[strips];
+        outs = new DataOutputStream[strips];
+        reports = new StripReport[strips];
+
+        try (ServerSocket server = new ServerSocket(0, strips, InetAddress.getLoopbackAddress())) {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            String classPath = System.getProperty("java.class.path");
+            for (int i = 0; i < strips; i++) {
+                int firstRow = depth * i / strips;
+                int lastRow = depth * (i + 1) / strips;
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", classPath, "StripWorker",
+                        String.valueOf(server.getLocalPort()), String.valueOf(i), String.valueOf(firstRow),
+                        String.valueOf(lastRow), String.valueOf(depth), String.valueOf(width),
+                        String.valueOf(seed));
+                workers.add(builder.inheritIO().start());
+            }
+            for (int i = 0; i < strips; i++) {
+                Socket socket = server.accept();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int index = in.readInt();
+                ins[index] = in;
+                outs[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+        }
+        for (int i = 0; i < strips; i++) {
+            reports[i] = StripReport.read(ins[i]);
+        }
+        isDay = true;
+    }
+
+    /**
+     * Run the single-process and the split simulation for each of a number
+     * of seeds, and compare their mean populations every COMPARE_INTERVAL
+     * steps. Print the means and whether each pair is within tolerance.
+     *
+     * @param strips The number of strips of the split simulation.
+     * @param depth  The depth of the field.
+     * @param width  The width of the field.
+     * @param steps  The steps of each run.
+     * @param seeds  The number of seeds, from 1 upwards.
+     * @return true if every pair of means is within tolerance.
+     * @throws IOException If a worker cannot be reached.
+     */
+    public static boolean compare(int strips, int depth, int width, int steps, int seeds)
+            throws IOException, InterruptedException {
+        int points = steps / COMPARE_INTERVAL + 1;
+        Species[] species = Species.values();
+        // Populations by engine, seed, point and species.
+        int[][][][] populations = new int[2][seeds][points][species.length];
+        PrintStream out = System.out;
+        // Both engines report every step; keep the output to the comparison.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int seed = 1; seed <= seeds; seed++) {
+                Randomizer.setSeed(seed);
+                Simulator single = new Simulator(depth, width, false);
+                StripCoordinator split = new StripCoordinator(strips, depth, width, seed);
+                try {
+                    for (int step = 0; step <= steps; step++) {
+                        if (step > 0) {
+                            single.simulateOneStep();
+                            split.simulateOneStep();
+                        }
+                        if (step % COMPARE_INTERVAL == 0) {
+                            int[] splitCounts = split.getCounts();
+                            int[] singleCounts = ScenarioSuite.populations(single.getField());
+                            for (int s = 0; s < species.length; s++) {
+                                populations[0][seed - 1][step / COMPARE_INTERVAL][s] = singleCounts[s];
+                                populations[1][seed - 1][step / COMPARE_INTERVAL][s] = splitCounts[species[s].code()];
+                            }
+                        }
+                    }
+                } finally {
+                    split.close();
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        boolean passed = true;
+        System.out.printf("%d seeds, %dx%d cells, %d strips; mean population single / split%n", seeds, depth,
+                width, strips);
+        for (int point = 0; point < points; point++) {
+            StringBuilder line = new StringBuilder(String.format("step %4d", point * COMPARE_INTERVAL));
+            for (int s = 0; s < species.length; s++) {
+                double[] mean = new double[2];
+                double[] variance = new double[2];
+                for (int engine = 0; engine < 2; engine++) {
+                    for (int seed = 0; seed < seeds; seed++) {
+                        mean[engine] += populations[engine][seed][point][s] / (double) seeds;
+                    }
+                    for (int seed = 0; seed < seeds; seed++) {
+                        double deviation = populations[engine][seed][point][s] - mean[engine];
+                        variance[engine] += deviation * deviation / Math.max(1, seeds - 1);
+                    }
+                }
+                double standardError = Math.sqrt((variance[0] + variance[1]) / seeds);
+                boolean close = Math.abs(mean[0] - mean[1]) <= Math.max(COMPARE_MIN_DIFFERENCE,
+                        COMPARE_STANDARD_ERRORS * standardError);
+                passed &= close;
+                line.append(String.format(" | %s %7.1f / %7.1f%s", species[s].organismClass().getSimpleName()
+                        .substring(0, 2), mean[0], mean[1], close ? "  " : " *"));
+            }
+            System.out.println(line);
+        }
+        System.out.println(passed ? "Within tolerance" : "Outside tolerance (marked *)");
+        return passed;
+    }
+
+    /**
+     * Run the simulation for the given number of steps.
+     * Stop before the given number of steps if it ceases to be viable.
+     *
+     * @param numSteps The number of steps to run for.
+     * @throws IOException If a worker cannot be reached.
+     */
+    public void simulate(int numSteps) throws IOException {
+        reportStats();
+        for (int n = 1; n <= numSteps && isViable(); n++) {
+            simulateOneStep();
+        }
+    }
+
+    /**
+     * Run every strip for a single step, exchanging halos and moving
+     * organisms between neighbouring strips.
+     *
+     * @throws IOException If a worker cannot be reached.
+     */
+    public void simulateOneStep() throws IOException {
+        step++;
+        isDay = !isDay;
+        int first = step % 2;
+        int last = reports.length - 1;
+        // What the strips acting first reported after acting.
+        StripReport[] acted = new StripReport[reports.length];
+        for (int i = first; i <= last; i += 2) {
+            StripReport above = i > 0 ? reports[i - 1] : null;
+            StripReport below = i < last ? reports[i + 1] : null;
+            DataOutputStream out = outs[i];
+            out.writeByte(StripWorker.ACT_FIRST);
+            out.writeBoolean(isDay);
+            StripWorker.writeBlob(out, above != null ? above.bottomRow() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, below != null ? below.topRow() : StripWorker.NO_RECORDS);
+            out.flush();
+        }
+        for (int i = first; i <= last; i += 2) {
+            acted[i] = StripReport.read(ins[i]);
+        }
+
+        for (int i = 1 - first; i <= last; i += 2) {
+            StripReport above = i > 0 ? acted[i - 1] : null;
+            StripReport below = i < last ? acted[i + 1] : null;
+            DataOutputStream out = outs[i];
+            out.writeByte(StripWorker.ACT_SECOND);
+            out.writeBoolean(isDay);
+            StripWorker.writeBlob(out, above != null ? above.bottomRow() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, above != null ? above.emigrantsDown() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, above != null ? above.eatenDown() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, below != null ? below.topRow() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, below != null ? below.emigrantsUp() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, below != null ? below.eatenUp() : StripWorker.NO_RECORDS);
+            out.flush();
+        }
+        for (int i = 1 - first; i <= last; i += 2) {
+            reports[i] = StripReport.read(ins[i]);
+        }
+
+        for (int i = first; i <= last; i += 2) {
+            StripReport above = i > 0 ? reports[i - 1] : null;
+            StripReport below = i < last ? reports[i + 1] : null;
+            DataOutputStream out = outs[i];
+            out.writeByte(StripWorker.FINISH);
+            StripWorker.writeBlob(out, above != null ? above.eatenDown() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, above != null ? above.emigrantsDown() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, below != null ? below.eatenUp() : StripWorker.NO_RECORDS);
+            StripWorker.writeBlob(out, below != null ? below.emigrantsUp() : StripWorker.NO_RECORDS);
+            out.flush();
+        }
+        for (int i = first; i <= last; i += 2) {
+            reports[i] = StripReport.read(ins[i]);
+        }
+        for (StripReport report : reports) {
+            if (report.rankGap() < StripWorker.MIN_RANK_GAP) {
+                rank();
+                break;
+            }
+        }
+        reportStats();
+    }
+
+    /**
+     * Rank every organism again, evenly spread over the ranks, keeping
+     * their order: gather each strip's ranks, then give each strip the
+     * place of its organisms among all of them.
+     *
+     * @throws IOException If a worker cannot be reached.
+     */
+    private void rank() throws IOException {
+        for (DataOutputStream out : outs) {
+            out.writeByte(StripWorker.RANK);
+            out.flush();
+        }
+        long[][] ranks = new long[reports.length][];
+        int total = 0;
+        for (int i = 0; i < reports.length; i++) {
+            ranks[i] = new long[ins[i].readInt()];
+            for (int j = 0; j < ranks[i].length; j++) {
+                ranks[i][j] = ins[i].readLong();
+            }
+            total += ranks[i].length;
+        }
+        long[] all = new long[total];
+        int filled = 0;
+        for (long[] strip : ranks) {
+            System.arraycopy(strip, 0, all, filled, strip.length);
+            filled += strip.length;
+        }
+        Arrays.sort(all);
+        long spacing = Long.MAX_VALUE / (total + 1);
+        for (int i = 0; i < reports.length; i++) {
+            DataOutputStream out = outs[i];
+            out.writeLong(spacing);
+            for (long rank : ranks[i]) {
+                out.writeLong(spacing * (Arrays.binarySearch(all, rank) + 1));
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @return The number of live organisms of each species code, summed
+     *         over all strips.
+     */
+    public int[] getCounts() {
+        int[] counts = new int[GridKernels.CODES];
+        for (StripReport report : reports) {
+            for (int code = 0; code < counts.length; code++) {
+                counts[code] += report.counts()[code];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Return whether there is at least one predator and one prey left.
+     */
+    private boolean isViable() {
+        int[] counts = getCounts();
+        return counts[Species.SHARK.code()] + counts[Species.BARRACUDA.code()] > 0
+                && counts[Species.TUNA.code()] + counts[Species.SARDINE.code()] > 0;
+    }
+
+    private void reportStats() {
+        int[] counts = getCounts();
+        StringBuilder popDetails = new StringBuilder();
+        for (Species species : Species.values()) {
+            if (counts[species.code()] > 0) {
+                popDetails.append(species.organismClass().getSimpleName())
+                        .append(": ")
+                        .append(counts[species.code()])
+                        .append(" ");
+            }
+        }
+        System.out.println("--------------------------------------------------");
+        System.out.println("Step: " + step + " | Strips: " + reports.length);
+        System.out.println("Population: " + popDetails.toString().trim());
+        System.out.println("--------------------------------------------------");
+    }
+
+    /**
+     * Tell every worker to stop and wait for it to exit.
+     */
+    public void close() throws IOException, InterruptedException {
+        for (DataOutputStream out : outs) {
+            if (out != null) {
+                out.writeByte(StripWorker.STOP);
+                out.flush();
+                out.close();
+            }
+        }
+        for (Process worker : workers) {
+            worker.waitFor();
+        }
+    }
+
+    /**
+     * What a worker reported after a round of a step. After acting first,
+     * its boundary rows are as acting left them and its emigrant lists are
+     * the cells it took on either side of each boundary. The organism
+     * lists are kept encoded and forwarded to the neighbours as they are.
+     * The rank gap is the smallest the worker has given out since it was
+     * last ranked.
+     */
+    private record StripReport(int[] counts, long rankGap, byte[] topRow, byte[] bottomRow, byte[] emigrantsUp,
+            byte[] emigrantsDown, byte[] eatenUp, byte[] eatenDown) {
+
+        static StripReport read(DataInputStream in) throws IOException {
+            int[] counts = new int[GridKernels.CODES];
+            for (int code = 0; code < counts.length; code++) {
+                counts[code] = in.readInt();
+            }
+            return new StripReport(counts, in.readLong(), StripWorker.readBlob(in), StripWorker.readBlob(in),
+                    StripWorker.readBlob(in), StripWorker.readBlob(in), StripWorker.readBlob(in),
+                    StripWorker.readBlob(in));
+        }
+    }
+}
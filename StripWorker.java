@@ -0,0 +1,570 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * One process of a distributed simulation. A worker owns a horizontal
+ * strip of rows of the field and simulates the organisms in it. It is
+ * started and driven by a StripCoordinator.
+ *
+ * A step takes three rounds, so that the organisms on either side of a
+ * boundary act as they would in one process, one side after the other.
+ * In the first, the strips of one parity act, given their halo - copies
+ * of the organisms in the row just above and just below the strip, as
+ * the neighbours left them. The halo copies take part in the step (they
+ * can be eaten or chosen as mates) but do not act. Such a strip reports
+ * which halo organisms it ate and, for each boundary, its boundary row
+ * as acting has left it and the cells it has taken in the next state
+ * on both sides of the boundary.
+ *
+ * In the second round the other strips kill what was eaten, take in the
+ * organisms that arrived and hold the cells taken next to them, so they
+ * act on what the first strips did. They report their new boundary rows,
+ * the organisms that left them and which halo organisms they ate. In the
+ * third, the first strips apply those kills and arrivals; an arrival
+ * replaces what is in its cell, as a later placement does in one field.
+ *
+ * Within a strip the organisms act in the order they would in one
+ * process, which is kept as a rank that travels with each organism (see
+ * ScheduledStepEngine): the initial population is ranked by cell, row by
+ * row, and young are ranked between their parent and what came before
+ * it. So an organism that crosses a boundary takes its turn in its new
+ * strip where it would have, and only the order of the two sides of a
+ * boundary differs from one process. When the ranks between two
+ * organisms run short, the coordinator ranks every organism again.
+ *
+ * All organism lists travel as length-prefixed byte blobs, which the
+ * coordinator forwards without decoding.
+ *
+ * @version 1.0
+ */
+public class StripWorker {
+    // A blob holding an empty list.
+    static final byte[] NO_RECORDS = new byte[4];
+    // What the coordinator asks of a worker: to stop, to act in the first
+    // or second round of a step, or to finish a step it acted first in.
+    static final byte STOP = 0;
+    static final byte ACT_FIRST = 1;
+    static final byte ACT_SECOND = 2;
+    static final byte FINISH = 3;
+    // Or to report its ranks and take new ones (see rank).
+    static final byte RANK = 4;
+    // The smallest gap between neighbouring ranks that a step may start
+    // with, leaving room for any litter in the step.
+    static final long MIN_RANK_GAP = 1 << 16;
+    // Spreads the strip indices across the seeds (the 64-bit golden ratio).
+    private static final long SEED_MIX = 0x9E3779B97F4A7C15L;
+
+    private final int firstRow, lastRow;
+    private final int depth, width;
+    // The number of halo rows above and below the strip (0 at the edges).
+    private final int haloAbove, haloBelow;
+    private final Random rand = Randomizer.getRandom();
+
+    // The organisms of the strip, in local coordinates.
+    private Field field;
+    // The next state of a step this strip acted first in, until it is
+    // finished.
+    private Field pending;
+    // The organisms sent as boundary rows in the last report, in the order
+    // sent, which the kills reported by the neighbours refer to.
+    private List<Organism> sentTop = new ArrayList<>();
+    private List<Organism> sentBottom = new ArrayList<>();
+    // The smallest gap between neighbouring ranks given out since the
+    // organisms were last ranked.
+    private long smallestGap;
+
+    /**
+     * Start a worker. The arguments are: coordinator port, strip index,
+     * first row, row after the last, field depth, field width and seed.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int index = Integer.parseInt(args[1]);
+        StripWorker worker = new StripWorker(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+        // Mix the index in, so that consecutive seeds do not share strips' streams.
+        Randomizer.setSeed(Long.parseLong(args[6]) ^ index * SEED_MIX);
+
+        try (Socket socket = new Socket("localhost", port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(index);
+            worker.run(in, out);
+        }
+    }
+
+    /**
+     * Create a worker for the rows [firstRow, lastRow) of a field.
+     *
+     * @param firstRow The first row of the strip.
+     * @param lastRow  The row after the last row of the strip.
+     * @param depth    The depth of the whole field.
+     * @param width    The width of the field.
+     */
+    public StripWorker(int firstRow, int lastRow, int depth, int width) {
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.depth = depth;
+        this.width = width;
+        haloAbove = firstRow > 0 ? 1 : 0;
+        haloBelow = lastRow < depth ? 1 : 0;
+        field = newField();
+    }
+
+    /**
+     * Populate the strip, then serve requests until told to stop.
+     */
+    private void run(DataInputStream in, DataOutputStream out) throws IOException {
+        Simulator.populateRows(field, haloAbove, haloAbove + lastRow - firstRow, rand);
+        rankByCell();
+        writeReport(out, NO_RECORDS, NO_RECORDS, NO_RECORDS, NO_RECORDS);
+        byte command;
+        while ((command = in.readByte()) != STOP) {
+            if (command == ACT_FIRST) {
+                actFirst(in, out);
+            } else if (command == ACT_SECOND) {
+                actSecond(in, out);
+            } else if (command == RANK) {
+                rank(in, out);
+            } else {
+                finish(in, out);
+            }
+        }
+    }
+
+    /**
+     * Act in the first round of a step, keeping the next state until the
+     * step is finished.
+     */
+    private void actFirst(DataInputStream in, DataOutputStream out) throws IOException {
+        boolean isDay = in.readBoolean();
+        byte[] haloTop = readBlob(in);
+        byte[] haloBottom = readBlob(in);
+
+        List<Organism> owned = new ArrayList<>(field.getAnimals());
+        List<Organism> haloUp = placeHalo(haloTop, firstRow - 1);
+        List<Organism> haloDown = placeHalo(haloBottom, lastRow);
+        pending = newField();
+        act(owned, pending, isDay);
+
+        sentTop = new ArrayList<>();
+        sentBottom = new ArrayList<>();
+        byte[] topRow = boundaryRow(haloAbove, sentTop);
+        byte[] bottomRow = boundaryRow(haloAbove + lastRow - firstRow - 1, sentBottom);
+        writeCounts(out);
+        writeBlob(out, topRow);
+        writeBlob(out, bottomRow);
+        writeBlob(out, takenCells(0, haloAbove * 2, sentTop));
+        writeBlob(out, takenCells(haloAbove + lastRow - firstRow - haloBelow, haloBelow * 2, sentBottom));
+        writeBlob(out, deadIndices(haloUp));
+        writeBlob(out, deadIndices(haloDown));
+        out.flush();
+    }
+
+    /**
+     * Act in the second round of a step, after the neighbours: kill what
+     * they ate, take in what arrived and keep clear of the cells they
+     * took, then act and finish the step.
+     */
+    private void actSecond(DataInputStream in, DataOutputStream out) throws IOException {
+        boolean isDay = in.readBoolean();
+        byte[] rowAbove = readBlob(in);
+        byte[] takenAbove = readBlob(in);
+        byte[] eatenTop = readBlob(in);
+        byte[] rowBelow = readBlob(in);
+        byte[] takenBelow = readBlob(in);
+        byte[] eatenBottom = readBlob(in);
+
+        applyKills(eatenTop, sentTop);
+        applyKills(eatenBottom, sentBottom);
+        List<Organism> owned = new ArrayList<>(field.getAnimals());
+        List<Organism> haloUp = placeHalo(rowAbove, firstRow - 1);
+        List<Organism> haloDown = placeHalo(rowBelow, lastRow);
+        Field nextFieldState = newField();
+        Set<Organism> held = Collections.newSetFromMap(new IdentityHashMap<>());
+        placeAll(takenAbove, haloUp, nextFieldState, held);
+        placeAll(takenBelow, haloDown, nextFieldState, held);
+        act(owned, nextFieldState, isDay);
+
+        List<Organism> leavingUp = new ArrayList<>();
+        List<Organism> leavingDown = new ArrayList<>();
+        settle(nextFieldState, held, leavingUp, leavingDown);
+        writeReport(out, placements(leavingUp), placements(leavingDown), deadIndices(haloUp), deadIndices(haloDown));
+    }
+
+    /**
+     * Finish a step this strip acted first in: kill what the neighbours
+     * ate of its boundary rows and take in the organisms that arrived.
+     */
+    private void finish(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] eatenTop = readBlob(in);
+        byte[] fromAbove = readBlob(in);
+        byte[] eatenBottom = readBlob(in);
+        byte[] fromBelow = readBlob(in);
+
+        applyKills(eatenTop, sentTop);
+        applyKills(eatenBottom, sentBottom);
+        placeAll(fromAbove, null, pending, null);
+        placeAll(fromBelow, null, pending, null);
+        // What this strip moved into the neighbours' rows was sent with
+        // the cells it took.
+        settle(pending, null, null, null);
+        pending = null;
+        writeReport(out, NO_RECORDS, NO_RECORDS, NO_RECORDS, NO_RECORDS);
+    }
+
+    /**
+     * Let the strip's organisms act in order of rank, ranking the young
+     * of each as it goes.
+     */
+    private void act(List<Organism> owned, Field nextFieldState, boolean isDay) {
+        owned.sort(Comparator.comparingLong(Organism::getRank));
+        List<Organism> placed = nextFieldState.getAwakeAnimals();
+        Simulator.actAll(owned, field, nextFieldState, isDay, rand, organism -> rankYoung(organism, placed));
+    }
+
+    /**
+     * Rank the young an organism has just placed, which are at the end of
+     * the new field's list just before the organism itself, if it placed
+     * itself: between its rank and those of everything before it.
+     */
+    private void rankYoung(Organism parent, List<Organism> placed) {
+        int end = placed.size();
+        if (end > 0 && placed.get(end - 1) == parent) {
+            end--;
+        }
+        int first = end;
+        while (first > 0 && placed.get(first - 1).getRank() == 0) {
+            first--;
+        }
+        int young = end - first;
+        if (young == 0) {
+            return;
+        }
+        long floor = parent.getRankFloor();
+        long gap = (parent.getRank() - floor) / (young + 1);
+        for (int i = 0; i < young; i++) {
+            placed.get(first + i).setRank(floor + gap * (i + 1), floor + gap * i);
+        }
+        parent.setRankFloor(floor + gap * young);
+        smallestGap = Math.min(smallestGap, gap);
+    }
+
+    /**
+     * Rank the initial population by cell, row by row over the whole
+     * field, the order it is placed in by one process.
+     */
+    private void rankByCell() {
+        long spacing = Long.MAX_VALUE / ((long) depth * width + 1);
+        for (Organism organism : field.getAnimals()) {
+            Location location = organism.getLocation();
+            long cell = (long) (location.row() - haloAbove + firstRow) * width + location.col();
+            organism.setRank(spacing * (cell + 1), spacing * cell);
+        }
+        smallestGap = spacing;
+    }
+
+    /**
+     * Rank the strip's organisms again, between steps: report their ranks
+     * in order, then take the new rank of each and the spacing of the new
+     * ranks, which the coordinator gives out evenly over all strips.
+     */
+    private void rank(DataInputStream in, DataOutputStream out) throws IOException {
+        List<Organism> organisms = new ArrayList<>(field.getAnimals());
+        organisms.sort(Comparator.comparingLong(Organism::getRank));
+        out.writeInt(organisms.size());
+        for (Organism organism : organisms) {
+            out.writeLong(organism.getRank());
+        }
+        out.flush();
+        long spacing = in.readLong();
+        for (Organism organism : organisms) {
+            long rank = in.readLong();
+            organism.setRank(rank, rank - spacing);
+        }
+        smallestGap = spacing;
+    }
+
+    /**
+     * Make the strip's organisms in a next state its new state, and
+     * collect the organisms that left it, other than those held for a
+     * neighbour.
+     *
+     * @param held        Organisms holding a neighbour's cells, or null.
+     * @param leavingUp   Receives the organisms that moved above the
+     *                    strip, or null if they are dropped.
+     * @param leavingDown Likewise for below the strip.
+     */
+    private void settle(Field nextFieldState, Set<Organism> held, List<Organism> leavingUp,
+            List<Organism> leavingDown) {
+        field.release();
+        field = newField();
+        for (Organism organism : nextFieldState.getAnimals()) {
+            if (!organism.isAlive()) {
+                continue;
+            }
+            Location location = organism.getLocation();
+            if (location.row() < haloAbove) {
+                if (leavingUp != null && !held.contains(organism)) {
+                    leavingUp.add(organism);
+                }
+            } else if (location.row() >= haloAbove + lastRow - firstRow) {
+                if (leavingDown != null && !held.contains(organism)) {
+                    leavingDown.add(organism);
+                }
+            } else {
+                field.placeAnimal(organism, location);
+            }
+        }
+        nextFieldState.release();
+    }
+
+    /**
+     * Report the strip's population and boundary rows, with the given
+     * organism and kill lists.
+     */
+    private void writeReport(DataOutputStream out, byte[] up, byte[] down, byte[] eatenUp, byte[] eatenDown)
+            throws IOException {
+        writeCounts(out);
+        sentTop = new ArrayList<>();
+        sentBottom = new ArrayList<>();
+        writeBlob(out, boundaryRow(haloAbove, sentTop));
+        writeBlob(out, boundaryRow(haloAbove + lastRow - firstRow - 1, sentBottom));
+        writeBlob(out, up);
+        writeBlob(out, down);
+        writeBlob(out, eatenUp);
+        writeBlob(out, eatenDown);
+        out.flush();
+    }
+
+    private void writeCounts(DataOutputStream out) throws IOException {
+        int[] counts = new int[GridKernels.CODES];
+        GridKernels.countSpecies(field.getSpeciesCodes(), counts);
+        for (int count : counts) {
+            out.writeInt(count);
+        }
+        out.writeLong(smallestGap);
+    }
+
+    /**
+     * Encode the live organisms of one local row, remembering them so
+     * that kills reported by a neighbour can be applied later.
+     */
+    private byte[] boundaryRow(int row, List<Organism> sent) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int col = 0; col < width; col++) {
+            Organism organism = field.getAnimalAt(new Location(row, col));
+            if (organism != null && organism.isAlive()) {
+                out.writeInt(col);
+                writeRanked(out, organism);
+                sent.add(organism);
+            }
+        }
+        return withCount(sent.size(), bytes);
+    }
+
+    /**
+     * Encode the organisms in some local rows of the next state: the
+     * neighbour's boundary row, which they have moved or been born into,
+     * and this strip's, whose cells they hold. An organism also sent in
+     * the boundary row is referred to by its place there, so that the
+     * neighbour keeps one organism for both.
+     *
+     * @param fromRow The first local row.
+     * @param rows    The number of rows (0 at the edges of the field).
+     * @param sent    The organisms sent in the boundary row.
+     */
+    private byte[] takenCells(int fromRow, int rows, List<Organism> sent) throws IOException {
+        Map<Organism, Integer> sentIndex = new IdentityHashMap<>();
+        for (int i = 0; i < sent.size(); i++) {
+            sentIndex.put(sent.get(i), i);
+        }
+        List<Organism> taken = new ArrayList<>();
+        for (int row = fromRow; row < fromRow + rows; row++) {
+            for (int col = 0; col < width; col++) {
+                Organism organism = pending.getAnimalAt(new Location(row, col));
+                if (organism != null && organism.isAlive()) {
+                    taken.add(organism);
+                }
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Organism organism : taken) {
+            writePlacement(out, organism, sentIndex.getOrDefault(organism, -1));
+        }
+        return withCount(taken.size(), bytes);
+    }
+
+    /**
+     * Encode organisms that have left the strip.
+     */
+    private byte[] placements(List<Organism> organisms) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Organism organism : organisms) {
+            writePlacement(out, organism, -1);
+        }
+        return withCount(organisms.size(), bytes);
+    }
+
+    private void writePlacement(DataOutputStream out, Organism organism, int sentIndex) throws IOException {
+        Location location = organism.getLocation();
+        out.writeInt(location.row() - haloAbove + firstRow);
+        out.writeInt(location.col());
+        out.writeInt(sentIndex);
+        if (sentIndex < 0) {
+            writeRanked(out, organism);
+        }
+    }
+
+    /**
+     * Encode an organism with its rank.
+     */
+    private static void writeRanked(DataOutputStream out, Organism organism) throws IOException {
+        organism.write(out);
+        out.writeLong(organism.getRank());
+        out.writeLong(organism.getRankFloor());
+    }
+
+    /**
+     * Rebuild an organism encoded by writeRanked.
+     */
+    private static Organism readRanked(DataInputStream in, Location location) throws IOException {
+        Organism organism = Organism.read(in, location);
+        long rank = in.readLong();
+        organism.setRank(rank, in.readLong());
+        return organism;
+    }
+
+    /**
+     * Place copies of a neighbour's boundary row in a halo row.
+     *
+     * @return The copies, in the order the neighbour sent them.
+     */
+    private List<Organism> placeHalo(byte[] blob, int globalRow) throws IOException {
+        List<Organism> halo = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Location location = new Location(toLocalRow(globalRow), in.readInt());
+            Organism organism = readRanked(in, location);
+            field.placeAnimal(organism, location);
+            halo.add(organism);
+        }
+        return halo;
+    }
+
+    /**
+     * Place organisms in a next state, each replacing what is in its
+     * cell: those that have moved or been born into the strip, and, in
+     * the halo rows, those holding a neighbour's cells. One that is also
+     * a halo copy stays a single organism, so that eating the copy kills
+     * it where it has gone.
+     *
+     * @param halo The halo copies, in the order sent, or null if none are
+     *             referred to.
+     * @param held Receives the organisms holding a neighbour's cells, or
+     *             null if there are none.
+     */
+    private void placeAll(byte[] blob, List<Organism> halo, Field nextFieldState, Set<Organism> held)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Location location = new Location(toLocalRow(in.readInt()), in.readInt());
+            int sentIndex = in.readInt();
+            Organism organism;
+            if (sentIndex >= 0) {
+                organism = halo.get(sentIndex);
+                organism.setLocation(location);
+            } else {
+                organism = readRanked(in, location);
+            }
+            nextFieldState.placeAnimal(organism, location);
+            if (location.row() < haloAbove || location.row() >= haloAbove + lastRow - firstRow) {
+                held.add(organism);
+            }
+        }
+    }
+
+    /**
+     * Kill the boundary organisms a neighbour ate.
+     */
+    private void applyKills(byte[] blob, List<Organism> sent) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Organism organism = sent.get(in.readInt());
+            if (organism.isAlive()) {
+                organism.setDead();
+            }
+        }
+    }
+
+    /**
+     * Encode the positions of the halo organisms that died this step.
+     */
+    private static byte[] deadIndices(List<Organism> halo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        for (int i = 0; i < halo.size(); i++) {
+            if (!halo.get(i).isAlive()) {
+                out.writeInt(i);
+                count++;
+            }
+        }
+        return withCount(count, bytes);
+    }
+
+    private int toLocalRow(int globalRow) {
+        return globalRow - firstRow + haloAbove;
+    }
+
+    private Field newField() {
+        return new Field(haloAbove + lastRow - firstRow + haloBelow, width);
+    }
+
+    /**
+     * Prefix encoded records with their number.
+     */
+    private static byte[] withCount(int count, ByteArrayOutputStream records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() + 4);
+        new DataOutputStream(bytes).writeInt(count);
+        records.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a length-prefixed blob.
+     */
+    static byte[] readBlob(DataInputStream in) throws IOException {
+        byte[] blob = new byte[in.readInt()];
+        in.readFully(blob);
+        return blob;
+    }
+
+    /**
+     * Write a length-prefixed blob.
+     */
+    static void writeBlob(DataOutputStream out, byte[] blob) throws IOException {
+        out.writeInt(blob.length);
+        out.write(blob);
+    }
+}
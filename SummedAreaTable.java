@@ -0,0 +1,114 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summed-area tables of the live organisms of each species in a field,
+ * so that the number of a species in any rectangle of cells takes four
+ * look-ups, whatever the rectangle's size. The entry for (row, col) is
+ * the number in the rectangle from (0, 0) up to but not including
+ * (row, col).
+ *
+ * A species' table is built in one pass over the organisms and one over
+ * the cells, the first time the species is counted after the field has
+ * changed (see Field.countInRectangle). It then stays good until the
+ * field changes again. A field keeps changing after its own step: while
+ * the next step runs, organisms in it die (see Field.animalDied), and
+ * each death marks every table out of date, since taking one organism
+ * out of a table would cost as much as rebuilding it. So counts are
+ * cheap between steps, when nothing dies, but a count made during a
+ * step after a death pays for a rebuild. Region statistics (see
+ * RegionStats) are kept up to date through deaths but only count whole
+ * blocks.
+ *
+ * @version 1.0
+ */
+public class SummedAreaTable {
+    private final int depth, width;
+    // The table of each species code, or null until first built.
+    private final int[][] tables = new int[GridKernels.CODES][];
+    // Whether each species' table matches the field.
+    private final boolean[] current = new boolean[GridKernels.CODES];
+
+    /**
+     * Create tables for a field, none of them built yet.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public SummedAreaTable(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+    }
+
+    /**
+     * Mark every table out of date, after the field has changed.
+     */
+    public void invalidate() {
+        Arrays.fill(current, false);
+    }
+
+    /**
+     * @param species The species.
+     * @return true if the species' table matches the field.
+     */
+    public boolean isCurrent(Species species) {
+        return current[species.code()];
+    }
+
+    /**
+     * Build a species' table.
+     *
+     * @param species   The species.
+     * @param organisms The organisms in the field, live or dead.
+     */
+    public void build(Species species, List<Organism> organisms) {
+        int stride = width + 1;
+        int[] table = tables[species.code()];
+        if (table == null) {
+            table = new int[(depth + 1) * stride];
+            tables[species.code()] = table;
+        } else {
+            Arrays.fill(table, 0);
+        }
+        for (Organism organism : organisms) {
+            if (organism.isAlive() && organism.getSpecies() == species) {
+                Location location = organism.getLocation();
+                table[(location.row() + 1) * stride + location.col() + 1]++;
+            }
+        }
+        for (int row = 1; row <= depth; row++) {
+            int rowTotal = 0;
+            int cell = row * stride;
+            for (int col = 1; col <= width; col++) {
+                rowTotal += table[cell + col];
+                table[cell + col] = table[cell - stride + col] + rowTotal;
+            }
+        }
+        current[species.code()] = true;
+    }
+
+    /**
+     * Return the number of live organisms of a species in a rectangle of
+     * cells, from its built table. The rectangle is clipped to the field.
+     *
+     * @param species The species.
+     * @param fromRow The first row.
+     * @param fromCol The first column.
+     * @param toRow   The row after the last one.
+     * @param toCol   The column after the last one.
+     * @return The count.
+     */
+    public int count(Species species, int fromRow, int fromCol, int toRow, int toCol) {
+        fromRow = Math.max(0, fromRow);
+        fromCol = Math.max(0, fromCol);
+        toRow = Math.min(depth, toRow);
+        toCol = Math.min(width, toCol);
+        if (fromRow >= toRow || fromCol >= toCol) {
+            return 0;
+        }
+        int stride = width + 1;
+        int[] table = tables[species.code()];
+        return table[toRow * stride + toCol] - table[fromRow * stride + toCol] - table[toRow * stride + fromCol]
+                + table[fromRow * stride + fromCol];
+    }
+}
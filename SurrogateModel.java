@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A fast stand-in for the simulation, for sweeping many mixes of species
+ * when even a headless run of each is too slow. It treats the ocean as
+ * well mixed and models the density of each species from step to step
+ * with coupled difference equations in the style of Lotka-Volterra:
+ *
+ *   x_i(t+1) = x_i(t) * (1 + r_i + d_i * day(t+1) + sum_j a_ij * x_j(t))
+ *
+ * where x is the fraction of cells a species holds, r_i its growth rate
+ * net of disease, d_i how much day changes it, and a_ij how much species
+ * j (prey, predators and rivals for space) changes it. The coefficients
+ * are fitted by least squares from the traces of short runs of the real
+ * simulation (through a ResultCache, so refitting is cheap), with each
+ * step weighted by the species' count.
+ *
+ * A forecast of a few hundred steps takes microseconds. The model is
+ * checked against runs it was not fitted to (see validate), and each
+ * forecast says why it should not be trusted, if it should not: a mix or
+ * length outside what the model was fitted to, an error found by
+ * validation over the limit, or a species that falls to a handful and
+ * then recovers. A mean-field model lets a fraction of an organism breed
+ * back up, where in the simulation the last few would most likely have
+ * died out.
+ *
+ * Usage: java SurrogateModel directory [depth width steps]
+ * fits a model around the default mix from runs cached in the directory,
+ * validates it, and times a sweep of forecasts.
+ *
+ * @version 1.0
+ */
+public class SurrogateModel {
+    // Coefficients per species: the rate, the day term, one per species.
+    private static final int SPECIES = Species.values().length;
+    private static final int TERMS = 2 + SPECIES;
+    // Keeps the fit solvable when a term never varies, e.g. an absent
+    // species.
+    private static final double RIDGE = 1e-9;
+    // A species forecast to fall below this many organisms would most
+    // likely die out.
+    private static final double EXTINCTION_RISK = 20;
+    // Mixes may stray this far beyond the fitted range, as a fraction of
+    // the range, and still be trusted.
+    private static final double MIX_MARGIN = 0.1;
+    // The largest validation error, relative to the population, that is
+    // trusted.
+    private static final double MAX_ERROR = 0.25;
+    private static final double[] DEFAULT_MIX = { 0.02, 0.02, 0.08, 0.1, 0.05, 0.15 };
+
+    // coefficients[i][k]: term k of species i's growth.
+    private final double[][] coefficients;
+    // The range of each species' creation probability fitted to.
+    private final double[] minMix, maxMix;
+    private final int fittedSteps;
+    // The validation error of each species, or NaN until validated.
+    private final double[] error = new double[SPECIES];
+
+    /**
+     * A forecast: the expected population of each species after every
+     * step, and why it should not be trusted, if it should not.
+     *
+     * @param populations The population of each species, in Species
+     *                    order, at step 0 and after every step.
+     * @param warnings    Why not to trust the forecast; empty if it can
+     *                    be trusted.
+     */
+    public record Forecast(double[][] populations, List<String> warnings) {
+        /**
+         * @return true if the forecast can be trusted.
+         */
+        public boolean isTrusted() {
+            return warnings.isEmpty();
+        }
+    }
+
+    private SurrogateModel(double[][] coefficients, double[] minMix, double[] maxMix, int fittedSteps) {
+        this.coefficients = coefficients;
+        this.minMix = minMix;
+        this.maxMix = maxMix;
+        this.fittedSteps = fittedSteps;
+        Arrays.fill(error, Double.NaN);
+    }
+
+    public static void main(String[] args) throws IOException {
+        ResultCache cache = new ResultCache(Paths.get(args[0]));
+        int depth = args.length > 3 ? Integer.parseInt(args[1]) : 80;
+        int width = args.length > 3 ? Integer.parseInt(args[2]) : 120;
+        int steps = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        // Fit to mixes around the default, and validate on others.
+        Random random = new Random(1);
+        List<ResultCache.Run> training = new ArrayList<>();
+        List<ResultCache.Run> validation = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            double[] mix = new double[SPECIES];
+            for (int s = 0; s < SPECIES; s++) {
+                mix[s] = DEFAULT_MIX[s] * (0.5 + random.nextDouble());
+            }
+            (i % 4 == 3 ? validation : training).add(new ResultCache.Run(depth, width, mix, 100 + i, steps));
+        }
+        long start = System.nanoTime();
+        SurrogateModel model = fit(cache, training);
+        System.out.printf("Fitted to %d runs of %d steps in %.1f s%n", training.size(), steps,
+                (System.nanoTime() - start) / 1e9);
+        double[] errors = model.validate(cache, validation);
+        for (Species species : Species.values()) {
+            System.out.printf("%-10s error %5.1f%%%n", species.organismClass().getSimpleName(),
+                    100 * errors[species.ordinal()]);
+        }
+
+        int sweep = 10_000;
+        int trusted = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < sweep; i++) {
+            double[] mix = new double[SPECIES];
+            for (int s = 0; s < SPECIES; s++) {
+                mix[s] = DEFAULT_MIX[s] * (0.4 + 1.2 * random.nextDouble());
+            }
+            if (model.forecast(mix, depth, width, steps).isTrusted()) {
+                trusted++;
+            }
+        }
+        System.out.printf("%d forecasts of %d steps: %.1f us each, %d trusted%n", sweep, steps,
+                (System.nanoTime() - start) / 1e3 / sweep, trusted);
+    }
+
+    /**
+     * Fit a model to runs of the simulation.
+     *
+     * @param cache The cache to make the runs through.
+     * @param runs  The runs, which should cover the mixes the model is
+     *              to forecast.
+     * @return The model.
+     * @throws IOException If the cache cannot be read or written.
+     */
+    public static SurrogateModel fit(ResultCache cache, List<ResultCache.Run> runs) throws IOException {
+        // The normal equations of each species' weighted least squares.
+        double[][][] normal = new double[SPECIES][TERMS][TERMS];
+        double[][] moment = new double[SPECIES][TERMS];
+        double[] minMix = new double[SPECIES];
+        double[] maxMix = new double[SPECIES];
+        Arrays.fill(minMix, Double.MAX_VALUE);
+        int fittedSteps = Integer.MAX_VALUE;
+        double[] terms = new double[TERMS];
+        for (ResultCache.Run run : runs) {
+            for (int s = 0; s < SPECIES; s++) {
+                minMix[s] = Math.min(minMix[s], run.mix()[s]);
+                maxMix[s] = Math.max(maxMix[s], run.mix()[s]);
+            }
+            fittedSteps = Math.min(fittedSteps, run.steps());
+            List<int[]> trace = cache.run(run).trace();
+            double cells = (double) run.depth() * run.width();
+            for (int t = 0; t + 1 < trace.size(); t++) {
+                int[] now = trace.get(t);
+                int[] next = trace.get(t + 1);
+                terms(now, cells, t + 1, terms);
+                for (int i = 0; i < SPECIES; i++) {
+                    if (now[i] == 0) {
+                        continue;
+                    }
+                    // Weighted by the count, the fit is of the change in
+                    // numbers rather than of noisy rates of a few.
+                    double weight = now[i];
+                    double growth = (double) next[i] / now[i] - 1;
+                    for (int k = 0; k < TERMS; k++) {
+                        moment[i][k] += weight * terms[k] * growth;
+                        for (int l = 0; l < TERMS; l++) {
+                            normal[i][k][l] += weight * terms[k] * terms[l];
+                        }
+                    }
+                }
+            }
+        }
+        double[][] coefficients = new double[SPECIES][];
+        for (int i = 0; i < SPECIES; i++) {
+            coefficients[i] = solve(normal[i], moment[i]);
+        }
+        return new SurrogateModel(coefficients, minMix, maxMix, fittedSteps);
+    }
+
+    /**
+     * Compare the model's forecasts with runs of the simulation, from the
+     * same starting populations, and remember the error so that later
+     * forecasts can be judged by it.
+     *
+     * @param cache The cache to make the runs through.
+     * @param runs  The runs, best not those the model was fitted to.
+     * @return The error of each species, in Species order: the root mean
+     *         square difference over every step, relative to the root
+     *         mean square population (rather than the mean, which is
+     *         tiny for a species that soon dies out).
+     * @throws IOException If the cache cannot be read or written.
+     */
+    public double[] validate(ResultCache cache, List<ResultCache.Run> runs) throws IOException {
+        double[] squares = new double[SPECIES];
+        double[] populationSquares = new double[SPECIES];
+        for (ResultCache.Run run : runs) {
+            List<int[]> trace = cache.run(run).trace();
+            double[] initial = new double[SPECIES];
+            for (int s = 0; s < SPECIES; s++) {
+                initial[s] = trace.get(0)[s];
+            }
+            double[][] forecast = simulate(initial, (double) run.depth() * run.width(), trace.size() - 1);
+            for (int t = 0; t < trace.size(); t++) {
+                for (int s = 0; s < SPECIES; s++) {
+                    double difference = forecast[t][s] - trace.get(t)[s];
+                    squares[s] += difference * difference;
+                    populationSquares[s] += (double) trace.get(t)[s] * trace.get(t)[s];
+                }
+            }
+        }
+        for (int s = 0; s < SPECIES; s++) {
+            error[s] = populationSquares[s] > 0 ? Math.sqrt(squares[s] / populationSquares[s]) : 0;
+        }
+        return error.clone();
+    }
+
+    /**
+     * Forecast the populations of a freshly populated field.
+     *
+     * @param mix   The creation probability of each species, in Species
+     *              order.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param steps The number of steps to forecast.
+     * @return The forecast.
+     */
+    public Forecast forecast(double[] mix, int depth, int width, int steps) {
+        double cells = (double) depth * width;
+        double[] initial = new double[SPECIES];
+        for (int s = 0; s < SPECIES; s++) {
+            initial[s] = mix[s] * cells;
+        }
+        double[][] populations = simulate(initial, cells, steps);
+
+        List<String> warnings = new ArrayList<>();
+        for (Species species : Species.values()) {
+            int s = species.ordinal();
+            String name = species.organismClass().getSimpleName();
+            double margin = MIX_MARGIN * (maxMix[s] - minMix[s]);
+            if (mix[s] < minMix[s] - margin || mix[s] > maxMix[s] + margin) {
+                warnings.add(name + " mix " + mix[s] + " is outside the fitted range");
+            }
+            if (error[s] > MAX_ERROR) {
+                warnings.add(name + " validation error is " + Math.round(100 * error[s]) + "%");
+            }
+            int low = -1;
+            for (int t = 0; t <= steps; t++) {
+                if (low < 0 && populations[t][s] < EXTINCTION_RISK) {
+                    low = t;
+                } else if (low >= 0 && populations[t][s] >= EXTINCTION_RISK) {
+                    warnings.add(name + " recovers from fewer than " + (int) EXTINCTION_RISK + " at step " + low);
+                    break;
+                }
+            }
+        }
+        if (steps > fittedSteps) {
+            warnings.add(steps + " steps is beyond the " + fittedSteps + " fitted to");
+        }
+        if (Double.isNaN(error[0])) {
+            warnings.add("The model has not been validated");
+        }
+        return new Forecast(populations, warnings);
+    }
+
+    /**
+     * Step the equations on from the given populations.
+     *
+     * @return The populations at step 0 and after every step.
+     */
+    private double[][] simulate(double[] initial, double cells, int steps) {
+        double[][] populations = new double[steps + 1][];
+        populations[0] = initial.clone();
+        double[] terms = new double[TERMS];
+        for (int t = 0; t < steps; t++) {
+            double[] now = populations[t];
+            double[] next = new double[SPECIES];
+            terms(now, cells, t + 1, terms);
+            double occupied = 0;
+            for (int i = 0; i < SPECIES; i++) {
+                double growth = 0;
+                for (int k = 0; k < TERMS; k++) {
+                    growth += coefficients[i][k] * terms[k];
+                }
+                next[i] = Math.max(0, now[i] * (1 + growth));
+                occupied += next[i];
+            }
+            if (occupied > cells) {
+                // One organism per cell.
+                for (int i = 0; i < SPECIES; i++) {
+                    next[i] *= cells / occupied;
+                }
+            }
+            populations[t + 1] = next;
+        }
+        return populations;
+    }
+
+    /**
+     * Fill in the terms of the growth into a step: 1, whether the step is
+     * by day, and the density of each species before it.
+     */
+    private static void terms(int[] counts, double cells, int step, double[] terms) {
+        double[] populations = new double[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            populations[i] = counts[i];
+        }
+        terms(populations, cells, step, terms);
+    }
+
+    private static void terms(double[] populations, double cells, int step, double[] terms) {
+        terms[0] = 1;
+        // The simulator turns day and night over at the start of a step,
+        // from day at step 0, so even steps are by day.
+        terms[1] = step % 2 == 0 ? 1 : 0;
+        for (int j = 0; j < SPECIES; j++) {
+            terms[2 + j] = populations[j] / cells;
+        }
+    }
+
+    /**
+     * Solve the normal equations by Gaussian elimination with partial
+     * pivoting, after a small ridge.
+     */
+    private static double[] solve(double[][] normal, double[] moment) {
+        int n = moment.length;
+        double[][] a = new double[n][n + 1];
+        double scale = 0;
+        for (int k = 0; k < n; k++) {
+            scale = Math.max(scale, normal[k][k]);
+        }
+        for (int k = 0; k < n; k++) {
+            System.arraycopy(normal[k], 0, a[k], 0, n);
+            a[k][k] += RIDGE * Math.max(scale, 1);
+            a[k][n] = moment[k];
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            for (int row = col + 1; row < n; row++) {
+                double factor = a[row][col] / a[col][col];
+                for (int k = col; k <= n; k++) {
+                    a[row][k] -= factor * a[col][k];
+                }
+            }
+        }
+        double[] x = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = a[row][n];
+            for (int k = row + 1; k < n; k++) {
+                sum -= a[row][k] * x[k];
+            }
+            x[row] = sum / a[row][row];
+        }
+        return x;
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A view of the field for a terminal, e.g. over SSH on a machine with no
+ * display. The field is shrunk to fit the terminal, each pixel taking the
+ * species that holds most of its cells, and drawn with the upper half
+ * block character: its foreground is one pixel and its background the
+ * pixel below, so a character shows two rows. Colours are the nearest of
+ * the 16 standard ANSI colours to each species' own.
+ *
+ * After the first frame only the characters that changed are drawn, with
+ * a cursor move when they are not next to the last one drawn and a colour
+ * change only when the colour differs. The view subscribes to the
+ * simulation's snapshots for the latest one only (see StepPublisher), and
+ * waits after each frame for as long as its bytes take at the chosen
+ * rate before asking for the next, so a slow terminal sees fewer frames
+ * rather than holding up the simulation.
+ *
+ * Usage: java TerminalView [depth width steps [bytesPerSecond]]
+ * runs the simulation without a window and shows it in the terminal, at
+ * the size given by the COLUMNS and LINES environment variables if they
+ * are set.
+ *
+ * @version 1.0
+ */
+public class TerminalView implements Flow.Subscriber<StepSnapshot> {
+    // The output rate, unless another is chosen.
+    public static final int DEFAULT_BYTES_PER_SECOND = 4096;
+    // The most frames drawn per second, however fast the terminal.
+    private static final int MAX_FRAMES_PER_SECOND = 10;
+    private static final int DEFAULT_COLUMNS = 80;
+    private static final int DEFAULT_LINES = 24;
+    private static final String ESCAPE = "\u001b[";
+    private static final char UPPER_HALF_BLOCK = '\u2580';
+    // The usual RGB of the 16 standard ANSI colours.
+    private static final int[] ANSI_COLOURS = { 0x000000, 0xcd0000, 0x00cd00, 0xcdcd00, 0x0000ee, 0xcd00cd,
+            0x00cdcd, 0xe5e5e5, 0x7f7f7f, 0xff0000, 0x00ff00, 0xffff00, 0x5c5cff, 0xff00ff, 0x00ffff, 0xffffff };
+
+    private final OutputStream out;
+    private final int columns, lines;
+    private final long bytesPerSecond;
+    // The ANSI colour of each species code.
+    private final int[] colours = new int[GridKernels.CODES];
+
+    private Flow.Subscription subscription;
+    // The field's size, and the cells per pixel side.
+    private int depth, width, scale;
+    // The pixels across and down, and the characters showing them.
+    private int pixelCols, pixelRows, textRows;
+    // The colours of each character as last drawn (foreground << 8 |
+    // background), or -1 before the first frame.
+    private int[] shown;
+    private int[] pixels;
+    private int[] counts;
+    private final StringBuilder frame = new StringBuilder();
+    // The colours and position the terminal was left with by the last
+    // frame, or -1 if not known.
+    private int currentForeground, currentBackground, cursorRow, cursorCol;
+    private long nextFrameNanos;
+    // Counted down once the terminal has been put back.
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /**
+     * Create a view that draws to the given stream.
+     *
+     * @param out            The terminal.
+     * @param columns        The width of the terminal in characters.
+     * @param lines          The height of the terminal in lines; the last
+     *                       is kept for the step and populations.
+     * @param bytesPerSecond The most bytes to send per second.
+     */
+    public TerminalView(OutputStream out, int columns, int lines, long bytesPerSecond) {
+        this.out = out;
+        this.columns = columns;
+        this.lines = lines;
+        this.bytesPerSecond = bytesPerSecond;
+        int[] palette = Species.defaultPalette();
+        for (int code = 0; code < palette.length; code++) {
+            colours[code] = nearestAnsiColour(palette[code]);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int depth = args.length > 2 ? Integer.parseInt(args[0]) : 200;
+        int width = args.length > 2 ? Integer.parseInt(args[1]) : 300;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long rate = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_BYTES_PER_SECOND;
+        int columns = environmentSize("COLUMNS", DEFAULT_COLUMNS);
+        int lines = environmentSize("LINES", DEFAULT_LINES);
+
+        OutputStream terminal = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+        // The simulator reports every step; keep it off the terminal.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Simulator simulator = new Simulator(depth, width, false);
+        TerminalView view = new TerminalView(terminal, columns, lines, rate);
+        simulator.getPublisher().subscribe(view);
+        simulator.simulate(steps);
+        simulator.getPublisher().close();
+        view.awaitFinished();
+    }
+
+    /**
+     * Wait until the view has drawn its last frame and put the terminal
+     * back, after the publisher is closed.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitFinished() throws InterruptedException {
+        finished.await();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(StepSnapshot snapshot) {
+        if (snapshot.getDepth() != depth || snapshot.getWidth() != width) {
+            layOut(snapshot.getDepth(), snapshot.getWidth());
+        }
+        downsample(snapshot);
+        drawChanges();
+        drawStatus(snapshot);
+        int bytes = send();
+
+        // Leave the terminal time to take the frame before the next one.
+        long now = System.nanoTime();
+        long wait = Math.max(1_000_000_000L / MAX_FRAMES_PER_SECOND, bytes * 1_000_000_000L / bytesPerSecond);
+        nextFrameNanos = Math.max(now, nextFrameNanos) + wait;
+        LockSupport.parkNanos(nextFrameNanos - now);
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        finish();
+    }
+
+    @Override
+    public void onComplete() {
+        finish();
+    }
+
+    /**
+     * Fit a field of the given size to the terminal, and forget what was
+     * drawn before.
+     */
+    private void layOut(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        textRows = Math.max(1, lines - 1);
+        scale = Math.max(1, Math.max((width + columns - 1) / columns, (depth + 2 * textRows - 1) / (2 * textRows)));
+        pixelCols = (width + scale - 1) / scale;
+        pixelRows = (depth + scale - 1) / scale;
+        textRows = (pixelRows + 1) / 2;
+        pixels = new int[pixelRows * pixelCols];
+        shown = new int[textRows * pixelCols];
+        Arrays.fill(shown, -1);
+        counts = new int[pixelCols * GridKernels.CODES];
+        currentForeground = -1;
+        currentBackground = -1;
+        cursorRow = -1;
+        // Clear the screen and hide the cursor before the first frame.
+        frame.append(ESCAPE).append("0m").append(ESCAPE).append("2J").append(ESCAPE).append("?25l");
+    }
+
+    /**
+     * Give each pixel the colour of the species (or emptiness) holding
+     * most of its cells.
+     */
+    private void downsample(StepSnapshot snapshot) {
+        for (int pixelRow = 0; pixelRow < pixelRows; pixelRow++) {
+            Arrays.fill(counts, 0);
+            int bottom = Math.min(depth, (pixelRow + 1) * scale);
+            for (int row = pixelRow * scale; row < bottom; row++) {
+                for (int col = 0; col < width; col++) {
+                    counts[(col / scale) * GridKernels.CODES + snapshot.getCode(row, col)]++;
+                }
+            }
+            for (int pixelCol = 0; pixelCol < pixelCols; pixelCol++) {
+                int most = Species.EMPTY;
+                for (int code = 1; code < GridKernels.CODES; code++) {
+                    if (counts[pixelCol * GridKernels.CODES + code] > counts[pixelCol * GridKernels.CODES + most]) {
+                        most = code;
+                    }
+                }
+                pixels[pixelRow * pixelCols + pixelCol] = colours[most];
+            }
+        }
+    }
+
+    /**
+     * Add to the frame the characters whose colours changed.
+     */
+    private void drawChanges() {
+        for (int textRow = 0; textRow < textRows; textRow++) {
+            for (int col = 0; col < pixelCols; col++) {
+                int top = pixels[2 * textRow * pixelCols + col];
+                // An odd number of pixel rows leaves the last half empty.
+                int bottom = 2 * textRow + 1 < pixelRows ? pixels[(2 * textRow + 1) * pixelCols + col]
+                        : colours[Species.EMPTY];
+                int pair = top << 8 | bottom;
+                if (shown[textRow * pixelCols + col] == pair) {
+                    continue;
+                }
+                shown[textRow * pixelCols + col] = pair;
+                moveTo(textRow, col);
+                if (top == bottom) {
+                    // A space shows only the background.
+                    setColours(currentForeground, bottom);
+                    frame.append(' ');
+                } else {
+                    setColours(top, bottom);
+                    frame.append(UPPER_HALF_BLOCK);
+                }
+                cursorCol++;
+            }
+        }
+    }
+
+    /**
+     * Add to the frame the step and populations, on the line below the
+     * field.
+     */
+    private void drawStatus(StepSnapshot snapshot) {
+        moveTo(textRows, 0);
+        frame.append(ESCAPE).append("0m");
+        currentForeground = -1;
+        currentBackground = -1;
+        StringBuilder status = new StringBuilder("Step ").append(snapshot.getStep()).append(' ')
+                .append(snapshot.getWeather());
+        for (Species species : Species.values()) {
+            status.append(' ').append(species.organismClass().getSimpleName(), 0, 2).append(':')
+                    .append(snapshot.getCount(species));
+        }
+        if (status.length() > columns) {
+            status.setLength(columns);
+        }
+        frame.append(status).append(ESCAPE).append('K');
+        cursorRow = -1;
+    }
+
+    private void moveTo(int row, int col) {
+        if (row != cursorRow || col != cursorCol) {
+            frame.append(ESCAPE).append(row + 1).append(';').append(col + 1).append('H');
+            cursorRow = row;
+            cursorCol = col;
+        }
+    }
+
+    private void setColours(int foreground, int background) {
+        boolean newForeground = foreground != currentForeground && foreground >= 0;
+        boolean newBackground = background != currentBackground;
+        if (!newForeground && !newBackground) {
+            return;
+        }
+        frame.append(ESCAPE);
+        if (newForeground) {
+            frame.append(foreground < 8 ? 30 + foreground : 90 + foreground - 8);
+            currentForeground = foreground;
+        }
+        if (newBackground) {
+            if (newForeground) {
+                frame.append(';');
+            }
+            frame.append(background < 8 ? 40 + background : 100 + background - 8);
+            currentBackground = background;
+        }
+        frame.append('m');
+    }
+
+    /**
+     * Write the frame to the terminal.
+     *
+     * @return The bytes written.
+     */
+    private int send() {
+        byte[] bytes = frame.toString().getBytes(StandardCharsets.UTF_8);
+        frame.setLength(0);
+        try {
+            out.write(bytes);
+            out.flush();
+        } catch (IOException e) {
+            subscription.cancel();
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Put the terminal back as it was, below the field.
+     */
+    private void finish() {
+        frame.append(ESCAPE).append("0m").append(ESCAPE).append("?25h");
+        moveTo(textRows + 1, 0);
+        frame.append('\n');
+        send();
+        finished.countDown();
+    }
+
+    /**
+     * @return The nearest of the 16 ANSI colours to an RGB colour.
+     */
+    static int nearestAnsiColour(int rgb) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < ANSI_COLOURS.length; i++) {
+            long red = ((rgb >> 16) & 0xff) - ((ANSI_COLOURS[i] >> 16) & 0xff);
+            long green = ((rgb >> 8) & 0xff) - ((ANSI_COLOURS[i] >> 8) & 0xff);
+            long blue = (rgb & 0xff) - (ANSI_COLOURS[i] & 0xff);
+            long distance = red * red + green * green + blue * blue;
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static int environmentSize(String name, int fallback) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
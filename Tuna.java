@@ -1,3 +1,6 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Random;
 
@@ -55,7 +58,7 @@ public class Tuna extends Organism {
     private void giveBirth(Field currentField, Field nextFieldState, List<Location> freeLocations) {
         int births = 0;
 
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
+        if (canBreed() && breedingRoll(BREEDING_PROBABILITY, rand)) {
             List<Location> adjacent = currentField.getAdjacentLocations(getLocation());
             for (Location loc : adjacent) {
                 Organism animal = currentField.getAnimalAt(loc);
@@ -87,4 +90,21 @@ public class Tuna extends Organism {
     public boolean isMale() {
         return isMale;
     }
+
+    @Override
+    protected void writeState(DataOutput out) throws IOException {
+        out.writeInt(age);
+        out.writeBoolean(isMale);
+    }
+
+    @Override
+    protected void readState(DataInput in) throws IOException {
+        age = in.readInt();
+        isMale = in.readBoolean();
+    }
+
+    @Override
+    public Species getSpecies() {
+        return Species.TUNA;
+    }
 }